@@ -0,0 +1,972 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           Benchmark
+// Description:     Command-line benchmarks for the simulation's hot paths
+
+//                  Usage: java Benchmark [name ...] [option=value ...]
+//                      (runs every benchmark when no name is given)
+
+//                  Hot-path benchmarks: force, integrate, collision, merge,
+//                      iterate, render, round (or "suite" for all of them), each
+//                      run for every combination of the options
+//                          n=100,400,1600          number of entities
+//                          scenario=random,sparse  workload preset (also
+//                                                  disc, plummer, pair)
+//                          iterations=5            measured runs
+//                          json=results.json       file to write results to
+
+//                  These time single runs after a warmup, in the one JVM,
+//                      keeping each result in a volatile sink; without
+//                      forking they can carry the JIT's choices from one
+//                      benchmark into the next, so they are for comparing
+//                      changes on one machine rather than absolute numbers
+
+//                  Force backend timings: scalar, vectorized,
+//                      mixed-precision, multipole (the same runs, on
+//                      randomBodies, for each n; the scenario is not used)
+
+//                  Backend comparisons: kernel, mixed, multipole
+
+//                  The JMH benchmarks in jmh/ (built by pom.xml) time the
+//                      kernel, collision and multipole runs from setupFor
+//                      in forked JVMs
+
+//                  Allocation check: garbage (bytes allocated by each
+//                      zero-garbage iteration once warmed up, for the same
+//                      entity counts and scenarios)
+
+//                  Collision check: overlap (pairs of entities left
+//                      overlapping after each iteration, on each force
+//                      backend, for the same entity counts and scenarios)
+
+class Benchmark {
+
+    // Seed used for every generated workload
+    static final long SEED = 460;
+
+    // Hot-path benchmarks run by "suite"
+    static final String[] SUITE = {"force", "integrate", "collision", "merge", "iterate", "render", "round"};
+
+    // Minimum warmup runs and time before each measurement
+    static final int WARMUPS = 3;
+    static final long WARMUP_NANOS = 1000000000L;
+
+    // Steps without merges the allocation check needs before it can pass,
+    // and how many times its step count it runs looking for them
+    static final int MIN_CLEAN_STEPS = 10;
+    static final int MAX_STEP_FACTOR = 10;
+
+    // Parameters of the hot-path benchmarks
+    static int[] sizes = {100, 400, 1600};
+    static String[] scenarios = {"random", "sparse"};
+    static int iterations = 5;
+    static String jsonFile = null;
+
+    // Results of the hot-path benchmarks, as JSON objects
+    static List<String> results = new ArrayList<>();
+
+    // Keeps results alive so the JIT can't discard the work
+    static volatile Object sink;
+
+    // *************************************************************************
+
+    // Method:          main
+
+    // Description:     Runs the requested benchmarks
+
+    // Parameters:      args - Names of the benchmarks to run, and options
+
+    // Returns:         Nothing
+
+    // Calls:           multipoleCrossover
+    //                  directKernels
+    //                  mixedPrecision
+    //                  runHotPath
+    //                  allocationCheck, overlapCheck
+    //                  writeJson
+
+    // Globals:         sizes, scenarios, iterations, jsonFile
+
+    public static void main(String[] args) {
+
+        List<String> names = new ArrayList<>();
+
+        for (String arg : args) {
+
+            String[] option = arg.split("=", 2);
+
+            if (option.length == 1) {
+                names.add(arg);
+                continue;
+            }
+
+            switch (option[0]) {
+                case "n":
+                    String[] values = option[1].split(",");
+                    sizes = new int[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        sizes[i] = Integer.parseInt(values[i].trim());
+                    }
+                    break;
+                case "scenario":
+                    scenarios = option[1].split(",");
+                    break;
+                case "iterations":
+                    iterations = Integer.parseInt(option[1]);
+                    break;
+                case "json":
+                    jsonFile = option[1];
+                    break;
+                default:
+                    System.out.println("\nUnknown option: " + option[0]);
+                    break;
+            }
+
+        }
+
+        if (names.isEmpty()) {
+            names.add("suite");
+            names.add("kernel");
+            names.add("mixed");
+            names.add("multipole");
+            names.add("garbage");
+            names.add("overlap");
+        }
+
+        for (String name : names) {
+            switch (name) {
+                case "suite":
+                    for (String benchmark : SUITE) {
+                        runHotPath(benchmark);
+                    }
+                    break;
+                case "force": case "integrate": case "collision": case "merge": case "iterate": case "render": case "round":
+                case "scalar": case "vectorized": case "mixed-precision": case "multipole-solver":
+                    runHotPath(name);
+                    break;
+                case "kernel":
+                    directKernels();
+                    break;
+                case "mixed":
+                    mixedPrecision();
+                    break;
+                case "multipole":
+                    multipoleCrossover();
+                    break;
+                case "garbage":
+                    allocationCheck();
+                    break;
+                case "overlap":
+                    overlapCheck();
+                    break;
+                default:
+                    System.out.println("\nUnknown benchmark: " + name);
+                    break;
+            }
+        }
+
+        if (jsonFile != null) {
+            writeJson();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          runHotPath
+
+    // Description:     Runs one hot-path benchmark for every entity count
+    //                      and scenario, printing and recording the results
+
+    // Parameters:      benchmark - Name of the hot-path benchmark
+
+    // Returns:         Nothing
+
+    // Calls:           setupFor
+    //                  measure
+    //                  record
+
+    // Globals:         sizes, scenarios
+
+    static void runHotPath (String benchmark) {
+
+        System.out.println("\n" + benchmark + " (us/op, mean +- standard deviation):");
+
+        for (String scenario : scenarios) {
+            for (int n : sizes) {
+
+                double[] score;
+                try {
+                    score = measure(setupFor(benchmark, scenario, n));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("  " + e.getMessage());
+                    return;
+                }
+
+                System.out.printf("  %-8s N = %7d   %12.1f +- %.1f\n", scenario, n, score[0], score[1]);
+                record(benchmark, scenario, n, score);
+
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          setupFor
+
+    // Description:     Builds the setup for one hot-path benchmark: a
+    //                      supplier that prepares the state for a single
+    //                      run (untimed) and returns the operation to time
+
+    // Parameters:      benchmark - Name of the hot-path benchmark
+    //                  scenario - Workload preset
+    //                  n - Number of entities
+
+    // Returns:         The setup for the benchmark
+
+    // Calls:           createSimulation
+    //                  Simulation
+    //                  Vector
+    //                  solverFor
+    //                  randomBodies
+
+    // Globals:         sink
+
+    static Supplier<Runnable> setupFor (String benchmark, String scenario, int n) {
+
+        switch (benchmark) {
+
+            // The pairwise force step for every entity:
+            case "force": {
+                Simulation simulation = createSimulation(scenario, n);
+                return () -> simulation::computeAccelerations;
+            }
+
+            // Advancing and confirming every entity's velocity and position:
+            case "integrate": {
+                Simulation simulation = createSimulation(scenario, n);
+                simulation.computeAccelerations();
+                return () -> () -> {
+                    for (Entity e : simulation.entities) {
+                        e.updateVelocity(1.0);
+                        e.updatePosition(1.0);
+                        e.confirmVelocity();
+                        e.confirmPosition();
+                    }
+                };
+            }
+
+            // Collision prediction over all pairs:
+            case "collision": {
+                Simulation simulation = createSimulation(scenario, n);
+                advance(simulation, 1.0);
+                return () -> () -> sink = simulation.computeCollisions(1.0);
+            }
+
+            // Merging every predicted collision (state is rebuilt each run):
+            case "merge":
+                return () -> {
+                    Simulation simulation = createSimulation(scenario, n);
+                    advance(simulation, 1.0);
+                    CollisionBuffer collisions = simulation.computeCollisions(1.0);
+                    return () -> sink = simulation.processCollisions(collisions);
+                };
+
+            // One full iteration (state is rebuilt each run):
+            case "iterate":
+                return () -> {
+                    Simulation simulation = createSimulation(scenario, n);
+                    return () -> simulation.iterate(1.0);
+                };
+
+            // Drawing a frame into the display image:
+            case "render": {
+                Simulation simulation = createSimulation(scenario, n);
+                simulation.renderFrame();
+                return () -> simulation::renderFrame;
+            }
+
+            // Rounding n values as the integrator does:
+            case "round": {
+                double[] values = new double[n];
+                Random r = new Random(SEED);
+                for (int i = 0; i < n; i++) {
+                    values[i] = r.nextDouble() * 1000 - 500;
+                }
+                return () -> () -> {
+                    double total = 0;
+                    for (double v : values) {
+                        total += Vector.roundDouble(v, 9);
+                    }
+                    sink = total;
+                };
+            }
+
+            // One force backend over n random bodies:
+            case "scalar": case "vectorized": case "mixed-precision": case "multipole-solver": {
+                Simulation simulation = new Simulation(800, 800, 0);
+                simulation.softening = 1;
+                ForceSolver solver = solverFor(benchmark, simulation);
+                BodyStore bodies = randomBodies(n);
+                return () -> () -> solver.computeAccelerations(bodies, simulation);
+            }
+
+            default:
+                throw new IllegalArgumentException("Unknown benchmark: " + benchmark);
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          solverFor
+
+    // Description:     Creates the force backend timed by a backend
+    //                      benchmark
+
+    // Parameters:      benchmark - Name of the backend benchmark
+    //                  simulation - The simulation the backend will run for
+
+    // Returns:         The backend
+
+    // Calls:           DirectSumSolver
+    //                  FastMultipole
+
+    // Globals:         None
+
+    static ForceSolver solverFor (String benchmark, Simulation simulation) {
+
+        ForceSolver solver;
+
+        switch (benchmark) {
+            case "scalar":
+                return new DirectSumSolver();
+            case "vectorized":
+                solver = DirectSumSolver.select(simulation, "VectorizedDirectSolver");
+                break;
+            case "mixed-precision":
+                solver = DirectSumSolver.select(simulation, "MixedPrecisionSolver");
+                break;
+            case "multipole-solver":
+                return new FastMultipole(6, 16);
+            default:
+                throw new IllegalArgumentException("Unknown backend benchmark: " + benchmark);
+        }
+
+        // Timing the scalar fallback under the vector kernel's name would
+        // be misleading:
+        if (solver instanceof DirectSumSolver) {
+            throw new IllegalArgumentException("The Vector API kernels are not available (compile vector/ and run with --add-modules jdk.incubator.vector)");
+        }
+
+        return solver;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          measure
+
+    // Description:     Times single runs of an operation, preparing fresh
+    //                      state before each run outside of the timing
+    //                      (after warming up for at least a second)
+
+    // Parameters:      setup - Prepares a run and returns the operation
+
+    // Returns:         The mean and standard deviation, in microseconds
+
+    // Calls:           Nothing
+
+    // Globals:         iterations
+
+    static double[] measure (Supplier<Runnable> setup) {
+
+        long warmupStart = System.nanoTime();
+        for (int run = 0; run < WARMUPS || System.nanoTime() - warmupStart < WARMUP_NANOS; run++) {
+            setup.get().run();
+        }
+
+        double sum = 0;
+        double sumSquared = 0;
+
+        for (int run = 0; run < iterations; run++) {
+
+            Runnable operation = setup.get();
+
+            long start = System.nanoTime();
+            operation.run();
+            double time = (System.nanoTime() - start) / 1e3;
+
+            sum += time;
+            sumSquared += time * time;
+
+        }
+
+        double mean = sum / iterations;
+        double deviation = Math.sqrt(Math.max(0, sumSquared / iterations - mean * mean));
+
+        return new double[] {mean, deviation};
+
+    }
+
+    // *************************************************************************
+
+    // Method:          record
+
+    // Description:     Records a hot-path result as a JSON object (single
+    //                      timed runs in this JVM, not JMH results, so only
+    //                      compare them with runs of this harness)
+
+    // Parameters:      benchmark - Name of the hot-path benchmark
+    //                  scenario - Workload preset
+    //                  n - Number of entities
+    //                  score - Mean and standard deviation, in microseconds
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         results, iterations
+
+    static void record (String benchmark, String scenario, int n, double[] score) {
+
+        results.add(String.format(Locale.ROOT,
+                "  {\"benchmark\": \"%s\", \"scenario\": \"%s\", \"n\": %d, \"runs\": %d, "
+                + "\"meanMicros\": %.3f, \"deviationMicros\": %.3f}",
+                benchmark, scenario, n, iterations, score[0], score[1]));
+
+    }
+
+    // *************************************************************************
+
+    // Method:          writeJson
+
+    // Description:     Writes the recorded hot-path results to the JSON file
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         results, jsonFile
+
+    static void writeJson() {
+
+        try (FileWriter writer = new FileWriter(jsonFile)) {
+            writer.write("[\n" + String.join(",\n", results) + "\n]\n");
+            System.out.println("\nResults written to " + jsonFile);
+        } catch (IOException e) {
+            System.out.println("\nCould not write " + jsonFile + ": " + e.getMessage());
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          createSimulation
+
+    // Description:     Builds a headless simulation holding a reproducible
+    //                      workload (see InitialConditions.preset)
+
+    // Parameters:      scenario - Workload preset
+    //                  n - Number of entities
+
+    // Returns:         The simulation
+
+    // Calls:           Simulation
+    //                  InitialConditions
+
+    // Globals:         None
+
+    static Simulation createSimulation (String scenario, int n) {
+
+        Simulation simulation = new Simulation(800, 800, 0);
+        simulation.context.headless = true;
+
+        simulation.addEntities(InitialConditions.preset(scenario, n, SEED, simulation.context.G));
+
+        return simulation;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          advance
+
+    // Description:     Computes accelerations and future values for every
+    //                      entity, as iterate does before the collision pass
+
+    // Parameters:      simulation - The simulation to advance
+    //                  tW - The working time step
+
+    // Returns:         Nothing
+
+    // Calls:           Simulation
+    //                  Entity
+
+    // Globals:         None
+
+    static void advance (Simulation simulation, double tW) {
+
+        simulation.computeAccelerations();
+
+        for (Entity e : simulation.entities) {
+            e.updateVelocity(tW);
+            e.updatePosition(tW);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          allocationCheck
+
+    // Description:     Counts the bytes each iteration of a zero-garbage
+    //                      simulation allocates once warmed up, and reports
+    //                      whether the steps without merges (clean steps)
+    //                      allocated nothing; merges build new entities, so
+    //                      steps with them always allocate and aren't
+    //                      measured
+
+    //                  The run goes on (up to MAX_STEP_FACTOR times the
+    //                      step count) until MIN_CLEAN_STEPS clean steps
+    //                      are measured; with fewer the result is "not
+    //                      measured" rather than ok
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           createSimulation
+    //                  Simulation
+
+    // Globals:         sizes, scenarios, iterations
+    //                  MIN_CLEAN_STEPS, MAX_STEP_FACTOR
+
+    static void allocationCheck() {
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        System.out.println("\nZero-garbage iteration (bytes allocated per step after warmup):");
+        System.out.println("  scenario        N    steps   merging     clean   max bytes   result");
+
+        // Bytes reported for an empty interval:
+        long before = threads.getCurrentThreadAllocatedBytes();
+        long overhead = threads.getCurrentThreadAllocatedBytes() - before;
+
+        int steps = Math.max(iterations, 20);
+
+        for (String scenario : scenarios) {
+            for (int n : sizes) {
+
+                Simulation simulation = createSimulation(scenario, n);
+                simulation.zeroGarbage = true;
+
+                long warmupStart = System.nanoTime();
+                for (int run = 0; run < WARMUPS || System.nanoTime() - warmupStart < WARMUP_NANOS; run++) {
+                    simulation.iterate(simulation.tS);
+                }
+
+                int merging = 0, clean = 0;
+                long maxBytes = 0;
+
+                int run = 0;
+                for (; run < steps || (clean < MIN_CLEAN_STEPS && run < MAX_STEP_FACTOR * steps); run++) {
+
+                    int entities = simulation.entities.size();
+
+                    before = threads.getCurrentThreadAllocatedBytes();
+                    simulation.iterate(simulation.tS);
+                    long bytes = threads.getCurrentThreadAllocatedBytes() - before - overhead;
+
+                    if (simulation.entities.size() != entities) {
+                        merging++;
+                    } else {
+                        clean++;
+                        maxBytes = Math.max(maxBytes, bytes);
+                    }
+
+                }
+
+                String result = (maxBytes > 0) ? "ALLOCATES"
+                        : (clean < MIN_CLEAN_STEPS) ? "not measured (" + clean + " of " + MIN_CLEAN_STEPS + " clean steps)"
+                        : "ok";
+
+                System.out.printf("  %-8s %8d %8d %9d %9d %11d   %s\n", scenario, n, run, merging, clean, maxBytes, result);
+
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          overlapCheck
+
+    // Description:     Runs simulations on each force backend and counts
+    //                      the pairs of entities left overlapping after
+    //                      each iteration (every collision in a step is
+    //                      merged within it, so there should be none), and
+    //                      checks the total mass is conserved
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           createSimulation
+    //                  overlappingPairs
+    //                  Simulation, Quadtree, FastMultipole
+
+    // Globals:         sizes, scenarios, iterations
+
+    static void overlapCheck() {
+
+        System.out.println("\nOverlapping pairs after each iteration:");
+        System.out.println("  scenario        N  backend      steps    merged   overlaps   mass drift   result");
+
+        int steps = Math.max(iterations, 60);
+
+        for (String scenario : scenarios) {
+            for (int n : sizes) {
+                for (String backend : new String[] {"pairwise", "quadtree", "multipole"}) {
+
+                    Simulation simulation = createSimulation(scenario, n);
+                    if (backend.equals("quadtree")) {
+                        simulation.forceSolver = new Quadtree(0.5, 8);
+                    } else if (backend.equals("multipole")) {
+                        simulation.forceSolver = new FastMultipole(4, 8);
+                    }
+
+                    double massBefore = 0;
+                    for (Entity e : simulation.entities) {
+                        massBefore += e.mass;
+                    }
+
+                    int overlaps = 0;
+                    for (int run = 0; run < steps; run++) {
+                        simulation.iterate(simulation.tS);
+                        overlaps += overlappingPairs(simulation.entities);
+                    }
+
+                    double massAfter = 0;
+                    for (Entity e : simulation.entities) {
+                        massAfter += e.mass;
+                    }
+
+                    double drift = Math.abs(massAfter - massBefore) / massBefore;
+                    boolean ok = overlaps == 0 && drift < 1E-9;
+
+                    System.out.printf("  %-8s %8d  %-10s %7d %9d %10d %12.1e   %s\n", scenario, n, backend, steps,
+                            n - simulation.entities.size(), overlaps, drift, ok ? "ok" : "FAILED");
+
+                }
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          overlappingPairs
+
+    // Description:     Counts the pairs of entities whose circles overlap
+    //                      (by more than rounding error)
+
+    // Parameters:      entities - The entities to check
+
+    // Returns:         The number of overlapping pairs
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    static int overlappingPairs (List<Entity> entities) {
+
+        int overlaps = 0;
+
+        for (int i = 0; i < entities.size(); i++) {
+
+            Entity a = entities.get(i);
+
+            for (int j = i + 1; j < entities.size(); j++) {
+
+                Entity b = entities.get(j);
+
+                double reach = (a.radius + b.radius) * (1 - 1E-12);
+                double dX = a.position.getX() - b.position.getX();
+                double dY = a.position.getY() - b.position.getY();
+
+                if (dX * dX + dY * dY < reach * reach) {
+                    overlaps++;
+                }
+
+            }
+
+        }
+
+        return overlaps;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          multipoleCrossover
+
+    // Description:     Reports the accuracy of the fast multipole backend at
+    //                      each expansion order, and the number of bodies at
+    //                      which it overtakes direct summation
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Simulation
+    //                  FastMultipole
+    //                  DirectSumSolver
+    //                  ForceComparison
+    //                  randomBodies
+    //                  timeSolver
+
+    // Globals:         None
+
+    static void multipoleCrossover() {
+
+        Simulation simulation = new Simulation(800, 800, 0);
+        int[] orders = {2, 4, 6, 8, 10};
+
+        System.out.println("\nFast multipole accuracy (10000 bodies):");
+        System.out.println("  p   RMS error   max error");
+
+        BodyStore bodies = randomBodies(10000);
+        for (int p : orders) {
+            ForceComparison c = new ForceComparison();
+            c.compare(bodies, new FastMultipole(p, 16), simulation);
+            System.out.printf("%3d   %.3e   %.3e\n", p, c.rmsError, c.maxError);
+        }
+
+        System.out.println("\nFast multipole crossover against direct summation (best of 3 timings):");
+        System.out.println("  p   crossover N");
+
+        DirectSumSolver direct = new DirectSumSolver();
+
+        for (int p : orders) {
+
+            FastMultipole multipole = new FastMultipole(p, 16);
+            int crossover = -1;
+
+            for (int n = 250; n <= 64000 && crossover < 0; n *= 2) {
+                BodyStore b = randomBodies(n);
+                if (timeSolver(multipole, b, simulation) < timeSolver(direct, b, simulation)) {
+                    crossover = n;
+                }
+            }
+
+            System.out.printf("%3d   %s\n", p, crossover < 0 ? "> 64000" : "<= " + crossover);
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          directKernels
+
+    // Description:     Compares the scalar and vectorized direct-summation
+    //                      kernels, reporting the speedup and the largest
+    //                      deviation from the scalar result
+
+    //                  (needs the vector/ sources compiled in, and
+    //                      --add-modules jdk.incubator.vector at run time)
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Simulation
+    //                  DirectSumSolver
+    //                  ForceComparison
+    //                  randomBodies
+    //                  timeSolver
+
+    // Globals:         None
+
+    static void directKernels() {
+
+        Simulation simulation = new Simulation(800, 800, 0);
+        simulation.softening = 1;
+
+        ForceSolver kernel = DirectSumSolver.select(simulation, "VectorizedDirectSolver");
+        if (kernel instanceof DirectSumSolver) {
+            System.out.println("\nDirect summation kernels: the Vector API kernel is not available (compile vector/ and run with --add-modules jdk.incubator.vector)");
+            return;
+        }
+
+        // The vector kernel is slow to compile (it can take more than the
+        // warmup of one timing), so warm both kernels up once first:
+        BodyStore warmup = randomBodies(1000);
+        timeSolver(new DirectSumSolver(), warmup, simulation);
+        timeSolver(kernel, warmup, simulation);
+
+        System.out.println("\nDirect summation kernels (best of 3, ms), " + kernel.getName() + ":");
+        System.out.println("      N    scalar  vectorized  speedup   max error");
+
+        for (int n : new int[] {1000, 4000, 16000}) {
+
+            BodyStore bodies = randomBodies(n);
+
+            double scalar = timeSolver(new DirectSumSolver(), bodies, simulation);
+            double vectorized = timeSolver(kernel, bodies, simulation);
+
+            ForceComparison c = new ForceComparison();
+            c.compare(bodies, kernel, simulation);
+
+            System.out.printf("%7d  %8.2f    %8.2f  %6.2fx   %.1e\n", n, scalar, vectorized, scalar / vectorized, c.maxError);
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          mixedPrecision
+
+    // Description:     Reports the error of the mixed-precision kernel
+    //                      against the double kernel, both near the origin
+    //                      and far from it, along with the timings of it,
+    //                      the scalar double kernel and the Vector API
+    //                      double kernel
+
+    //                  (needs the vector/ sources compiled in, and
+    //                      --add-modules jdk.incubator.vector at run time)
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Simulation
+    //                  DirectSumSolver
+    //                  ForceComparison
+    //                  randomBodies
+    //                  timeSolver
+
+    // Globals:         None
+
+    static void mixedPrecision() {
+
+        Simulation simulation = new Simulation(800, 800, 0);
+        simulation.softening = 1;
+
+        ForceSolver mixed = DirectSumSolver.select(simulation, "MixedPrecisionSolver");
+        ForceSolver vectorized = DirectSumSolver.select(simulation, "VectorizedDirectSolver");
+        if (mixed instanceof DirectSumSolver || vectorized instanceof DirectSumSolver) {
+            System.out.println("\nMixed-precision kernel: the Vector API kernels are not available (compile vector/ and run with --add-modules jdk.incubator.vector)");
+            return;
+        }
+
+        // As in directKernels, the vector kernels are slow to compile:
+        BodyStore warmup = randomBodies(1000);
+        timeSolver(mixed, warmup, simulation);
+        timeSolver(vectorized, warmup, simulation);
+
+        System.out.println("\nMixed-precision kernel vs double kernels (best of 3, ms):");
+        System.out.println("      N      offset   RMS error   max error     scalar  vectorized      mixed");
+
+        for (int n : new int[] {1000, 4000, 16000}) {
+            for (double offset : new double[] {0, 1E6}) {
+
+                BodyStore bodies = randomBodies(n);
+                for (int i = 0; i < n; i++) {
+                    bodies.x[i] += offset;
+                    bodies.y[i] += offset;
+                }
+
+                ForceComparison c = new ForceComparison();
+                c.compare(bodies, mixed, simulation);
+
+                double scalarTime = timeSolver(new DirectSumSolver(), bodies, simulation);
+                double vectorizedTime = timeSolver(vectorized, bodies, simulation);
+                double mixedTime = timeSolver(mixed, bodies, simulation);
+
+                System.out.printf("%7d  %10.0f   %.3e   %.3e  %9.2f   %9.2f  %9.2f\n", n, offset, c.rmsError, c.maxError, scalarTime, vectorizedTime, mixedTime);
+
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          randomBodies
+
+    // Description:     Generates a reproducible Gaussian cluster of bodies
+
+    // Parameters:      n - Number of bodies
+
+    // Returns:         The generated bodies
+
+    // Calls:           RandomGenerator
+
+    // Globals:         None
+
+    static BodyStore randomBodies (int n) {
+
+        return RandomGenerator.generateBodies(n, SEED, (random, bodies, slot, i) -> {
+            bodies.x[slot] = RandomGenerator.gaussian(random) * 100;
+            bodies.y[slot] = RandomGenerator.gaussian(random) * 100;
+            bodies.vX[slot] = RandomGenerator.gaussian(random);
+            bodies.vY[slot] = RandomGenerator.gaussian(random);
+            bodies.radius[slot] = 1;
+            bodies.mass[slot] = Math.PI;
+        });
+
+    }
+
+    // *************************************************************************
+
+    // Method:          timeSolver
+
+    // Description:     Times a force backend (best of 3 runs after warming
+    //                      up as measure does, so the JIT has compiled it)
+
+    // Parameters:      solver - The backend to time
+    //                  bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         The best time, in milliseconds
+
+    // Calls:           ForceSolver
+
+    // Globals:         WARMUPS, WARMUP_NANOS
+
+    static double timeSolver (ForceSolver solver, BodyStore bodies, Simulation simulation) {
+
+        long warmupStart = System.nanoTime();
+        for (int run = 0; run < WARMUPS || System.nanoTime() - warmupStart < WARMUP_NANOS; run++) {
+            solver.computeAccelerations(bodies, simulation);
+        }
+
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            solver.computeAccelerations(bodies, simulation);
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+
+        return best;
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
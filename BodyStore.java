@@ -0,0 +1,271 @@
+
+import java.util.Arrays;
+import java.util.List;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           BodyStore
+// Description:     Object class, holding the state of a run's entities in
+//                      primitive arrays (one array per quantity) for the
+//                      force backends that work on all bodies at once
+
+class BodyStore {
+
+    // Number of bodies in the store
+    int count;
+
+    // Position, velocity and acceleration components
+    double[] x, y, vX, vY, aX, aY;
+
+    // Mass and radius
+    double[] mass, radius;
+
+    // Potential per unit mass at each body (filled by the force backends)
+    double[] potential;
+
+    // *************************************************************************
+
+    // Method:          BodyStore
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      capacity - Number of bodies the store can hold
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         count
+    //                  x, y, vX, vY, aX, aY, mass, radius, potential
+
+    BodyStore (int capacity) {
+
+        count = 0;
+
+        x = new double[capacity];
+        y = new double[capacity];
+        vX = new double[capacity];
+        vY = new double[capacity];
+        aX = new double[capacity];
+        aY = new double[capacity];
+        mass = new double[capacity];
+        radius = new double[capacity];
+        potential = new double[capacity];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          capacity
+
+    // Description:     Returns the number of bodies the store can hold
+
+    // Parameters:      None
+
+    // Returns:         The capacity of the store
+
+    // Calls:           Nothing
+
+    // Globals:         x
+
+    int capacity() {
+        return x.length;
+    }
+
+    // *************************************************************************
+
+    // Method:          ensureCapacity
+
+    // Description:     Grows the arrays (by at least half) so the store can
+    //                      hold a number of bodies
+
+    // Parameters:      required - Number of bodies the store must hold
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         x, y, vX, vY, aX, aY, mass, radius, potential
+
+    void ensureCapacity (int required) {
+
+        if (required <= x.length) {
+            return;
+        }
+
+        int size = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, x.length + (long) x.length / 2));
+
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+        vX = Arrays.copyOf(vX, size);
+        vY = Arrays.copyOf(vY, size);
+        aX = Arrays.copyOf(aX, size);
+        aY = Arrays.copyOf(aY, size);
+        mass = Arrays.copyOf(mass, size);
+        radius = Arrays.copyOf(radius, size);
+        potential = Arrays.copyOf(potential, size);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          add
+
+    // Description:     Appends a body to the store (mass follows the
+    //                      radius, as in Entity)
+
+    // Parameters:      r - Radius
+    //                  xP, yP - Position
+    //                  xV, yV - Velocity
+
+    // Returns:         The index of the new body
+
+    // Calls:           Nothing
+
+    // Globals:         count
+    //                  x, y, vX, vY, mass, radius
+
+    int add (double r, double xP, double yP, double xV, double yV) {
+
+        int i = count++;
+
+        x[i] = xP;
+        y[i] = yP;
+        vX[i] = xV;
+        vY[i] = yV;
+        aX[i] = 0;
+        aY[i] = 0;
+        potential[i] = 0;
+        radius[i] = r;
+        mass[i] = Math.PI * r * r;
+
+        return i;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          remove
+
+    // Description:     Removes a body by moving the last body into its slot
+    //                      (so the order of the bodies is not kept)
+
+    // Parameters:      i - Index of the body to remove
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         count
+    //                  x, y, vX, vY, aX, aY, mass, radius, potential
+
+    void remove (int i) {
+
+        int last = --count;
+
+        x[i] = x[last];
+        y[i] = y[last];
+        vX[i] = vX[last];
+        vY[i] = vY[last];
+        aX[i] = aX[last];
+        aY[i] = aY[last];
+        mass[i] = mass[last];
+        radius[i] = radius[last];
+        potential[i] = potential[last];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          gather
+
+    // Description:     Copies the current state of a list of entities into
+    //                      the store, growing it if required
+
+    // Parameters:      entities - The entities to copy
+    //                  store - A store to reuse (may be null)
+
+    // Returns:         A store holding the entities, in list order
+
+    // Calls:           BodyStore
+
+    // Globals:         None
+
+    static BodyStore gather (List<Entity> entities, BodyStore store) {
+
+        if (store == null || store.capacity() < entities.size()) {
+            store = new BodyStore(entities.size());
+        }
+
+        store.count = 0;
+
+        for (Entity e : entities) {
+
+            int i = store.count++;
+
+            store.x[i] = e.position.getX();
+            store.y[i] = e.position.getY();
+            store.vX[i] = e.velocity.getX();
+            store.vY[i] = e.velocity.getY();
+            store.aX[i] = 0;
+            store.aY[i] = 0;
+            store.potential[i] = 0;
+            store.mass[i] = e.mass;
+            store.radius[i] = e.radius;
+
+        }
+
+        return store;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          scatterAccelerations
+
+    // Description:     Writes the accelerations (and potentials) held in
+    //                      the store back into the entities it was gathered
+    //                      from
+
+    // Parameters:      entities - The entities the store was gathered from
+
+    // Returns:         Nothing
+
+    // Calls:           Vector
+
+    // Globals:         aX, aY, potential
+
+    void scatterAccelerations (List<Entity> entities) {
+
+        for (int i = 0; i < count; i++) {
+
+            double accelerationX = aX[i];
+            double accelerationY = aY[i];
+
+            if (Double.isNaN(accelerationX)) {
+                accelerationX = 0;
+            }
+
+            if (Double.isNaN(accelerationY)) {
+                accelerationY = 0;
+            }
+
+            // Round the acceleration values (as in Entity):
+            accelerationX = Vector.roundDouble(accelerationX, 9);
+            accelerationY = Vector.roundDouble(accelerationY, 9);
+
+            Entity e = entities.get(i);
+            e.acceleration.updateComponents(accelerationX, accelerationY);
+            e.potential = potential[i];
+
+        }
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -12,7 +12,7 @@ import java.util.ArrayList;
 class Collision implements Comparable<Collision> {
     
     // List of entities involved in the collision:
-    List<Entity> entities = new ArrayList<>();
+    List<Entity> entities = new ArrayList<>(2);
     
     // x & y coordinates of the collision point:
     double xC, yC;
@@ -20,6 +20,14 @@ class Collision implements Comparable<Collision> {
     // Time until the collision occurs:
     double tC;
     
+    // Bisection steps used to refine a contact time
+    static final int REFINEMENTS = 50;
+    
+    // Gap within which two circles count as touching (positions are
+    //  rounded to 0.001 on each axis, which can bring two centres up to
+    //  0.001 * sqrt(2) nearer than the path they were predicted along)
+    static final double CONTACT_SLACK = 0.0015;
+    
     // *************************************************************************
     
     // Method:          Collision
@@ -38,7 +46,30 @@ class Collision implements Comparable<Collision> {
     //                  xC, yC, tC
     
     Collision (Entity e1, Entity e2, double xC, double yC, double tC) {
+        set(e1, e2, xC, yC, tC);
+    }
+    
+    // *************************************************************************
+    
+    // Method:          set
+    
+    // Description:     Fills in the collision (the list of entities is
+    //                      cleared and reused, so records can be recycled)
+    
+    // Parameters:      e1, e2 - Entities that are colliding
+    //                  xC, yC - x & y coordinates of collision
+    //                      tC - Time at which collision will occur
+    
+    // Returns:         This collision
+    
+    // Calls:           Vector
+    
+    // Globals:         entities
+    //                  xC, yC, tC
+    
+    Collision set (Entity e1, Entity e2, double xC, double yC, double tC) {
         
+        entities.clear();
         entities.add(e1);
         entities.add(e2);
         
@@ -48,94 +79,265 @@ class Collision implements Comparable<Collision> {
         // Round the collision time to the nearest ms:
         this.tC = Vector.roundDouble(tC, 3);
         
+        return this;
+        
     }
     
     // *************************************************************************
     
-    // Method:          computeCollisionTime
-    
-    // Description:     Computes the collision time from the given
-    //                      acceleration, velocity, and distance values
+    // Method:          record
     
-    //                  Returns the value of the smallest, positive root,
-    //                      or -1 if there is none
+    // Description:     Records a collision, in a recycled record if
+    //                      one is given or a new one otherwise
     
-    // Parameters:      a - Acceleration
-    //                  v - Velocity
-    //                  d - Distance
+    // Parameters:      record - Collision record to reuse (or null)
+    //                  e1, e2 - Entities that are colliding
+    //                  xC, yC - x & y coordinates of collision
+    //                      tC - Time at which collision will occur
     
-    // Returns:         The value of the smallest, positive root,
-    //                      or -1 if there is none
+    // Returns:         The collision
     
-    // Calls:           Vector
+    // Calls:           Collision
+    //                  set
     
     // Globals:         None
     
-    static double computeCollisionTime (double a, double v, double d) {
+    static Collision record (Collision record, Entity e1, Entity e2, double xC, double yC, double tC) {
+        
+        if (record == null) {
+            return new Collision(e1, e2, xC, yC, tC);
+        }
         
-        // Round inputs to the nano scale:
-        a = Vector.roundDouble(a, 9);
-        v = Vector.roundDouble(v, 9);
+        return record.set(e1, e2, xC, yC, tC);
         
-        // If the distance is 0:
-        if (d == 0) {
-            
-            // Then no time is needed to travel the distance
+    }
+    
+    // *************************************************************************
+    
+    // Method:          reach
+    
+    // Description:     Bounds how far a body's edge can get from its
+    //                      current centre during a time step (along one
+    //                      axis, or in any direction), on the path
+    //                      Entity.updatePosition moves it along, widened by
+    //                      half the contact slack; a pair whose reaches
+    //                      don't overlap can't be found colliding
+    
+    // Parameters:      radius - Radius of the body
+    //                  speed - Its speed (or speed along the axis)
+    //                  accel - Its acceleration (or along the axis)
+    //                  t - The time step
+    
+    // Returns:         The reach of the body
+    
+    // Calls:           Nothing
+    
+    // Globals:         CONTACT_SLACK
+    
+    static double reach (double radius, double speed, double accel, double t) {
+        return radius + 0.5 * CONTACT_SLACK + (speed + 0.5 * accel * t) * t;
+    }
+    
+    // *************************************************************************
+    
+    // Method:          computeContactTime
+    
+    // Description:     Finds the earliest time at which two circles moving
+    //                      with constant accelerations touch, working in
+    //                      the frame of the first circle: with separation
+    //                      d(t) = p + v*t + a*t^2, it solves
+    //                      |d(t)|^2 = reach^2 for the earliest root in
+    //                      [0, tMax]
+    
+    //                  The critical points of the quartic (roots of the
+    //                      cubic d(t).d'(t), found between the roots of its
+    //                      derivative) split the interval into pieces on
+    //                      which the separation is monotone, so a root is
+    //                      found in the first piece that ends in contact,
+    //                      including grazing contacts at a closest approach
+    
+    // Parameters:      px, py - Separation of the centres at time 0
+    //                  vx, vy - Relative velocity
+    //                  ax, ay - Half the relative acceleration
+    //                  reach - Separation at contact (sum of the radii)
+    //                  tMax - End of the time interval
+    
+    // Returns:         The earliest contact time, 0 if the circles already
+    //                      overlap, or -1 if they don't touch by tMax
+    
+    // Calls:           separation, approach
+    //                  refine
+    
+    // Globals:         None
+    
+    static double computeContactTime (double px, double py, double vx, double vy, double ax, double ay, double reach, double tMax) {
+        
+        // Already touching:
+        if (px * px + py * py <= reach * reach) {
             return 0;
+        }
+        
+        // Too far apart on either axis to close the gap by tMax:
+        double xClosing = (Math.abs(vx) + Math.abs(ax) * tMax) * tMax;
+        double yClosing = (Math.abs(vy) + Math.abs(ay) * tMax) * tMax;
+        if (!(tMax > 0) || Math.abs(px) - xClosing > reach || Math.abs(py) - yClosing > reach) {
+            return -1;
+        }
+        
+        // Roots of the derivative of the cubic, 6a.a t^2 + 6a.v t + (v.v + 2a.p),
+        // bound the pieces on which the cubic is monotone:
+        double qa = 6 * (ax * ax + ay * ay);
+        double qb = 6 * (ax * vx + ay * vy);
+        double qc = vx * vx + vy * vy + 2 * (ax * px + ay * py);
+        
+        double r1 = tMax, r2 = tMax;
+        if (qa == 0) {
+            if (qb != 0) {
+                r1 = -qc / qb;
+            }
+        } else {
+            double discriminant = qb * qb - 4 * qa * qc;
+            if (discriminant > 0) {
+                double q = -0.5 * (qb + Math.copySign(Math.sqrt(discriminant), qb));
+                r1 = q / qa;
+                r2 = (q != 0) ? qc / q : r1;
+            }
+        }
+        
+        // Clamp the piece boundaries into the interval (NaN-safe):
+        double s1 = Math.max(0, Math.min(tMax, Math.min(r1, r2)));
+        double s2 = Math.max(s1, Math.min(tMax, Math.max(r1, r2)));
+        if (Double.isNaN(s1) || Double.isNaN(s2)) {
+            s1 = tMax;
+            s2 = tMax;
+        }
+        
+        // Walk the pieces in order; the separation is monotone between
+        // consecutive checkpoints (piece ends and roots of the cubic), and
+        // still positive at the last one passed:
+        double start = 0;
+        
+        for (int piece = 0; piece < 3; piece++) {
             
-        // If the acceleration is 0:
-        } else if (a == 0) {
+            double l = (piece == 0) ? 0 : (piece == 1) ? s1 : s2;
+            double u = (piece == 0) ? s1 : (piece == 1) ? s2 : tMax;
             
-            // If the velocity is 0:
-            if (v == 0) {
-                
-                // Then the entity is not moving
-                return -1;
+            // A critical point of the separation inside the piece:
+            double gl = approach(l, px, py, vx, vy, ax, ay);
+            double gu = approach(u, px, py, vx, vy, ax, ay);
+            if ((gl < 0 && gu > 0) || (gl > 0 && gu < 0)) {
                 
-            // If the velocity is non-zero:
-            } else {
+                double m = refine(l, u, true, px, py, vx, vy, ax, ay, reach);
                 
-                // Then the quadratic formula is not required:
-                return d/v;
+                if (separation(m, px, py, vx, vy, ax, ay, reach) <= 0) {
+                    return refine(start, m, false, px, py, vx, vy, ax, ay, reach);
+                }
+                start = m;
                 
             }
+            
+            if (separation(u, px, py, vx, vy, ax, ay, reach) <= 0) {
+                return refine(start, u, false, px, py, vx, vy, ax, ay, reach);
+            }
+            start = u;
+            
+        }
         
-        // Otherwise, use the quadratic formula:
-        } else {
+        // No contact within the interval
+        return -1;
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          separation
+    
+    // Description:     Evaluates the squared separation of the circles,
+    //                      less the squared separation at contact
+    
+    // Parameters:      t - Time
+    //                  px, py, vx, vy, ax, ay, reach - As computeContactTime
+    
+    // Returns:         |d(t)|^2 - reach^2 (<= 0 while touching)
+    
+    // Calls:           Nothing
+    
+    // Globals:         None
+    
+    static double separation (double t, double px, double py, double vx, double vy, double ax, double ay, double reach) {
+        
+        double dx = px + (vx + ax * t) * t;
+        double dy = py + (vy + ay * t) * t;
+        
+        return dx * dx + dy * dy - reach * reach;
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          approach
+    
+    // Description:     Evaluates half the rate of change of the squared
+    //                      separation (the cubic d(t).d'(t))
+    
+    // Parameters:      t - Time
+    //                  px, py, vx, vy, ax, ay - As computeContactTime
+    
+    // Returns:         d(t).d'(t) (< 0 while the circles close)
+    
+    // Calls:           Nothing
+    
+    // Globals:         None
+    
+    static double approach (double t, double px, double py, double vx, double vy, double ax, double ay) {
+        
+        double dx = px + (vx + ax * t) * t;
+        double dy = py + (vy + ay * t) * t;
+        
+        return dx * (vx + 2 * ax * t) + dy * (vy + 2 * ay * t);
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          refine
+    
+    // Description:     Bisects an interval holding a single sign change of
+    //                      either the cubic or the separation
+    
+    // Parameters:      l, u - The interval
+    //                  cubic - True to find the root of the cubic (approach),
+    //                      false for the first contact (separation)
+    //                  px, py, vx, vy, ax, ay, reach - As computeContactTime
+    
+    // Returns:         The root (for the separation, the end of the final
+    //                      interval at which the circles touch)
+    
+    // Calls:           separation, approach
+    
+    // Globals:         None
+    
+    static double refine (double l, double u, boolean cubic, double px, double py, double vx, double vy, double ax, double ay, double reach) {
+        
+        double hl = cubic ? approach(l, px, py, vx, vy, ax, ay) : separation(l, px, py, vx, vy, ax, ay, reach);
+        
+        for (int k = 0; k < REFINEMENTS; k++) {
             
-            // Do not take the square root of a negative number:
-            double sqrt = v*v - 4*a*d;
+            double m = 0.5 * (l + u);
+            double hm = cubic ? approach(m, px, py, vx, vy, ax, ay) : separation(m, px, py, vx, vy, ax, ay, reach);
             
-            // If the value under the square root is negative:
-            if (sqrt < 0) {
-                
-                // Return failure:
-                return -1;
-                
-            // Otherwise:
+            // Keep the half where the sign still changes:
+            if ((hm > 0) == (hl > 0)) {
+                l = m;
+                hl = hm;
             } else {
-
-                // Find both roots
-                double t1 = (-v + Math.sqrt(sqrt)) / (2*a);
-                double t2 = (-v - Math.sqrt(sqrt)) / (2*a);
-
-                // If both roots are negative:
-                if (t1 < 0 && t2 < 0) {
-                    return -1;
-                }
-                
-                // If both roots are positive, return the smallest:
-                if (t1 > 0 && t2 > 0) {
-                    return Math.min(t1, t2);
-                }
-                
-                // Otherwise, return the positive root:
-                return Math.max(t1, t2);
-
+                u = m;
             }
             
         }
         
+        return cubic ? 0.5 * (l + u) : u;
+        
     }
     
     // *************************************************************************
@@ -0,0 +1,349 @@
+
+import java.util.Arrays;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           CollisionBuffer
+// Description:     Object class, holding the collisions predicted in one
+//                      step as parallel primitive arrays (one column per
+//                      field of a Collision), so they can be recorded,
+//                      filtered and merged without allocating
+
+//                  Entities are recorded by their index in the list the
+//                      collisions were predicted for, in the order the
+//                      Collision listed them
+
+class CollisionBuffer {
+
+    // Number of collisions in the buffer
+    int size = 0;
+
+    // Indices of the two colliding entities
+    int[] a, b;
+
+    // x & y coordinates of the collision point, and time until it occurs
+    double[] xC, yC, tC;
+
+    // Earliest time of the collisions in the buffer (kept up to date as
+    //  collisions are added, taken and remapped)
+    double soonest = Double.MAX_VALUE;
+
+    // Scratch marks, one per entity, for grouping collisions
+    int[] marks = new int[0];
+
+    // Number of pairs of entities tested to fill the buffer
+    long tested = 0;
+
+    // Scratch entity indices, for the candidates of a broad phase
+    int[] candidates = new int[16];
+
+    // *************************************************************************
+
+    // Method:          CollisionBuffer
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      None
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         a, b, xC, yC, tC
+
+    CollisionBuffer() {
+
+        a = new int[16];
+        b = new int[16];
+        xC = new double[16];
+        yC = new double[16];
+        tC = new double[16];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          clear
+
+    // Description:     Empties the buffer (keeping its arrays)
+
+    // Parameters:      None
+
+    // Returns:         This buffer
+
+    // Calls:           Nothing
+
+    // Globals:         size
+    //                  soonest, tested
+
+    CollisionBuffer clear() {
+
+        size = 0;
+        soonest = Double.MAX_VALUE;
+        tested = 0;
+
+        return this;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          add
+
+    // Description:     Appends a collision, growing the arrays (by half)
+    //                      when they are full
+
+    // Parameters:      c - The collision
+    //                  i, j - Indices of the entities listed by the
+    //                      collision, in the same order
+
+    // Returns:         Nothing
+
+    // Calls:           add
+
+    // Globals:         None
+
+    void add (Collision c, int i, int j) {
+        add(i, j, c.xC, c.yC, c.tC);
+    }
+
+    // *************************************************************************
+
+    // Method:          add
+
+    // Description:     Appends a collision given by its fields
+
+    // Parameters:      i, j - Indices of the colliding entities
+    //                  x, y - The collision point
+    //                  t - Time until the collision occurs
+
+    // Returns:         Nothing
+
+    // Calls:           ensureCapacity
+
+    // Globals:         size, soonest
+    //                  a, b, xC, yC, tC
+
+    void add (int i, int j, double x, double y, double t) {
+
+        ensureCapacity(size + 1);
+
+        a[size] = i;
+        b[size] = j;
+        xC[size] = x;
+        yC[size] = y;
+        tC[size] = t;
+
+        size++;
+
+        soonest = Math.min(soonest, t);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          addAll
+
+    // Description:     Appends every collision of another buffer, in order
+    //                      (for joining the buffers of a parallel search)
+
+    // Parameters:      other - The buffer to append
+
+    // Returns:         Nothing
+
+    // Calls:           ensureCapacity
+
+    // Globals:         size, soonest, tested
+    //                  a, b, xC, yC, tC
+
+    void addAll (CollisionBuffer other) {
+
+        ensureCapacity(size + other.size);
+
+        System.arraycopy(other.a, 0, a, size, other.size);
+        System.arraycopy(other.b, 0, b, size, other.size);
+        System.arraycopy(other.xC, 0, xC, size, other.size);
+        System.arraycopy(other.yC, 0, yC, size, other.size);
+        System.arraycopy(other.tC, 0, tC, size, other.size);
+
+        size += other.size;
+
+        soonest = Math.min(soonest, other.soonest);
+        tested += other.tested;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          ensureCapacity
+
+    // Description:     Grows the arrays (by at least half) when they can't
+    //                      hold a number of collisions
+
+    // Parameters:      capacity - Number of collisions to hold
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         a, b, xC, yC, tC
+
+    void ensureCapacity (int capacity) {
+
+        if (capacity > a.length) {
+
+            capacity = Math.max(capacity, a.length + a.length / 2);
+
+            a = Arrays.copyOf(a, capacity);
+            b = Arrays.copyOf(b, capacity);
+            xC = Arrays.copyOf(xC, capacity);
+            yC = Arrays.copyOf(yC, capacity);
+            tC = Arrays.copyOf(tC, capacity);
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          move
+
+    // Description:     Copies one collision over another (for compacting
+    //                      the buffer in place)
+
+    // Parameters:      from - Index of the collision to copy
+    //                  to - Index to copy it to
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         a, b, xC, yC, tC
+
+    void move (int from, int to) {
+
+        a[to] = a[from];
+        b[to] = b[from];
+        xC[to] = xC[from];
+        yC[to] = yC[from];
+        tC[to] = tC[from];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          takeSoonest
+
+    // Description:     Moves the collisions occurring soonest into another
+    //                      buffer, keeping the order of both, so the later
+    //                      ones can still be processed afterwards
+
+    // Parameters:      into - Buffer to receive the soonest collisions
+    //                      (cleared first)
+
+    // Returns:         The time of the soonest collisions
+
+    // Calls:           clear, add
+    //                  move
+
+    // Globals:         size, soonest
+    //                  a, b, xC, yC, tC
+
+    double takeSoonest (CollisionBuffer into) {
+
+        double time = soonest;
+
+        into.clear();
+        soonest = Double.MAX_VALUE;
+
+        int kept = 0;
+        for (int k = 0; k < size; k++) {
+            if (tC[k] <= time) {
+                into.add(a[k], b[k], xC[k], yC[k], tC[k]);
+            } else {
+                soonest = Math.min(soonest, tC[k]);
+                move(k, kept++);
+            }
+        }
+
+        size = kept;
+
+        return time;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          remap
+
+    // Description:     Renumbers the entities of every collision, dropping
+    //                      the collisions of entities that no longer exist
+
+    // Parameters:      index - New index of each entity (negative for an
+    //                      entity that is gone)
+
+    // Returns:         Nothing
+
+    // Calls:           move
+
+    // Globals:         size, soonest
+    //                  a, b, tC
+
+    void remap (int[] index) {
+
+        soonest = Double.MAX_VALUE;
+
+        int kept = 0;
+        for (int k = 0; k < size; k++) {
+
+            int i = index[a[k]];
+            int j = index[b[k]];
+
+            if (i >= 0 && j >= 0) {
+                move(k, kept);
+                a[kept] = i;
+                b[kept] = j;
+                soonest = Math.min(soonest, tC[kept]);
+                kept++;
+            }
+
+        }
+
+        size = kept;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          marks
+
+    // Description:     Returns the scratch marks, cleared, with room for
+    //                      a number of entities
+
+    // Parameters:      n - Number of entities
+
+    // Returns:         The marks
+
+    // Calls:           Nothing
+
+    // Globals:         marks
+
+    int[] marks (int n) {
+
+        if (marks.length < n) {
+            marks = new int[n];
+        } else {
+            Arrays.fill(marks, 0, n, 0);
+        }
+
+        return marks;
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
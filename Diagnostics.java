@@ -0,0 +1,327 @@
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           Diagnostics
+// Description:     Conservation diagnostics (kinetic and potential energy,
+//                      linear and angular momentum) sampled at a fixed
+//                      cadence alongside the step
+
+//                  The potential energy comes from the per-body potentials
+//                      the force computation already accumulates from its
+//                      pair terms, so a sample costs O(n) and no extra pass
+//                      over the pairs
+
+//                  Merges dissipate energy, so the energy reference is
+//                      re-taken after every merge; a drift beyond the
+//                      tolerance raises an alarm, which the simulation
+//                      answers by halving its time step
+
+//                  As the drift column restarts at every rebase, the
+//                      cumulative drift sums the energy change over each
+//                      interval between samples that had no merge (or
+//                      other rebase), leaving out only the changes the
+//                      merges themselves make
+
+class Diagnostics {
+
+    // Columns of the time series
+    static final String HEADER = "step,time,kinetic,potential,total,momentumX,momentumY,angularMomentum,drift,cumulativeDrift";
+    static final int STEP = 0, TIME = 1, KINETIC = 2, POTENTIAL = 3, TOTAL = 4;
+    static final int MOMENTUM_X = 5, MOMENTUM_Y = 6, ANGULAR_MOMENTUM = 7, DRIFT = 8;
+    static final int CUMULATIVE_DRIFT = 9;
+
+    // Iterations between samples
+    int interval;
+
+    // Relative energy drift that raises an alarm (0 = no alarm)
+    double tolerance;
+
+    // Time step the alarm will not halve below
+    double minimumTimeStep = 1E-6;
+
+    // Samples taken so far (one row per sample)
+    List<double[]> series = new ArrayList<>();
+
+    // Energy, and its scale (kinetic + |potential|), drift is measured from
+    double referenceEnergy, referenceScale;
+    boolean hasReference = false;
+
+    // Relative energy change summed over the intervals with no rebase, the
+    //  largest magnitude it has reached, and how many intervals it covers
+    double cumulativeDrift, maxCumulativeDrift;
+    int conservedIntervals;
+
+    // Energy of the previous sample, if no rebase has happened since
+    double previousEnergy;
+    boolean hasPrevious = false;
+
+    // Iterations and simulated time elapsed
+    long steps;
+    double time;
+
+    // Optional CSV copy of the time series
+    PrintWriter output;
+
+    // *************************************************************************
+
+    // Method:          Diagnostics
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      interval - Iterations between samples
+    //                  tolerance - Relative energy drift that raises an
+    //                      alarm (0 = no alarm)
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         interval, tolerance
+
+    Diagnostics (int interval, double tolerance) {
+
+        if (interval < 1) {
+            throw new IllegalArgumentException("Sample interval must be at least 1: " + interval);
+        }
+
+        this.interval = interval;
+        this.tolerance = tolerance;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          open
+
+    // Description:     Starts copying the time series to a CSV file
+
+    // Parameters:      path - The file to write
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         output
+
+    void open (String path) throws IOException {
+
+        close();
+
+        output = new PrintWriter(new FileWriter(path));
+        output.println(HEADER);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          close
+
+    // Description:     Stops copying the time series to a file
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         output
+
+    void close() {
+
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          isDue
+
+    // Description:     Returns whether a sample is due this iteration
+
+    // Parameters:      None
+
+    // Returns:         True if a sample should be taken
+
+    // Calls:           Nothing
+
+    // Globals:         steps, interval
+
+    boolean isDue() {
+        return steps % interval == 0;
+    }
+
+    // *************************************************************************
+
+    // Method:          sample
+
+    // Description:     Totals the conserved quantities over the entities
+    //                      (using the potentials from the latest force
+    //                      computation) and appends them to the time series
+
+    // Parameters:      entities - The entities, with current potentials
+
+    // Returns:         True if the energy drift exceeded the tolerance
+
+    // Calls:           Nothing
+
+    // Globals:         series, output
+    //                  referenceEnergy, referenceScale, hasReference
+    //                  cumulativeDrift, maxCumulativeDrift
+    //                  conservedIntervals, previousEnergy, hasPrevious
+    //                  steps, time, tolerance
+
+    boolean sample (List<Entity> entities) {
+
+        double kinetic = 0, potential = 0;
+        double momentumX = 0, momentumY = 0, angular = 0;
+
+        for (Entity e : entities) {
+
+            double x = e.position.getX();
+            double y = e.position.getY();
+            double vX = e.velocity.getX();
+            double vY = e.velocity.getY();
+
+            kinetic += 0.5 * e.mass * (vX * vX + vY * vY);
+
+            // Each pair appears in both bodies' potentials:
+            potential += 0.5 * e.mass * e.potential;
+
+            momentumX += e.mass * vX;
+            momentumY += e.mass * vY;
+            angular += e.mass * (x * vY - y * vX);
+
+        }
+
+        double total = kinetic + potential;
+
+        if (!hasReference) {
+            referenceEnergy = total;
+            referenceScale = kinetic + Math.abs(potential);
+            hasReference = true;
+        }
+
+        double drift = (referenceScale == 0) ? 0 : Math.abs(total - referenceEnergy) / referenceScale;
+
+        // Carries the drift on across rebases, from the intervals without one:
+        if (hasPrevious && referenceScale != 0) {
+            cumulativeDrift += (total - previousEnergy) / referenceScale;
+            maxCumulativeDrift = Math.max(maxCumulativeDrift, Math.abs(cumulativeDrift));
+            conservedIntervals++;
+        }
+        previousEnergy = total;
+        hasPrevious = true;
+
+        double[] row = {steps, time, kinetic, potential, total, momentumX, momentumY, angular, drift, cumulativeDrift};
+        series.add(row);
+
+        if (output != null) {
+            StringBuilder line = new StringBuilder();
+            for (int c = 0; c < row.length; c++) {
+                line.append(c == 0 ? "" : ",").append(String.format(Locale.ROOT, c == STEP ? "%.0f" : "%.9e", row[c]));
+            }
+            output.println(line);
+            output.flush();
+        }
+
+        // Measure any further drift from here:
+        if (tolerance > 0 && drift > tolerance) {
+            hasReference = false;
+            return true;
+        }
+
+        return false;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          endStep
+
+    // Description:     Advances the step count and simulated time
+
+    // Parameters:      tW - The working time step that was taken
+    //                  merged - Whether any entities merged in the step
+
+    // Returns:         Nothing
+
+    // Calls:           rebase
+
+    // Globals:         steps, time
+
+    void endStep (double tW, boolean merged) {
+
+        steps++;
+        time += tW;
+
+        // Merges dissipate energy, so start again from the next sample:
+        if (merged) {
+            rebase();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          rebase
+
+    // Description:     Makes the next sample the new energy reference (for
+    //                      changes that don't conserve energy, such as merges
+    //                      or new entities)
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         hasReference, hasPrevious
+
+    void rebase() {
+        hasReference = false;
+        hasPrevious = false;
+    }
+
+    // *************************************************************************
+
+    // Method:          print
+
+    // Description:     Prints the most recent samples of the time series
+
+    // Parameters:      count - Number of samples to print
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         series
+
+    void print (int count) {
+
+        System.out.println("\nConservation diagnostics (" + series.size() + " samples, every " + interval + " iterations):");
+        System.out.println("\n   Step       Time      Kinetic    Potential        Total          pX          pY           L      Drift Cumulative");
+
+        for (int i = Math.max(0, series.size() - count); i < series.size(); i++) {
+            double[] r = series.get(i);
+            System.out.printf("%7.0f %10.3f %12.5e %12.5e %12.5e %11.4e %11.4e %11.4e %10.3e %10.3e\n",
+                    r[STEP], r[TIME], r[KINETIC], r[POTENTIAL], r[TOTAL], r[MOMENTUM_X], r[MOMENTUM_Y], r[ANGULAR_MOMENTUM], r[DRIFT],
+                    r[CUMULATIVE_DRIFT]);
+        }
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,168 @@
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           DirectSumSolver
+// Description:     Force backend performing the same O(n^2) pairwise sum as
+//                      Entity.updateAcceleration, over a BodyStore
+//                      (also used as the reference when validating the
+//                      approximate backends)
+
+class DirectSumSolver implements ForceSolver {
+
+    // *************************************************************************
+
+    // Method:          select
+
+    // Description:     Picks the direct-summation kernel for a simulation:
+    //                      the named Vector API kernel when it is available
+    //                      (see vectorKernel), otherwise (or with a cutoff)
+    //                      this scalar one
+
+    // Parameters:      simulation - The simulation the kernel will run for
+    //                  name - Class name of the Vector API kernel
+    //                      (VectorizedDirectSolver or MixedPrecisionSolver)
+
+    // Returns:         The selected backend
+
+    // Calls:           DirectSumSolver
+    //                  vectorKernel
+
+    // Globals:         None
+
+    static ForceSolver select (Simulation simulation, String name) {
+
+        ForceSolver kernel = (simulation.cutoffRadius <= 0) ? vectorKernel(name) : null;
+
+        return (kernel != null) ? kernel : new DirectSumSolver();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          vectorKernel
+
+    // Description:     Creates a force backend written with the incubating
+    //                      Vector API, by name, as those are compiled
+    //                      separately (the sources in vector/, built with
+    //                      --add-modules jdk.incubator.vector) and only
+    //                      load when the module was added at run time
+
+    // Parameters:      name - Class name of the backend, which has a
+    //                      static lanes() giving its vector width
+
+    // Returns:         The backend, or null if it wasn't compiled in, the
+    //                      module is missing, or the hardware has no
+    //                      vectors for it
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    static ForceSolver vectorKernel (String name) {
+
+        try {
+            Class<?> kernel = Class.forName(name);
+            if ((int) kernel.getDeclaredMethod("lanes").invoke(null) > 1) {
+                return (ForceSolver) kernel.getDeclaredConstructor().newInstance();
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not available, so the caller keeps a scalar kernel
+        }
+
+        return null;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the softened (and optionally cut off)
+    //                      acceleration of every body by direct summation
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    @Override
+    public void computeAccelerations (BodyStore bodies, Simulation simulation) {
+
+        double g = simulation.context.G;
+        double softeningSquared = simulation.softening * simulation.softening;
+        double cutoffSquared = simulation.cutoffRadius * simulation.cutoffRadius;
+
+        double[] x = bodies.x;
+        double[] y = bodies.y;
+        double[] mass = bodies.mass;
+
+        for (int i = 0; i < bodies.count; i++) {
+
+            double x1 = x[i];
+            double y1 = y[i];
+
+            double aX = 0;
+            double aY = 0;
+            double phi = 0;
+
+            for (int j = 0; j < bodies.count; j++) {
+
+                double dX = x[j] - x1;
+                double dY = y[j] - y1;
+                double rSquared = dX * dX + dY * dY;
+
+                // Skips the body itself and any coincident bodies:
+                if (rSquared == 0) {
+                    continue;
+                }
+
+                if (cutoffSquared > 0 && rSquared > cutoffSquared) {
+                    continue;
+                }
+
+                double softened = rSquared + softeningSquared;
+                double factor = (g * mass[j]) / (softened * Math.sqrt(softened));
+
+                aX += factor * dX;
+                aY += factor * dY;
+                phi -= factor * softened;
+
+            }
+
+            bodies.aX[i] = aX;
+            bodies.aY[i] = aY;
+            bodies.potential[i] = phi;
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          getName
+
+    // Description:     Returns a short description of the backend for menus
+
+    // Parameters:      None
+
+    // Returns:         The name of the backend
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    @Override
+    public String getName() {
+        return "Direct summation";
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,273 @@
+
+import java.util.Arrays;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           Domain
+// Description:     Object class, representing the rectangle of the plane
+//                      owned by one worker of a distributed run
+
+//                  Domains come from orthogonal recursive bisection: a
+//                      sample of the bodies is split across its longer axis
+//                      at the point that gives each side the share of its
+//                      workers, recursively, until every part belongs to one
+//                      worker; the outer domains run out to infinity, so
+//                      every point of the plane has exactly one owner
+
+class Domain {
+
+    // Bounds of the domain (lower bounds inclusive, upper exclusive)
+    double xMin, xMax, yMin, yMax;
+
+    // *************************************************************************
+
+    // Method:          Domain
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      xMin, xMax, yMin, yMax - Bounds of the domain
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         xMin, xMax, yMin, yMax
+
+    Domain (double xMin, double xMax, double yMin, double yMax) {
+
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          contains
+
+    // Description:     Determines whether a point lies inside the domain
+
+    // Parameters:      x, y - The point
+
+    // Returns:         True if the domain owns the point
+
+    // Calls:           Nothing
+
+    // Globals:         xMin, xMax, yMin, yMax
+
+    boolean contains (double x, double y) {
+        return x >= xMin && x < xMax && y >= yMin && y < yMax;
+    }
+
+    // *************************************************************************
+
+    // Method:          distanceTo
+
+    // Description:     Computes the distance from the domain to a point
+    //                      (0 inside the domain)
+
+    // Parameters:      x, y - The point
+
+    // Returns:         The distance
+
+    // Calls:           Nothing
+
+    // Globals:         xMin, xMax, yMin, yMax
+
+    double distanceTo (double x, double y) {
+        return distanceTo(x, x, y, y);
+    }
+
+    // *************************************************************************
+
+    // Method:          distanceTo
+
+    // Description:     Computes the distance from the domain to a rectangle
+    //                      (0 if they overlap)
+
+    // Parameters:      left, right, bottom, top - Bounds of the rectangle
+
+    // Returns:         The distance
+
+    // Calls:           Nothing
+
+    // Globals:         xMin, xMax, yMin, yMax
+
+    double distanceTo (double left, double right, double bottom, double top) {
+
+        double dX = Math.max(0, Math.max(left - xMax, xMin - right));
+        double dY = Math.max(0, Math.max(bottom - yMax, yMin - top));
+
+        return Math.sqrt(dX * dX + dY * dY);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          owner
+
+    // Description:     Finds the domain that owns a point
+
+    // Parameters:      domains - All the domains of the run
+    //                  x, y - The point
+
+    // Returns:         The index of the owning domain (the first domain
+    //                      for points outside the plane, such as NaN)
+
+    // Calls:           contains
+
+    // Globals:         None
+
+    static int owner (Domain[] domains, double x, double y) {
+
+        for (int d = 0; d < domains.length; d++) {
+            if (domains[d].contains(x, y)) {
+                return d;
+            }
+        }
+
+        return 0;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          bisect
+
+    // Description:     Splits the whole plane into a number of domains
+    //                      holding equal shares of a sample of positions
+
+    // Parameters:      x, y - The sampled positions (reordered in place)
+    //                  count - Number of samples
+    //                  parts - Number of domains
+
+    // Returns:         The domains
+
+    // Calls:           bisect
+
+    // Globals:         None
+
+    static Domain[] bisect (double[] x, double[] y, int count, int parts) {
+
+        double infinity = Double.POSITIVE_INFINITY;
+
+        Domain[] domains = new Domain[parts];
+        bisect(x, y, 0, count, parts, new Domain(-infinity, infinity, -infinity, infinity), domains, 0);
+
+        return domains;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          bisect
+
+    // Description:     Splits one domain across the longer axis of its
+    //                      samples, in proportion to the number of parts on
+    //                      each side, and recurses into both halves
+
+    // Parameters:      x, y - The sampled positions
+    //                  from, to - Range of the samples inside the domain
+    //                  parts - Number of domains to split into
+    //                  bounds - The domain to split
+    //                  domains - The finished domains
+    //                  first - Index of the first domain to fill
+
+    // Returns:         Nothing
+
+    // Calls:           Domain
+
+    // Globals:         None
+
+    static void bisect (double[] x, double[] y, int from, int to, int parts, Domain bounds, Domain[] domains, int first) {
+
+        if (parts == 1) {
+            domains[first] = bounds;
+            return;
+        }
+
+        int left = parts / 2;
+
+        // Split across the longer side of the samples:
+        double xLow = Double.MAX_VALUE, xHigh = -Double.MAX_VALUE;
+        double yLow = Double.MAX_VALUE, yHigh = -Double.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            xLow = Math.min(xLow, x[i]);
+            xHigh = Math.max(xHigh, x[i]);
+            yLow = Math.min(yLow, y[i]);
+            yHigh = Math.max(yHigh, y[i]);
+        }
+
+        boolean alongX = (xHigh - xLow) >= (yHigh - yLow);
+        double[] axis = alongX ? x : y;
+
+        double split;
+        if (to > from) {
+            double[] sorted = Arrays.copyOfRange(axis, from, to);
+            Arrays.sort(sorted);
+            split = sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * left / parts))];
+        } else {
+            split = alongX ? middle(bounds.xMin, bounds.xMax) : middle(bounds.yMin, bounds.yMax);
+        }
+
+        // Partition the samples (points on the split go to the upper side):
+        int middle = from;
+        for (int i = from; i < to; i++) {
+            if (axis[i] < split) {
+                double t = x[i]; x[i] = x[middle]; x[middle] = t;
+                t = y[i]; y[i] = y[middle]; y[middle] = t;
+                middle++;
+            }
+        }
+
+        Domain lower, upper;
+        if (alongX) {
+            lower = new Domain(bounds.xMin, split, bounds.yMin, bounds.yMax);
+            upper = new Domain(split, bounds.xMax, bounds.yMin, bounds.yMax);
+        } else {
+            lower = new Domain(bounds.xMin, bounds.xMax, bounds.yMin, split);
+            upper = new Domain(bounds.xMin, bounds.xMax, split, bounds.yMax);
+        }
+
+        bisect(x, y, from, middle, left, lower, domains, first);
+        bisect(x, y, middle, to, parts - left, upper, domains, first + left);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          middle
+
+    // Description:     Picks a split point inside a range that may be
+    //                      unbounded on either side
+
+    // Parameters:      low, high - The range
+
+    // Returns:         A point inside the range
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    static double middle (double low, double high) {
+
+        if (Double.isInfinite(low) && Double.isInfinite(high)) {
+            return 0;
+        } else if (Double.isInfinite(low)) {
+            return high - 1;
+        } else if (Double.isInfinite(high)) {
+            return low + 1;
+        }
+
+        return (low + high) / 2;
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,931 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           DomainCoordinator
+// Description:     Command-line driver of a distributed run: the plane is
+//                      split into domains by orthogonal recursive bisection
+//                      (see Domain), each owned by a DomainWorker process,
+//                      and the coordinator steps the workers through the
+//                      same sequence as Simulation.iterate
+
+//                  Each step the workers compute forces (exchanging ghosts
+//                      and cell summaries), then the step is taken in
+//                      substeps as in Simulation.resolveCollisions: the
+//                      workers report their soonest collisions in the rest
+//                      of the step (after exchanging halo bodies) and
+//                      advance to them, the coordinator merges each group
+//                      of colliding bodies (as combineEntities) and hands
+//                      the result to the worker owning its position, until
+//                      no collision is left and the workers advance to the
+//                      end of the step, so every step covers the standard
+//                      time step
+
+//                  A substep costs a halo exchange and a search of every
+//                      domain, as the searches aren't kept between
+//                      substeps; collision times are kept to the nearest ms,
+//                      so a step has at most tS / 0.001 + 1 substeps plus
+//                      one per merge chained within the same ms
+
+//                  No worker ever holds the whole run, so the number of
+//                      bodies is limited by the combined heaps; positions
+//                      are not rounded as Entity rounds them, and the
+//                      coordinator only holds samples, summaries in
+//                      transit, and the bodies being merged
+
+//                  Usage: java DomainCoordinator [option=value ...]
+//                          workers=4               number of workers
+//                          spawn=true              start the workers as
+//                                                  child JVMs (false to wait
+//                                                  for workers started by
+//                                                  hand with DomainWorker)
+//                          port=5100               port to listen on
+//                          heap=1g                 heap of spawned workers
+//                          scenario=disc           workload preset
+//                          n=100000                number of bodies
+//                          seed=1                  seed of the workload
+//                          G=1                     gravitational constant
+//                          softening=0             Plummer softening length
+//                          tS=1                    standard time step
+//                          grace=0                 steps before collisions
+//                          steps=100               steps to run
+//                          sample=10               steps between reports
+//                          balance=10              steps between rebalances
+//                          theta=0.5               opening angle of the
+//                                                  cell summaries
+//                          cell=0                  width of the summary
+//                                                  cells (0 = 1/64 of the
+//                                                  initial extent)
+//                          solver=fmm              worker backend (fmm or
+//                                                  direct)
+
+class DomainCoordinator {
+
+    // Positions sampled from each worker for a bisection
+    static final int SAMPLES_PER_WORKER = 2048;
+
+    // Summary cells across the initial extent (when no width is given)
+    static final int CELLS_ACROSS = 64;
+
+    // Connections to the workers
+    DataInputStream[] in;
+    DataOutputStream[] out;
+    int workers;
+
+    // Domains of the workers, and the width of the summary cells
+    Domain[] domains;
+    double cellSize;
+
+    // Bodies held by each worker
+    int[] counts;
+
+    // Settings of the run
+    double tS, theta;
+    int grace;
+
+    // Elapsed time, and the energy of the first step
+    double time;
+    double referenceEnergy = Double.NaN;
+
+    // Results of the last step
+    double energy;
+    int merged, substeps;
+
+    // *************************************************************************
+
+    // Method:          main
+
+    // Description:     Starts (or waits for) the workers, loads the
+    //                      workload and runs the requested steps
+
+    // Parameters:      args - Options
+
+    // Returns:         Nothing
+
+    // Calls:           DomainCoordinator
+    //                  configure, load, balance, step, stop
+
+    // Globals:         None
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        int workers = 4;
+        boolean spawn = true;
+        int port = 5100;
+        String heap = "1g";
+        String scenario = "disc";
+        int n = 100000;
+        long seed = 1;
+        double g = 1.0;
+        double softening = 0;
+        double tS = 1.0;
+        int grace = 0;
+        int steps = 100;
+        int sampleInterval = 10;
+        int balanceInterval = 10;
+        double theta = 0.5;
+        double cell = 0;
+        String solver = "fmm";
+
+        for (String arg : args) {
+
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.out.println("\nUnknown option: " + arg);
+                continue;
+            }
+
+            switch (option[0]) {
+                case "workers":
+                    workers = Integer.parseInt(option[1]);
+                    break;
+                case "spawn":
+                    spawn = Boolean.parseBoolean(option[1]);
+                    break;
+                case "port":
+                    port = Integer.parseInt(option[1]);
+                    break;
+                case "heap":
+                    heap = option[1];
+                    break;
+                case "scenario":
+                    scenario = option[1];
+                    break;
+                case "n":
+                    n = Integer.parseInt(option[1]);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(option[1]);
+                    break;
+                case "G":
+                    g = Double.parseDouble(option[1]);
+                    break;
+                case "softening":
+                    softening = Double.parseDouble(option[1]);
+                    break;
+                case "tS":
+                    tS = Double.parseDouble(option[1]);
+                    break;
+                case "grace":
+                    grace = Integer.parseInt(option[1]);
+                    break;
+                case "steps":
+                    steps = Integer.parseInt(option[1]);
+                    break;
+                case "sample":
+                    sampleInterval = Math.max(1, Integer.parseInt(option[1]));
+                    break;
+                case "balance":
+                    balanceInterval = Math.max(1, Integer.parseInt(option[1]));
+                    break;
+                case "theta":
+                    theta = Double.parseDouble(option[1]);
+                    break;
+                case "cell":
+                    cell = Double.parseDouble(option[1]);
+                    break;
+                case "solver":
+                    solver = option[1];
+                    break;
+                default:
+                    System.out.println("\nUnknown option: " + option[0]);
+                    break;
+            }
+
+        }
+
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required: " + workers);
+        }
+
+        List<Process> processes = new ArrayList<>();
+        DomainCoordinator coordinator = new DomainCoordinator();
+
+        try (ServerSocket server = new ServerSocket(port)) {
+
+            if (spawn) {
+
+                String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+                String classPath = System.getProperty("java.class.path");
+
+                for (int w = 0; w < workers; w++) {
+                    processes.add(new ProcessBuilder(java, "-Xmx" + heap, "-cp", classPath, "DomainWorker",
+                            "host=localhost", "port=" + server.getLocalPort()).inheritIO().start());
+                }
+
+            } else {
+                System.out.println("\nWaiting for " + workers + " workers on port " + server.getLocalPort() + "...");
+            }
+
+            coordinator.connect(server, workers);
+
+        }
+
+        coordinator.tS = tS;
+        coordinator.grace = grace;
+        coordinator.theta = theta;
+        coordinator.cellSize = cell;
+
+        coordinator.configure(g, softening, solver);
+
+        long start = System.nanoTime();
+        coordinator.load(scenario, n, seed);
+        coordinator.balance();
+        System.out.printf("\nLoaded %d bodies on %d workers in %.1f s\n", n, workers, (System.nanoTime() - start) / 1e9);
+
+        System.out.println("\nstep,time,bodies,energy,drift,merges,substeps,imbalance,ms_per_step");
+
+        int mergesSinceReport = 0, substepsSinceReport = 0;
+        start = System.nanoTime();
+
+        for (int s = 1; s <= steps; s++) {
+
+            if (s % balanceInterval == 0) {
+                coordinator.balance();
+            }
+
+            coordinator.step();
+            mergesSinceReport += coordinator.merged;
+            substepsSinceReport += coordinator.substeps;
+
+            if (s % sampleInterval == 0 || s == steps) {
+
+                long now = System.nanoTime();
+                int reported = (s % sampleInterval == 0) ? sampleInterval : s % sampleInterval;
+
+                System.out.printf("%d,%.6g,%d,%.9e,%.3e,%d,%d,%.3f,%.1f\n", s, coordinator.time, coordinator.total(),
+                        coordinator.energy, coordinator.drift(), mergesSinceReport, substepsSinceReport,
+                        coordinator.imbalance(), (now - start) / 1e6 / reported);
+
+                mergesSinceReport = 0;
+                substepsSinceReport = 0;
+                start = now;
+
+            }
+
+        }
+
+        coordinator.stop();
+
+        for (Process p : processes) {
+            p.waitFor();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          connect
+
+    // Description:     Accepts the workers' connections (each worker's rank
+    //                      is the order it connected in)
+
+    // Parameters:      server - The listening socket
+    //                  count - Number of workers
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         in, out
+    //                  workers, counts
+
+    void connect (ServerSocket server, int count) throws IOException {
+
+        workers = count;
+        in = new DataInputStream[count];
+        out = new DataOutputStream[count];
+        counts = new int[count];
+
+        for (int w = 0; w < count; w++) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            in[w] = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out[w] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          configure
+
+    // Description:     Sends every worker its rank and the settings of the
+    //                      run
+
+    // Parameters:      g - The gravitational constant
+    //                  softening - The Plummer softening length
+    //                  solver - Name of the workers' force backend
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         out
+    //                  workers
+    //                  theta
+
+    void configure (double g, double softening, String solver) throws IOException {
+
+        for (int w = 0; w < workers; w++) {
+            out[w].writeInt(DomainWorker.SETTINGS);
+            out[w].writeInt(w);
+            out[w].writeInt(workers);
+            out[w].writeDouble(g);
+            out[w].writeDouble(softening);
+            out[w].writeDouble(theta);
+            out[w].writeUTF(solver);
+            out[w].flush();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          load
+
+    // Description:     Has every worker generate an equal share of a preset
+    //                      workload
+
+    // Parameters:      scenario - The workload preset
+    //                  n - Number of bodies
+    //                  seed - The seed
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         in, out
+    //                  workers, counts
+
+    void load (String scenario, int n, long seed) throws IOException {
+
+        for (int w = 0; w < workers; w++) {
+
+            int first = (int) ((long) n * w / workers);
+            int last = (int) ((long) n * (w + 1) / workers);
+
+            out[w].writeInt(DomainWorker.LOAD);
+            out[w].writeUTF(scenario);
+            out[w].writeInt(n);
+            out[w].writeLong(seed);
+            out[w].writeInt(first);
+            out[w].writeInt(last - first);
+            out[w].flush();
+
+        }
+
+        for (int w = 0; w < workers; w++) {
+            counts[w] = in[w].readInt();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          balance
+
+    // Description:     Re-splits the plane from a sample of every worker's
+    //                      bodies (sized by its share of the run), sends out
+    //                      the new domains and migrates the bodies to them
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Domain
+    //                  broadcast, relay, total
+
+    // Globals:         in, out
+    //                  workers, counts
+    //                  domains, cellSize
+
+    void balance() throws IOException {
+
+        long total = Math.max(1, total());
+
+        for (int w = 0; w < workers; w++) {
+            out[w].writeInt(DomainWorker.SAMPLE);
+            out[w].writeInt((int) Math.ceil((double) SAMPLES_PER_WORKER * workers * counts[w] / total));
+            out[w].flush();
+        }
+
+        List<double[]> samples = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            for (int k = in[w].readInt(); k > 0; k--) {
+                samples.add(new double[] {in[w].readDouble(), in[w].readDouble()});
+            }
+        }
+
+        double[] x = new double[samples.size()];
+        double[] y = new double[samples.size()];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = samples.get(i)[0];
+            y[i] = samples.get(i)[1];
+        }
+
+        // Size the summary cells from the first sample, unless given:
+        if (cellSize <= 0) {
+            double xLow = Double.MAX_VALUE, xHigh = -Double.MAX_VALUE;
+            double yLow = Double.MAX_VALUE, yHigh = -Double.MAX_VALUE;
+            for (int i = 0; i < x.length; i++) {
+                xLow = Math.min(xLow, x[i]);
+                xHigh = Math.max(xHigh, x[i]);
+                yLow = Math.min(yLow, y[i]);
+                yHigh = Math.max(yHigh, y[i]);
+            }
+            cellSize = x.length > 1 ? Math.max(xHigh - xLow, yHigh - yLow) / CELLS_ACROSS : 1;
+            cellSize = cellSize > 0 ? cellSize : 1;
+        }
+
+        domains = Domain.bisect(x, y, x.length, workers);
+
+        for (int w = 0; w < workers; w++) {
+            out[w].writeInt(DomainWorker.DOMAINS);
+            for (Domain d : domains) {
+                out[w].writeDouble(d.xMin);
+                out[w].writeDouble(d.xMax);
+                out[w].writeDouble(d.yMin);
+                out[w].writeDouble(d.yMax);
+            }
+            out[w].writeDouble(cellSize);
+        }
+
+        broadcast(DomainWorker.MIGRATE);
+        relay();
+
+        for (int w = 0; w < workers; w++) {
+            counts[w] = in[w].readInt();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          step
+
+    // Description:     Performs one iteration across all workers (see
+    //                      Simulation.iterate)
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Collision
+    //                  relay, advance
+    //                  merge
+
+    // Globals:         in, out
+    //                  workers, counts
+    //                  tS, grace, time
+    //                  energy, referenceEnergy, merged, substeps
+
+    void step() throws IOException {
+
+        // Forces, and the conserved quantities of the state they are for:
+        for (int w = 0; w < workers; w++) {
+            out[w].writeInt(DomainWorker.FORCES);
+            out[w].writeDouble(tS);
+            out[w].flush();
+        }
+        relay();
+
+        double kinetic = 0, potential = 0, furthest = 0;
+        for (int w = 0; w < workers; w++) {
+            counts[w] = in[w].readInt();
+            in[w].readDouble();
+            in[w].readDouble();
+            in[w].readDouble();
+            kinetic += in[w].readDouble();
+            potential += in[w].readDouble();
+            furthest = Math.max(furthest, in[w].readDouble());
+        }
+
+        energy = kinetic + potential;
+        if (Double.isNaN(referenceEnergy)) {
+            referenceEnergy = energy;
+        }
+
+        merged = 0;
+        substeps = 1;
+
+        // Time reached so far in the step:
+        double elapsed = 0;
+
+        // Check for grace period before computing collisions:
+        if (grace == 0) {
+
+            // Two bodies can only meet if each is within both reaches:
+            double width = 2 * furthest;
+
+            while (true) {
+
+                for (int w = 0; w < workers; w++) {
+                    out[w].writeInt(DomainWorker.COLLIDE);
+                    out[w].writeDouble(width);
+                    out[w].writeDouble(tS - elapsed);
+                    out[w].flush();
+                }
+                relay();
+
+                List<double[]> collisions = new ArrayList<>();
+                double shortestCollisionTime = Double.MAX_VALUE;
+
+                for (int w = 0; w < workers; w++) {
+                    for (int c = in[w].readInt(); c > 0; c--) {
+
+                        // Ids, time and point of the collision, then the
+                        // mass, velocity and acceleration of each body:
+                        double[] collision = new double[15];
+                        collision[0] = in[w].readLong();
+                        collision[1] = in[w].readLong();
+                        for (int i = 2; i < collision.length; i++) {
+                            collision[i] = in[w].readDouble();
+                        }
+
+                        collisions.add(collision);
+                        shortestCollisionTime = Math.min(shortestCollisionTime, collision[2]);
+
+                    }
+                }
+
+                if (collisions.isEmpty()) {
+                    break;
+                }
+
+                // Only process the ones occurring soonest:
+                double soonest = shortestCollisionTime;
+                collisions.removeIf(c -> c[2] > soonest);
+
+                Set<Long> removed = new LinkedHashSet<>();
+                List<double[]> added = merge(collisions, removed);
+
+                // A merged body can reach further than its members did:
+                for (double[] body : added) {
+                    width = Math.max(width, 2 * Collision.reach(body[5], Math.hypot(body[3], body[4]),
+                            Math.hypot(body[7], body[8]), tS - elapsed));
+                }
+
+                // (Times are kept to the nearest ms, so one may round past
+                // the end of the step)
+                double t = Math.min(soonest, tS - elapsed);
+                advance(t, removed, added);
+
+                elapsed += t;
+                merged += added.size();
+                substeps++;
+
+            }
+
+        } else {
+
+            // Decrement grace period by elapsed time
+            grace--;
+
+        }
+
+        // Advance the rest of the step:
+        advance(tS - elapsed, new LinkedHashSet<>(), new ArrayList<>());
+
+        time += tS;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          advance
+
+    // Description:     Has the workers remove the merged bodies, advance
+    //                      the others, adopt the new bodies and migrate the
+    //                      bodies that left their domains
+
+    // Parameters:      t - Time to advance by
+    //                  removed - Ids of the merged bodies
+    //                  added - The new bodies (see merge)
+
+    // Returns:         Nothing
+
+    // Calls:           relay
+
+    // Globals:         in, out
+    //                  workers, counts
+
+    void advance (double t, Set<Long> removed, List<double[]> added) throws IOException {
+
+        for (int w = 0; w < workers; w++) {
+
+            out[w].writeInt(DomainWorker.ADVANCE);
+            out[w].writeDouble(t);
+
+            out[w].writeInt(removed.size());
+            for (long id : removed) {
+                out[w].writeLong(id);
+            }
+
+            out[w].writeInt(added.size());
+            for (double[] body : added) {
+                out[w].writeLong((long) body[0]);
+                for (int i = 1; i < body.length; i++) {
+                    out[w].writeDouble(body[i]);
+                }
+            }
+
+            out[w].flush();
+
+        }
+        relay();
+
+        for (int w = 0; w < workers; w++) {
+            counts[w] = in[w].readInt();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          merge
+
+    // Description:     Groups the soonest collisions into sets of touching
+    //                      bodies and combines each set into one body (as
+    //                      Simulation.combineEntities), which keeps the
+    //                      lowest id of the set and feels the combined
+    //                      force of its members
+
+    // Parameters:      collisions - The collisions to process
+    //                  removed - Receives the ids of the combined bodies
+
+    // Returns:         The new bodies (id, x, y, vX, vY, radius, mass, aX,
+    //                      aY)
+
+    // Calls:           find
+
+    // Globals:         None
+
+    List<double[]> merge (List<double[]> collisions, Set<Long> removed) {
+
+        // Join the bodies of every collision into sets:
+        Map<Long, Long> parent = new HashMap<>();
+        Map<Long, double[]> state = new HashMap<>();
+        for (double[] c : collisions) {
+
+            long a = (long) c[0];
+            long b = (long) c[1];
+
+            state.put(a, new double[] {c[5], c[6], c[7], c[8], c[9]});
+            state.put(b, new double[] {c[10], c[11], c[12], c[13], c[14]});
+
+            long rootA = find(parent, a);
+            long rootB = find(parent, b);
+            if (rootA != rootB) {
+                parent.put(Math.max(rootA, rootB), Math.min(rootA, rootB));
+            }
+
+        }
+
+        // Collect the members and collision points of each set:
+        Map<Long, Set<Long>> members = new LinkedHashMap<>();
+        Map<Long, List<double[]>> points = new LinkedHashMap<>();
+        for (double[] c : collisions) {
+
+            long root = find(parent, (long) c[0]);
+
+            Set<Long> set = members.computeIfAbsent(root, k -> new LinkedHashSet<>());
+            set.add((long) c[0]);
+            set.add((long) c[1]);
+
+            points.computeIfAbsent(root, k -> new ArrayList<>()).add(new double[] {c[3], c[4]});
+
+        }
+
+        List<double[]> added = new ArrayList<>();
+        for (long root : members.keySet()) {
+
+            // Get the TOTAL mass, momentum and force of the set:
+            double m = 0, pX = 0, pY = 0, fX = 0, fY = 0;
+            for (long id : members.get(root)) {
+                double[] s = state.get(id);
+                m += s[0];
+                pX += s[0] * s[1];
+                pY += s[0] * s[2];
+                fX += s[0] * s[3];
+                fY += s[0] * s[4];
+                removed.add(id);
+            }
+
+            // Center of the resulting body:
+            double xC = 0, yC = 0;
+            for (double[] p : points.get(root)) {
+                xC += p[0];
+                yC += p[1];
+            }
+            xC /= points.get(root).size();
+            yC /= points.get(root).size();
+
+            added.add(new double[] {root, xC, yC, pX / m, pY / m, Math.sqrt(m / Math.PI), m, fX / m, fY / m});
+
+        }
+
+        return added;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          find
+
+    // Description:     Finds the representative (lowest id) of the set
+    //                      holding a body
+
+    // Parameters:      parent - Parent of each joined body
+    //                  id - The body
+
+    // Returns:         The representative of its set
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    static long find (Map<Long, Long> parent, long id) {
+
+        Long p = parent.get(id);
+        while (p != null) {
+            id = p;
+            p = parent.get(id);
+        }
+
+        return id;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          relay
+
+    // Description:     Carries out one exchange between the workers: reads
+    //                      a block for every destination from each worker,
+    //                      then sends every worker the blocks addressed to it
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         in, out
+    //                  workers
+
+    void relay() throws IOException {
+
+        byte[][][] blocks = new byte[workers][workers][];
+
+        for (int s = 0; s < workers; s++) {
+            for (int d = 0; d < workers; d++) {
+                blocks[s][d] = new byte[in[s].readInt()];
+                in[s].readFully(blocks[s][d]);
+            }
+        }
+
+        for (int d = 0; d < workers; d++) {
+            for (int s = 0; s < workers; s++) {
+                out[d].writeInt(blocks[s][d].length);
+                out[d].write(blocks[s][d]);
+            }
+            out[d].flush();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          broadcast
+
+    // Description:     Sends a command with no arguments to every worker
+
+    // Parameters:      command - The command
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         out
+    //                  workers
+
+    void broadcast (int command) throws IOException {
+
+        for (int w = 0; w < workers; w++) {
+            out[w].writeInt(command);
+            out[w].flush();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          stop
+
+    // Description:     Tells every worker to exit
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           broadcast
+
+    // Globals:         None
+
+    void stop() throws IOException {
+        broadcast(DomainWorker.STOP);
+    }
+
+    // *************************************************************************
+
+    // Method:          total
+
+    // Description:     Returns the number of bodies across all workers
+
+    // Parameters:      None
+
+    // Returns:         The number of bodies
+
+    // Calls:           Nothing
+
+    // Globals:         counts
+
+    long total() {
+
+        long total = 0;
+        for (int c : counts) {
+            total += c;
+        }
+
+        return total;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          imbalance
+
+    // Description:     Returns the largest worker's share of the bodies
+    //                      relative to an even share
+
+    // Parameters:      None
+
+    // Returns:         The imbalance (1 when perfectly balanced)
+
+    // Calls:           total
+
+    // Globals:         counts, workers
+
+    double imbalance() {
+
+        int largest = 0;
+        for (int c : counts) {
+            largest = Math.max(largest, c);
+        }
+
+        return total() == 0 ? 1 : (double) largest * workers / total();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          drift
+
+    // Description:     Returns the relative drift of the total energy from
+    //                      the first step
+
+    // Parameters:      None
+
+    // Returns:         The drift
+
+    // Calls:           Nothing
+
+    // Globals:         energy, referenceEnergy
+
+    double drift() {
+        return referenceEnergy == 0 ? 0 : Math.abs((energy - referenceEnergy) / referenceEnergy);
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
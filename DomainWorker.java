@@ -0,0 +1,996 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           DomainWorker
+// Description:     One worker process of a distributed run (see
+//                      DomainCoordinator), owning the bodies inside its
+//                      domain and carrying out the coordinator's commands
+
+//                  Usage: java DomainWorker [host=localhost] [port=5100]
+
+//                  Forces: the worker bins its bodies into square summary
+//                      cells and sends every other worker the bodies of the
+//                      cells near that worker's domain (ghosts) and a single
+//                      point mass at the centre of mass of each distant cell
+//                      (a cell is distant when its distance to the domain is
+//                      at least its width / theta), then runs its own force
+//                      backend over its bodies plus everything it received
+
+//                  Collisions: bodies within the halo width of another
+//                      domain are sent there with their accelerations, and
+//                      each pair is tested (with Entity.computeCollision)
+//                      by the worker owning the body with the lower id
+
+//                  Every exchange is relayed by the coordinator: a worker
+//                      sends one block of bytes per destination and gets
+//                      one block back from every other worker
+
+class DomainWorker {
+
+    // Commands sent by the coordinator
+    static final int SETTINGS = 1, LOAD = 2, SAMPLE = 3, DOMAINS = 4, MIGRATE = 5;
+    static final int FORCES = 6, COLLIDE = 7, ADVANCE = 8, STOP = 9;
+
+    // Connection to the coordinator
+    DataInputStream in;
+    DataOutputStream out;
+
+    // Index of this worker, and the number of workers
+    int rank, workers;
+
+    // Headless simulation supplying G and softening to the force backend
+    Simulation simulation;
+    ForceSolver solver;
+
+    // Opening angle and width of the summary cells
+    double theta, cellSize;
+
+    // Domains of every worker
+    Domain[] domains;
+
+    // Bodies owned by this worker, and their run-wide ids
+    BodyStore bodies;
+    long[] ids;
+
+    // Bodies of other workers near this domain (for collisions)
+    BodyStore halo;
+    long[] haloIds;
+
+    // Time left in the current step (the standard time step when the
+    // forces are computed, then the rest of it at each collision search)
+    double timeStep;
+
+    // *************************************************************************
+
+    // Method:          main
+
+    // Description:     Connects to the coordinator and serves its commands
+    //                      until told to stop
+
+    // Parameters:      args - Options
+
+    // Returns:         Nothing
+
+    // Calls:           DomainWorker
+    //                  run
+
+    // Globals:         None
+
+    public static void main(String[] args) throws IOException {
+
+        String host = "localhost";
+        int port = 5100;
+
+        for (String arg : args) {
+
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.out.println("\nUnknown option: " + arg);
+                continue;
+            }
+
+            switch (option[0]) {
+                case "host":
+                    host = option[1];
+                    break;
+                case "port":
+                    port = Integer.parseInt(option[1]);
+                    break;
+                default:
+                    System.out.println("\nUnknown option: " + option[0]);
+                    break;
+            }
+
+        }
+
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            new DomainWorker(socket).run();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          DomainWorker
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      socket - Connection to the coordinator
+
+    // Returns:         A new instance of the class
+
+    // Calls:           BodyStore
+
+    // Globals:         in, out
+    //                  bodies, ids, halo, haloIds
+
+    DomainWorker (Socket socket) throws IOException {
+
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+        bodies = new BodyStore(16);
+        ids = new long[16];
+
+        halo = new BodyStore(16);
+        haloIds = new long[16];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          run
+
+    // Description:     Serves the coordinator's commands until told to stop
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           configure, load, sample, readDomains, migrate
+    //                  forces, collide, advance
+
+    // Globals:         in, out
+
+    void run() throws IOException {
+
+        while (true) {
+
+            int command = in.readInt();
+
+            switch (command) {
+                case SETTINGS:
+                    configure();
+                    break;
+                case LOAD:
+                    load();
+                    break;
+                case SAMPLE:
+                    sample();
+                    break;
+                case DOMAINS:
+                    readDomains();
+                    break;
+                case MIGRATE:
+                    migrate();
+                    break;
+                case FORCES:
+                    forces();
+                    break;
+                case COLLIDE:
+                    collide();
+                    break;
+                case ADVANCE:
+                    advance();
+                    break;
+                case STOP:
+                    return;
+                default:
+                    throw new IOException("Unknown command: " + command);
+            }
+
+            out.flush();
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          configure
+
+    // Description:     Reads the settings of the run
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Simulation
+    //                  SimulationContext
+    //                  FastMultipole, DirectSumSolver
+
+    // Globals:         in
+    //                  rank, workers
+    //                  simulation, solver
+    //                  theta
+
+    void configure() throws IOException {
+
+        rank = in.readInt();
+        workers = in.readInt();
+
+        SimulationContext context = new SimulationContext();
+        context.headless = true;
+        context.G = in.readDouble();
+
+        simulation = new Simulation(0, 0, 0, context);
+        simulation.softening = in.readDouble();
+
+        theta = in.readDouble();
+
+        String name = in.readUTF();
+        switch (name) {
+            case "fmm":
+                solver = new FastMultipole(4, 32);
+                break;
+            case "direct":
+                solver = new DirectSumSolver();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown solver: " + name);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          load
+
+    // Description:     Generates this worker's share of a preset workload
+    //                      (bodies [first, first + count) of the whole run)
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           RandomGenerator
+    //                  InitialConditions
+
+    // Globals:         in, out
+    //                  simulation
+    //                  bodies, ids
+
+    void load() throws IOException {
+
+        String scenario = in.readUTF();
+        int n = in.readInt();
+        long seed = in.readLong();
+        int first = in.readInt();
+        int count = in.readInt();
+
+        bodies = RandomGenerator.generateBodies(n, seed, first, count,
+                InitialConditions.presetSampler(scenario, n, simulation.context.G));
+
+        ids = new long[Math.max(16, count)];
+        for (int b = 0; b < count; b++) {
+            ids[b] = first + b;
+        }
+
+        out.writeInt(bodies.count);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          sample
+
+    // Description:     Sends an evenly strided sample of body positions,
+    //                      for the coordinator's bisection
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         in, out
+    //                  bodies
+
+    void sample() throws IOException {
+
+        int k = Math.min(in.readInt(), bodies.count);
+
+        out.writeInt(k);
+        for (int j = 0; j < k; j++) {
+            int b = (int) ((long) j * bodies.count / k);
+            out.writeDouble(bodies.x[b]);
+            out.writeDouble(bodies.y[b]);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          readDomains
+
+    // Description:     Reads the domains of every worker and the width of
+    //                      the summary cells
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Domain
+
+    // Globals:         in
+    //                  workers, domains
+    //                  cellSize
+
+    void readDomains() throws IOException {
+
+        domains = new Domain[workers];
+        for (int d = 0; d < workers; d++) {
+            domains[d] = new Domain(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+        }
+
+        cellSize = in.readDouble();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          migrate
+
+    // Description:     Hands every body that has left this domain to the
+    //                      worker that now owns it, and adopts the bodies
+    //                      handed to this worker
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Domain
+    //                  exchange
+    //                  addBody, removeBody
+
+    // Globals:         out
+    //                  rank, workers, domains
+    //                  bodies, ids
+
+    void migrate() throws IOException {
+
+        ByteArrayOutputStream[] blocks = new ByteArrayOutputStream[workers];
+        DataOutputStream[] outbound = new DataOutputStream[workers];
+        for (int d = 0; d < workers; d++) {
+            blocks[d] = new ByteArrayOutputStream();
+            outbound[d] = new DataOutputStream(blocks[d]);
+        }
+
+        // Backwards, as removing a body moves the last body into its slot:
+        for (int b = bodies.count - 1; b >= 0; b--) {
+
+            int owner = Domain.owner(domains, bodies.x[b], bodies.y[b]);
+            if (owner == rank) {
+                continue;
+            }
+
+            DataOutputStream o = outbound[owner];
+            o.writeLong(ids[b]);
+            o.writeDouble(bodies.x[b]);
+            o.writeDouble(bodies.y[b]);
+            o.writeDouble(bodies.vX[b]);
+            o.writeDouble(bodies.vY[b]);
+            o.writeDouble(bodies.radius[b]);
+            o.writeDouble(bodies.mass[b]);
+            o.writeDouble(bodies.aX[b]);
+            o.writeDouble(bodies.aY[b]);
+
+            removeBody(b);
+
+        }
+
+        for (DataInputStream block : exchange(blocks)) {
+            while (block.available() > 0) {
+                int b = addBody(block.readLong(), block.readDouble(), block.readDouble(), block.readDouble(),
+                        block.readDouble(), block.readDouble());
+                bodies.mass[b] = block.readDouble();
+                bodies.aX[b] = block.readDouble();
+                bodies.aY[b] = block.readDouble();
+            }
+        }
+
+        out.writeInt(bodies.count);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          forces
+
+    // Description:     Exchanges ghosts and cell summaries with the other
+    //                      workers and computes the accelerations of the
+    //                      bodies of this domain, then reports the
+    //                      conserved quantities and the furthest any body
+    //                      could reach in the standard time step
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           NeighbourList
+    //                  Domain
+    //                  exchange
+    //                  ForceSolver
+    //                  reach
+
+    // Globals:         in, out
+    //                  rank, workers, domains
+    //                  simulation, solver
+    //                  theta, cellSize
+    //                  bodies
+    //                  timeStep
+
+    void forces() throws IOException {
+
+        timeStep = in.readDouble();
+
+        int owned = bodies.count;
+
+        // Bin the bodies into summary cells:
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        for (int b = 0; b < owned; b++) {
+            long key = NeighbourList.cellKey(NeighbourList.cellIndex(bodies.x[b], cellSize),
+                    NeighbourList.cellIndex(bodies.y[b], cellSize));
+            cells.computeIfAbsent(key, k -> new ArrayList<>()).add(b);
+        }
+
+        ByteArrayOutputStream[] blocks = new ByteArrayOutputStream[workers];
+        for (int d = 0; d < workers; d++) {
+            blocks[d] = new ByteArrayOutputStream();
+        }
+
+        for (List<Integer> cell : cells.values()) {
+
+            int first = cell.get(0);
+            int i = NeighbourList.cellIndex(bodies.x[first], cellSize);
+            int j = NeighbourList.cellIndex(bodies.y[first], cellSize);
+
+            double left = i * cellSize;
+            double bottom = j * cellSize;
+
+            // Centre of mass of the cell:
+            double m = 0, mX = 0, mY = 0;
+            for (int b : cell) {
+                m += bodies.mass[b];
+                mX += bodies.mass[b] * bodies.x[b];
+                mY += bodies.mass[b] * bodies.y[b];
+            }
+
+            for (int d = 0; d < workers; d++) {
+
+                if (d == rank) {
+                    continue;
+                }
+
+                DataOutputStream o = new DataOutputStream(blocks[d]);
+                double distance = domains[d].distanceTo(left, left + cellSize, bottom, bottom + cellSize);
+
+                if (distance * theta < cellSize) {
+                    for (int b : cell) {
+                        o.writeDouble(bodies.x[b]);
+                        o.writeDouble(bodies.y[b]);
+                        o.writeDouble(bodies.mass[b]);
+                    }
+                } else {
+                    o.writeDouble(mX / m);
+                    o.writeDouble(mY / m);
+                    o.writeDouble(m);
+                }
+
+            }
+
+        }
+
+        // Append the received sources after the bodies of this domain:
+        for (DataInputStream block : exchange(blocks)) {
+            while (block.available() > 0) {
+                int s = addSource(block.readDouble(), block.readDouble());
+                bodies.mass[s] = block.readDouble();
+            }
+        }
+
+        solver.computeAccelerations(bodies, simulation);
+        bodies.count = owned;
+
+        // Conserved quantities (each pair's potential is shared by two bodies):
+        double mass = 0, pX = 0, pY = 0, kinetic = 0, potential = 0, furthest = 0;
+        for (int b = 0; b < owned; b++) {
+
+            double m = bodies.mass[b];
+
+            mass += m;
+            pX += m * bodies.vX[b];
+            pY += m * bodies.vY[b];
+            kinetic += 0.5 * m * (bodies.vX[b] * bodies.vX[b] + bodies.vY[b] * bodies.vY[b]);
+            potential += 0.5 * m * bodies.potential[b];
+
+            furthest = Math.max(furthest, reach(bodies, b, timeStep));
+
+        }
+
+        out.writeInt(owned);
+        out.writeDouble(mass);
+        out.writeDouble(pX);
+        out.writeDouble(pY);
+        out.writeDouble(kinetic);
+        out.writeDouble(potential);
+        out.writeDouble(furthest);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          collide
+
+    // Description:     Exchanges the halo bodies and reports the collisions
+    //                      that occur soonest in the rest of the step (the
+    //                      time left is sent with the command), with the
+    //                      masses, velocities and accelerations the
+    //                      coordinator needs to merge them
+
+    //                  A pair is reported by the worker that owns the body
+    //                      with the lower id, so each pair is seen once
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           NeighbourList
+    //                  Domain
+    //                  Entity
+    //                  Collision
+    //                  exchange
+    //                  reach, entity
+
+    // Globals:         in, out
+    //                  rank, workers, domains
+    //                  bodies, ids, halo, haloIds
+    //                  timeStep
+
+    void collide() throws IOException {
+
+        double width = in.readDouble();
+        timeStep = in.readDouble();
+
+        ByteArrayOutputStream[] blocks = new ByteArrayOutputStream[workers];
+        DataOutputStream[] outbound = new DataOutputStream[workers];
+        for (int d = 0; d < workers; d++) {
+            blocks[d] = new ByteArrayOutputStream();
+            outbound[d] = new DataOutputStream(blocks[d]);
+        }
+
+        for (int b = 0; b < bodies.count; b++) {
+            for (int d = 0; d < workers; d++) {
+
+                if (d == rank || domains[d].distanceTo(bodies.x[b], bodies.y[b]) >= width) {
+                    continue;
+                }
+
+                DataOutputStream o = outbound[d];
+                o.writeLong(ids[b]);
+                o.writeDouble(bodies.x[b]);
+                o.writeDouble(bodies.y[b]);
+                o.writeDouble(bodies.vX[b]);
+                o.writeDouble(bodies.vY[b]);
+                o.writeDouble(bodies.aX[b]);
+                o.writeDouble(bodies.aY[b]);
+                o.writeDouble(bodies.radius[b]);
+
+            }
+        }
+
+        halo.count = 0;
+        for (DataInputStream block : exchange(blocks)) {
+            while (block.available() > 0) {
+
+                if (halo.count == halo.capacity()) {
+                    halo.ensureCapacity(halo.count + 1);
+                    haloIds = Arrays.copyOf(haloIds, halo.capacity());
+                }
+
+                haloIds[halo.count] = block.readLong();
+                int h = halo.add(0, block.readDouble(), block.readDouble(), block.readDouble(), block.readDouble());
+                halo.aX[h] = block.readDouble();
+                halo.aY[h] = block.readDouble();
+                halo.radius[h] = block.readDouble();
+                halo.mass[h] = Math.PI * halo.radius[h] * halo.radius[h];
+
+            }
+        }
+
+        int owned = bodies.count;
+
+        // Bin the bodies and the halo (halo indices follow the bodies):
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        for (int k = 0; k < owned + halo.count; k++) {
+            double x = k < owned ? bodies.x[k] : halo.x[k - owned];
+            double y = k < owned ? bodies.y[k] : halo.y[k - owned];
+            long key = NeighbourList.cellKey(NeighbourList.cellIndex(x, width), NeighbourList.cellIndex(y, width));
+            cells.computeIfAbsent(key, c -> new ArrayList<>()).add(k);
+        }
+
+        Entity[] entities = new Entity[owned + halo.count];
+
+        double earliest = Double.MAX_VALUE;
+        List<Collision> collisions = new ArrayList<>();
+        List<long[]> pairs = new ArrayList<>();
+
+        for (int a = 0; a < owned; a++) {
+
+            int cX = NeighbourList.cellIndex(bodies.x[a], width);
+            int cY = NeighbourList.cellIndex(bodies.y[a], width);
+            double reachA = reach(bodies, a, timeStep);
+
+            for (int i = cX - 1; i <= cX + 1; i++) {
+                for (int j = cY - 1; j <= cY + 1; j++) {
+
+                    List<Integer> cell = cells.get(NeighbourList.cellKey(i, j));
+                    if (cell == null) {
+                        continue;
+                    }
+
+                    for (int k : cell) {
+
+                        BodyStore store = k < owned ? bodies : halo;
+                        int o = k < owned ? k : k - owned;
+                        long otherId = k < owned ? ids[o] : haloIds[o];
+
+                        if (k < owned ? k <= a : otherId < ids[a]) {
+                            continue;
+                        }
+
+                        // Skip pairs that can't meet in the time step:
+                        double distance = Math.hypot(store.x[o] - bodies.x[a], store.y[o] - bodies.y[a]);
+                        if (distance > reachA + reach(store, o, timeStep)) {
+                            continue;
+                        }
+
+                        if (entities[a] == null) {
+                            entities[a] = entity(bodies, a);
+                        }
+                        if (entities[k] == null) {
+                            entities[k] = entity(store, o);
+                        }
+
+                        Collision c = entities[a].computeCollision(entities[k], timeStep);
+                        if (c == null || c.tC > earliest) {
+                            continue;
+                        }
+
+                        if (c.tC < earliest) {
+                            earliest = c.tC;
+                            collisions.clear();
+                            pairs.clear();
+                        }
+
+                        collisions.add(c);
+                        pairs.add(new long[] {a, k});
+
+                    }
+
+                }
+            }
+
+        }
+
+        out.writeInt(collisions.size());
+        for (int p = 0; p < collisions.size(); p++) {
+
+            Collision c = collisions.get(p);
+            int a = (int) pairs.get(p)[0];
+            int k = (int) pairs.get(p)[1];
+
+            BodyStore store = k < owned ? bodies : halo;
+            int o = k < owned ? k : k - owned;
+
+            out.writeLong(ids[a]);
+            out.writeLong(k < owned ? ids[o] : haloIds[o]);
+            out.writeDouble(c.tC);
+            out.writeDouble(c.xC);
+            out.writeDouble(c.yC);
+            out.writeDouble(bodies.mass[a]);
+            out.writeDouble(bodies.vX[a]);
+            out.writeDouble(bodies.vY[a]);
+            out.writeDouble(bodies.aX[a]);
+            out.writeDouble(bodies.aY[a]);
+            out.writeDouble(store.mass[o]);
+            out.writeDouble(store.vX[o]);
+            out.writeDouble(store.vY[o]);
+            out.writeDouble(store.aX[o]);
+            out.writeDouble(store.aY[o]);
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          advance
+
+    // Description:     Removes the merged bodies, advances the others to
+    //                      the next collision time or the end of the step
+    //                      (a substep, as in Simulation.resolveCollisions),
+    //                      adopts the new merged bodies inside this domain
+    //                      and migrates the bodies that have left it
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Domain
+    //                  addBody, removeBody
+    //                  migrate
+
+    // Globals:         in
+    //                  rank, domains
+    //                  bodies, ids
+
+    void advance() throws IOException {
+
+        double t = in.readDouble();
+
+        Set<Long> merged = new HashSet<>();
+        for (int r = in.readInt(); r > 0; r--) {
+            merged.add(in.readLong());
+        }
+
+        if (!merged.isEmpty()) {
+            for (int b = bodies.count - 1; b >= 0; b--) {
+                if (merged.contains(ids[b])) {
+                    removeBody(b);
+                }
+            }
+        }
+
+        for (int b = 0; b < bodies.count; b++) {
+
+            double vX = bodies.vX[b] + bodies.aX[b] * t;
+            double vY = bodies.vY[b] + bodies.aY[b] * t;
+
+            bodies.x[b] += bodies.vX[b] * t + 0.5 * bodies.aX[b] * t * t;
+            bodies.y[b] += bodies.vY[b] * t + 0.5 * bodies.aY[b] * t * t;
+            bodies.vX[b] = vX;
+            bodies.vY[b] = vY;
+
+        }
+
+        // New bodies start from their collision point, feeling the combined
+        // force of their members until the forces are next computed (as in
+        // Simulation.combineEntities):
+        for (int a = in.readInt(); a > 0; a--) {
+
+            long id = in.readLong();
+            double x = in.readDouble();
+            double y = in.readDouble();
+            double vX = in.readDouble();
+            double vY = in.readDouble();
+            double radius = in.readDouble();
+            double mass = in.readDouble();
+            double aX = in.readDouble();
+            double aY = in.readDouble();
+
+            if (Domain.owner(domains, x, y) == rank) {
+                int b = addBody(id, x, y, vX, vY, radius);
+                bodies.mass[b] = mass;
+                bodies.aX[b] = aX;
+                bodies.aY[b] = aY;
+            }
+
+        }
+
+        migrate();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          exchange
+
+    // Description:     Sends one block of bytes to every worker (through
+    //                      the coordinator) and receives one block from each
+
+    // Parameters:      blocks - The block for each worker (this worker's
+    //                      own block is not sent)
+
+    // Returns:         The blocks received from the other workers
+
+    // Calls:           Nothing
+
+    // Globals:         in, out
+    //                  rank, workers
+
+    DataInputStream[] exchange (ByteArrayOutputStream[] blocks) throws IOException {
+
+        for (int d = 0; d < workers; d++) {
+            if (d == rank) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(blocks[d].size());
+                blocks[d].writeTo(out);
+            }
+        }
+        out.flush();
+
+        DataInputStream[] received = new DataInputStream[workers];
+        for (int s = 0; s < workers; s++) {
+            byte[] block = new byte[in.readInt()];
+            in.readFully(block);
+            received[s] = new DataInputStream(new ByteArrayInputStream(block));
+        }
+
+        return received;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          addBody
+
+    // Description:     Adds a body to this domain, growing the store
+
+    // Parameters:      id - Run-wide id of the body
+    //                  x, y - Position
+    //                  vX, vY - Velocity
+    //                  r - Radius
+
+    // Returns:         The index of the new body
+
+    // Calls:           BodyStore
+
+    // Globals:         bodies, ids
+
+    int addBody (long id, double x, double y, double vX, double vY, double r) {
+
+        if (bodies.count == bodies.capacity()) {
+            bodies.ensureCapacity(bodies.count + 1);
+        }
+        if (ids.length < bodies.capacity()) {
+            ids = Arrays.copyOf(ids, bodies.capacity());
+        }
+
+        ids[bodies.count] = id;
+
+        return bodies.add(r, x, y, vX, vY);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          addSource
+
+    // Description:     Appends a point mass received from another worker
+    //                      after the bodies of the store (the caller sets
+    //                      its mass and restores the count afterwards)
+
+    // Parameters:      x, y - Position
+
+    // Returns:         The index of the source
+
+    // Calls:           BodyStore
+
+    // Globals:         bodies
+
+    int addSource (double x, double y) {
+
+        if (bodies.count == bodies.capacity()) {
+            bodies.ensureCapacity(bodies.count + 1);
+        }
+
+        return bodies.add(0, x, y, 0, 0);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          removeBody
+
+    // Description:     Removes a body from this domain (the last body
+    //                      takes its slot)
+
+    // Parameters:      b - Index of the body
+
+    // Returns:         Nothing
+
+    // Calls:           BodyStore
+
+    // Globals:         bodies, ids
+
+    void removeBody (int b) {
+
+        ids[b] = ids[bodies.count - 1];
+        bodies.remove(b);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          reach
+
+    // Description:     Computes how far a body's edge could be from its
+    //                      current centre at any point during a time step
+    //                      (its radius plus a bound on the length of the
+    //                      path swept in Entity.computeCollision)
+
+    // Parameters:      store - The store holding the body
+    //                  b - Index of the body
+    //                  t - The time step
+
+    // Returns:         The reach of the body
+
+    // Calls:           Collision
+
+    // Globals:         None
+
+    static double reach (BodyStore store, int b, double t) {
+
+        double speed = Math.hypot(store.vX[b], store.vY[b]);
+        double accel = Math.hypot(store.aX[b], store.aY[b]);
+
+        return Collision.reach(store.radius[b], speed, accel, t);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          entity
+
+    // Description:     Builds a stand-alone entity for a body, with its
+    //                      future state for the rest of the step, so the
+    //                      collision test of Entity can be used
+
+    // Parameters:      store - The store holding the body
+    //                  b - Index of the body
+
+    // Returns:         The entity
+
+    // Calls:           Entity
+
+    // Globals:         simulation
+    //                  timeStep
+
+    Entity entity (BodyStore store, int b) {
+
+        Entity e = new Entity(store.radius[b], store.x[b], store.y[b], store.vX[b], store.vY[b], simulation);
+        e.acceleration.updateComponents(store.aX[b], store.aY[b]);
+
+        e.updateVelocity(timeStep);
+        e.updatePosition(timeStep);
+
+        return e;
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
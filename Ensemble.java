@@ -0,0 +1,293 @@
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           Ensemble
+// Description:     Command-line parameter sweeps: runs many independent
+//                      headless simulations concurrently on a work-stealing
+//                      pool and writes one summary file
+
+//                  Usage: java Ensemble [option=value ...]
+//                          G=0.5,1,2               values of G
+//                          grace=0,10              grace periods
+//                          seeds=10                seeds per combination
+//                          seed=1                  first seed
+//                          n=100                   number of entities
+//                          scenario=random         workload preset
+//                          steps=500               iterations per run
+//                          sample=10               iterations between
+//                                                  diagnostics samples
+//                          threads=4               pool size (default =
+//                                                  available processors)
+//                          out=ensemble.csv        summary file
+
+class Ensemble {
+
+    // *************************************************************************
+
+    // Method:          main
+
+    // Description:     Runs every combination of G, grace and seed and
+    //                      writes the summary
+
+    // Parameters:      args - Options
+
+    // Returns:         Nothing
+
+    // Calls:           EnsembleRun
+    //                  parseDoubles
+    //                  writeSummary
+    //                  printAggregates
+
+    // Globals:         None
+
+    public static void main(String[] args) throws InterruptedException {
+
+        double[] gValues = {1.0};
+        double[] graceValues = {0};
+        int seeds = 10;
+        long firstSeed = 1;
+        int n = 100;
+        String scenario = "random";
+        int steps = 500;
+        int sampleInterval = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = "ensemble.csv";
+
+        for (String arg : args) {
+
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.out.println("\nUnknown option: " + arg);
+                continue;
+            }
+
+            switch (option[0]) {
+                case "G":
+                    gValues = parseDoubles(option[1]);
+                    break;
+                case "grace":
+                    graceValues = parseDoubles(option[1]);
+                    break;
+                case "seeds":
+                    seeds = Integer.parseInt(option[1]);
+                    break;
+                case "seed":
+                    firstSeed = Long.parseLong(option[1]);
+                    break;
+                case "n":
+                    n = Integer.parseInt(option[1]);
+                    break;
+                case "scenario":
+                    scenario = option[1];
+                    break;
+                case "steps":
+                    steps = Integer.parseInt(option[1]);
+                    break;
+                case "sample":
+                    sampleInterval = Integer.parseInt(option[1]);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(option[1]);
+                    break;
+                case "out":
+                    out = option[1];
+                    break;
+                default:
+                    System.out.println("\nUnknown option: " + option[0]);
+                    break;
+            }
+
+        }
+
+        List<EnsembleRun> runs = new ArrayList<>();
+        for (double g : gValues) {
+            for (double grace : graceValues) {
+                for (int s = 0; s < seeds; s++) {
+                    runs.add(new EnsembleRun(runs.size(), scenario, n, g, (int) grace, firstSeed + s, steps, sampleInterval));
+                }
+            }
+        }
+
+        System.out.println("\nRunning " + runs.size() + " simulations on " + threads + " threads...");
+
+        long start = System.nanoTime();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Future<EnsembleRun>> futures = pool.invokeAll(runs);
+        pool.shutdown();
+
+        List<EnsembleRun> finished = new ArrayList<>();
+        for (Future<EnsembleRun> future : futures) {
+            try {
+                finished.add(future.get());
+            } catch (ExecutionException e) {
+                System.out.println("\nRun failed: " + e.getCause());
+            }
+        }
+
+        System.out.printf("\nFinished in %.1f s\n", (System.nanoTime() - start) / 1e9);
+
+        writeSummary(finished, out);
+        printAggregates(finished);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          parseDoubles
+
+    // Description:     Parses a comma-separated list of numbers
+
+    // Parameters:      list - The list
+
+    // Returns:         The numbers
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static double[] parseDoubles (String list) {
+
+        String[] values = list.split(",");
+        double[] result = new double[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Double.parseDouble(values[i].trim());
+        }
+
+        return result;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          writeSummary
+
+    // Description:     Writes one line per run to the summary file
+
+    // Parameters:      runs - The finished runs
+    //                  path - The summary file
+
+    // Returns:         Nothing
+
+    // Calls:           EnsembleRun
+
+    // Globals:         None
+
+    static void writeSummary (List<EnsembleRun> runs, String path) {
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(path))) {
+
+            writer.println(EnsembleRun.HEADER);
+            for (EnsembleRun run : runs) {
+                writer.println(run.toCsv());
+            }
+
+            System.out.println("\nSummary written to " + path);
+
+        } catch (IOException e) {
+            System.out.println("\nCould not write " + path + ": " + e.getMessage());
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          printAggregates
+
+    // Description:     Prints the mean and standard deviation of the
+    //                      results over the seeds of each (G, grace) pair
+    //                      (the drift being the mean cumulative drift of
+    //                      the runs that measured one; see EnsembleRun)
+
+    // Parameters:      runs - The finished runs
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static void printAggregates (List<EnsembleRun> runs) {
+
+        Map<String, List<EnsembleRun>> groups = new LinkedHashMap<>();
+        for (EnsembleRun run : runs) {
+            groups.computeIfAbsent("G = " + run.g + ", grace = " + run.grace, k -> new ArrayList<>()).add(run);
+        }
+
+        System.out.println("\n                               Runs   Failed       Entities            Merges         Max drift");
+
+        for (Map.Entry<String, List<EnsembleRun>> group : groups.entrySet()) {
+
+            double[] entities = new double[3], merges = new double[3], drift = new double[3];
+            int failed = 0;
+
+            for (EnsembleRun run : group.getValue()) {
+                if (run.error != null) {
+                    failed++;
+                    continue;
+                }
+                accumulate(entities, run.entities);
+                accumulate(merges, run.merges);
+                // Only runs with an interval free of merges measured a drift:
+                if (run.driftIntervals > 0) {
+                    accumulate(drift, run.maxDrift);
+                }
+            }
+
+            System.out.printf("%-28s %7d %8d %8.1f +- %-6.1f %8.1f +- %-6.1f %9.2e\n", group.getKey(), group.getValue().size(), failed,
+                    mean(entities), deviation(entities), mean(merges), deviation(merges), mean(drift));
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          accumulate, mean, deviation
+
+    // Description:     Running count, sum and sum of squares of a value,
+    //                      and the mean and standard deviation they give
+
+    // Parameters:      sums - Count, sum and sum of squares
+    //                  value - The value to add
+
+    // Returns:         The mean or standard deviation (0 if empty)
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static void accumulate (double[] sums, double value) {
+        sums[0]++;
+        sums[1] += value;
+        sums[2] += value * value;
+    }
+
+    static double mean (double[] sums) {
+        return (sums[0] == 0) ? 0 : sums[1] / sums[0];
+    }
+
+    static double deviation (double[] sums) {
+        if (sums[0] < 2) {
+            return 0;
+        }
+        double m = mean(sums);
+        return Math.sqrt(Math.max(0, (sums[2] - sums[0] * m * m) / (sums[0] - 1)));
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
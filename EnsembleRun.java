@@ -0,0 +1,164 @@
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           EnsembleRun
+// Description:     Object class, representing one headless simulation of an
+//                      ensemble: its parameters, and its results once run
+
+//                  Each run builds its own Simulation and bodies from its
+//                      own seed, so runs share no mutable state
+
+//                  maxDrift is the largest magnitude of the cumulative
+//                      energy drift (see Diagnostics): the relative energy
+//                      change summed over the sampling intervals without a
+//                      merge, so the merges' own losses are left out;
+//                      driftIntervals is how many intervals it covers (0
+//                      when every interval had a merge, and nothing was
+//                      measured)
+
+class EnsembleRun implements Callable<EnsembleRun> {
+
+    // Columns of the summary file
+    static final String HEADER = "run,scenario,n,G,grace,seed,steps,entities,merges,collisions,maxDrift,driftIntervals,finalEnergy,seconds";
+
+    // Parameters
+    int id;
+    String scenario;
+    int n, grace, steps, sampleInterval;
+    double g;
+    long seed;
+
+    // Results
+    int entities;
+    long merges, collisions;
+    int driftIntervals;
+    double maxDrift, finalEnergy, seconds;
+
+    // Failure, if the run threw
+    Exception error;
+
+    // *************************************************************************
+
+    // Method:          EnsembleRun
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      id - Index of the run
+    //                  scenario - Workload preset (see InitialConditions)
+    //                  n - Number of entities
+    //                  g - The gravitational constant
+    //                  grace - Iterations before collisions
+    //                  seed - The seed
+    //                  steps - Iterations to run
+    //                  sampleInterval - Iterations between diagnostics
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         id, scenario, n, g, grace, seed, steps, sampleInterval
+
+    EnsembleRun (int id, String scenario, int n, double g, int grace, long seed, int steps, int sampleInterval) {
+
+        this.id = id;
+        this.scenario = scenario;
+        this.n = n;
+        this.g = g;
+        this.grace = grace;
+        this.seed = seed;
+        this.steps = steps;
+        this.sampleInterval = sampleInterval;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          call
+
+    // Description:     Runs the simulation and records the results
+
+    // Parameters:      None
+
+    // Returns:         This run
+
+    // Calls:           Simulation
+    //                  InitialConditions
+    //                  Diagnostics
+
+    // Globals:         entities, merges, collisions
+    //                  maxDrift, driftIntervals, finalEnergy, seconds, error
+
+    @Override
+    public EnsembleRun call() {
+
+        long start = System.nanoTime();
+
+        try {
+
+            Simulation simulation = new Simulation(800, 800, grace);
+            simulation.context.headless = true;
+            simulation.context.G = g;
+
+            simulation.addEntities(InitialConditions.preset(scenario, n, seed, g));
+            simulation.diagnostics = new Diagnostics(sampleInterval, 0);
+
+            for (int i = 0; i < steps; i++) {
+                simulation.iterate(simulation.tS);
+            }
+
+            entities = simulation.entities.size();
+            merges = simulation.metrics.totalMerges;
+            collisions = simulation.metrics.totalCollisions;
+
+            maxDrift = simulation.diagnostics.maxCumulativeDrift;
+            driftIntervals = simulation.diagnostics.conservedIntervals;
+
+            for (double[] sample : simulation.diagnostics.series) {
+                finalEnergy = sample[Diagnostics.TOTAL];
+            }
+
+        } catch (Exception e) {
+            error = e;
+        }
+
+        seconds = (System.nanoTime() - start) / 1e9;
+
+        return this;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          toCsv
+
+    // Description:     Formats the run as a line of the summary file
+
+    // Parameters:      None
+
+    // Returns:         The line
+
+    // Calls:           Nothing
+
+    // Globals:         All parameters and results
+
+    String toCsv() {
+
+        if (error != null) {
+            return String.format(Locale.ROOT, "%d,%s,%d,%s,%d,%d,%d,,,,,,,%.3f", id, scenario, n, g, grace, seed, steps, seconds);
+        }
+
+        return String.format(Locale.ROOT, "%d,%s,%d,%s,%d,%d,%d,%d,%d,%d,%.6e,%d,%.9e,%.3f",
+                id, scenario, n, g, grace, seed, steps, entities, merges, collisions, maxDrift, driftIntervals, finalEnergy, seconds);
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -1,6 +1,5 @@
 
 import java.util.List;
-import java.util.ArrayList;
 import java.awt.Color;
 
 // *****************************************************************************
@@ -11,14 +10,21 @@ import java.awt.Color;
 
 class Entity {
     
+    // Id of the entity in its simulation (kept through reordering)
+    long id;
+    
     double mass, radius;
     
     Vector position, futurePosition, velocity, futureVelocity, acceleration;
     
     Simulation simulation;
     
-    // The maximum distance the entity could travel in the next time step
-    Vector maxDistance;
+    // Entities within the cutoff radius (plus skin) when running with a cutoff
+    List<Entity> neighbours;
+    
+    // Gravitational potential (per unit mass) at the entity, found with the
+    //  acceleration for the conservation diagnostics
+    double potential;
     
     // *************************************************************************
     
@@ -46,7 +52,7 @@ class Entity {
         
         radius = r;
         
-        mass = Simulation.PI * radius * radius;
+        mass = s.context.PI * radius * radius;
 
         position = new Vector(x, y);
         velocity = new Vector(vX, vY);
@@ -61,45 +67,23 @@ class Entity {
     
     // *************************************************************************
     
-    // Method:          getOtherEntities
-    
-    // Description:     Returns a list of all other entities in a run
-    //                      (excluding itself)
-    
-    // Returns:         otherEntities
-    
-    // Calls:           Nothing
-    
-    // Globals:         simulation
-    
-    List<Entity> getOtherEntities() {
-        
-        ArrayList<Entity> otherEntities = new ArrayList<>();
-        
-        for (Entity e : simulation.entities) {
-            if (!e.equals(this)) {
-                otherEntities.add(e);
-            }
-        }
-        
-        return otherEntities;
-        
-    }
-    
-    // *************************************************************************
-    
     // Method:          updateAcceleration
     
     // Description:     Computes and updates the entity's acceleration
     
+    //                  The force is Plummer-softened by the simulation's
+    //                      softening length, and when a cutoff radius is set
+    //                      only the entity's neighbour list is considered
+    
+    //                  The potential comes from the same pair terms
+    
     // Parameters:      None
     // Returns:         Nothing
     
     // Calls:           Vector
-    //                  getOtherEntities
     
-    // Globals:         acceleration
-    //                  position, mass
+    // Globals:         acceleration, potential
+    //                  position, mass, neighbours
     //                  simulation
     
     void updateAcceleration() {
@@ -111,34 +95,62 @@ class Entity {
         double x1 = position.getX();
         double y1 = position.getY();
         
-        // Keep track of the new acceleration:
+        // Get the softening and cutoff parameters:
+        double softeningSquared = simulation.softening * simulation.softening;
+        double cutoffSquared = simulation.cutoffRadius * simulation.cutoffRadius;
+        
+        // Only the neighbour list is needed when running with a cutoff
+        // (otherwise every entity but this one, skipped in the loop):
+        List<Entity> sources;
+        if (cutoffSquared > 0 && neighbours != null) {
+            sources = neighbours;
+        } else {
+            sources = simulation.entities;
+        }
+        
+        // Keep track of the new acceleration and potential:
         double aX = 0;
         double aY = 0;
+        double phi = 0;
         
         // Consider all bodies in the system (besides this one):
-        for (Entity e : getOtherEntities()) {
+        for (int i = 0; i < sources.size(); i++) {
             
-            // Get some parameters from the other entity:
-            double x2 = e.position.getX();
-            double y2 = e.position.getY();
-            double m2 = e.mass;
+            Entity e = sources.get(i);
+            if (e == this) {
+                continue;
+            }
             
-            // Get the distance between the two entities:
-            double r = Vector.computeDistance(x1, y1, x2, y2);
+            // Get the separation between the two entities:
+            double dX = e.position.getX() - x1;
+            double dY = e.position.getY() - y1;
+            double rSquared = dX * dX + dY * dY;
             
-            // Get the magnitude and direction of the vector:
-            double magnitude = (simulation.G * m2) / (r * r);
-            double direction = Vector.computeVectorAngle(x1, y1, x2, y2);
+            // Coincident entities exert no net force on each other:
+            if (rSquared == 0) {
+                continue;
+            }
             
-            // Create the vector:
-            Vector v = new Vector(magnitude, direction, 0);
+            // Skip entities beyond the cutoff radius:
+            if (cutoffSquared > 0 && rSquared > cutoffSquared) {
+                continue;
+            }
+            
+            // G * m2 / (r^2 + e^2)^(3/2), scaled onto the separation:
+            double softened = rSquared + softeningSquared;
+            double factor = (simulation.context.G * e.mass) / (softened * Math.sqrt(softened));
             
             // Add the components to the entity's acceleration vector:
-            aX += v.getX();
-            aY += v.getY();
+            aX += factor * dX;
+            aY += factor * dY;
+            
+            // -G * m2 / (r^2 + e^2)^(1/2):
+            phi -= factor * softened;
             
         }
         
+        potential = phi;
+        
         if (Double.isNaN(aX)) {
             aX = 0;
         }
@@ -193,7 +205,11 @@ class Entity {
     // Description:     Computes and updates the entity's futurePosition
     //                  (actual position must be updated elsewhere)
     
-    //                  Also updates the entity's maxDistance
+    //                  The position follows p + v*t + a*t^2/2 from the
+    //                      current velocity, the path the collision test
+    //                      predicts (see computeCollision); as it doesn't
+    //                      depend on futureVelocity, advancing in several
+    //                      steps ends where one step would
     
     // Parameters:      t - Elapsed time (for the calculations)
     
@@ -202,16 +218,15 @@ class Entity {
     // Calls:           Vector
     
     // Globals:         futurePosition
-    //                  position, futureVelocity, acceleration
-    //                  maxDistance
+    //                  position, velocity, acceleration
     
     void updatePosition (double t) {
         
         double x = position.getX();
         double y = position.getY();
         
-        double vX = futureVelocity.getX();
-        double vY = futureVelocity.getY();
+        double vX = velocity.getX();
+        double vY = velocity.getY();
         
         double aX = acceleration.getX();
         double aY = acceleration.getY();
@@ -226,8 +241,36 @@ class Entity {
         // Update the future position of the entity:
         futurePosition.updateComponents(xF, yF);
         
-        // Update the max distance of the entity:
-        maxDistance = new Vector(Vector.computeDistance(x, y, xF, yF), Vector.computeVectorAngle(x, y, xF, yF), 0);
+    }
+    
+    // *************************************************************************
+    
+    // Method:          advance
+    
+    // Description:     Moves the entity on by part of a step, along the
+    //                      path of updateVelocity and updatePosition but
+    //                      without rounding, so the substeps of a step
+    //                      don't each add a rounding error (the end of the
+    //                      step is rounded as usual)
+    
+    // Parameters:      t - Elapsed time (for the calculations)
+    
+    // Returns:         Nothing
+    
+    // Calls:           Nothing
+    
+    // Globals:         position, velocity, acceleration
+    
+    void advance (double t) {
+        
+        double vX = velocity.getX();
+        double vY = velocity.getY();
+        
+        double aX = acceleration.getX();
+        double aY = acceleration.getY();
+        
+        position.updateComponents(position.getX() + vX*t + 0.5*aX*t*t, position.getY() + vY*t + 0.5*aY*t*t);
+        velocity.updateComponents(vX + aX*t, vY + aY*t);
         
     }
     
@@ -267,7 +310,7 @@ class Entity {
     
     // *************************************************************************
     
-    // Method:          computeCollisions
+    // Method:          computeCollision
     
     // Description:     Determines if two entities will collide
     //                      in the given amount of time
@@ -278,366 +321,79 @@ class Entity {
     // Returns:         Collision instance if the two entities collide,
     //                      otherwise returns null
     
-    // Calls:           alternateCollision
-    //                  Collision
-    //                  Vector
+    // Calls:           computeCollision
     
-    // Globals:         position, velocity, acceleration
-    //                  radius, maxDistance
+    // Globals:         None
     
     Collision computeCollision (Entity otherEntity, double timeLimit) {
-        
-        // If both entities are on top of one another:
-        if (position.getX() == otherEntity.position.getX()) {
-            if (position.getY() == otherEntity.position.getY()) {
-                return new Collision(this, otherEntity, position.getX(), position.getY(), 0);
-            }
-        }
-        
-        // If the slopes of the entities are equal:
-        if (velocity.getSlope() == otherEntity.velocity.getSlope()) {
-            
-            // and if the entities are both moving:
-            if (maxDistance.getMagnitude() > 0 && otherEntity.maxDistance.getMagnitude() > 0) {
-                
-                // Go to collision case #2:
-                return alternateCollision(otherEntity, timeLimit);
-            }
-        }
-        
-        // Label the two entities:
-        Entity e1 = this;
-        Entity e2 = otherEntity;
-        
-        // Get some information:
-        double xA = e1.position.getX();
-        double yA = e1.position.getY();
-        double sA = e1.velocity.getSlope();
-        
-        double xB = e2.position.getX();
-        double yB = e2.position.getY();
-        double sB = e2.velocity.getSlope();
-
-        // Find the intersection of the entities' trajectories:
-        double xC = (sA * xA - sB * xB + yB - yA) / (sA - sB);
-        double yC = sA * (xC - xA) + yA;
-
-        // Distance of each entity from the collision point:
-        Vector dAC = new Vector(Vector.computeDistance(xA, yA, xC, yC), Vector.computeVectorAngle(xA, yA, xC, yC), 0);
-        Vector dBC = new Vector(Vector.computeDistance(xB, yB, xC, yC), Vector.computeVectorAngle(xB, yB, xC, yC), 0);
-        
-        // Distance of each entity from the collision box:
-        Vector dAi = new Vector(dAC.getMagnitude() - e2.radius, dAC.getDirection(), 0);
-        Vector dAo = new Vector(dAC.getMagnitude() + e2.radius, dAC.getDirection(), 0);
-        
-        Vector dBi = new Vector(dBC.getMagnitude() - e1.radius, dBC.getDirection(), 0);
-        Vector dBo = new Vector(dBC.getMagnitude() + e1.radius, dBC.getDirection(), 0);
-        
-        // If both of the entities are already in the collision box:
-        if (dAC.getMagnitude() <= e2.radius && dBC.getMagnitude() <= e1.radius) {
-            return new Collision(e1, e2, xC, yC, 0);
-        }
-
-        // Time until entity A arrives at collision box:
-        double tAi, tAo;
-        
-        double aValue, bValue, cValue;
-
-        // If x velocity is greater:
-        if (Math.abs(e1.velocity.getX()) >= Math.abs(e1.velocity.getY())) {
-            
-            aValue = 0.5 * e1.acceleration.getX();
-            bValue = e1.velocity.getX();
-            cValue = -dAi.getX();
-            
-            tAi = Collision.computeCollisionTime(aValue, bValue, cValue);
-            
-            cValue = -dAo.getX();
-            
-            tAo = Collision.computeCollisionTime(aValue, bValue, cValue);
-        
-        // If y velocity is greater:
-        } else {
-            
-            aValue = 0.5 * e1.acceleration.getY();
-            bValue = e1.velocity.getY();
-            cValue = -dAi.getY();
-            
-            tAi = Collision.computeCollisionTime(aValue, bValue, cValue);
-            
-            cValue = -dAo.getY();
-            
-            tAo = Collision.computeCollisionTime(aValue, bValue, cValue);
-            
-        }
-
-        // Time until entity B arrives at collision box:
-        double tBi, tBo;
-
-        // If x velocity is greater:
-        if (Math.abs(e2.velocity.getX()) >= Math.abs(e2.velocity.getY())) {
-            
-            aValue = 0.5 * e2.acceleration.getX();
-            bValue = e2.velocity.getX();
-            cValue = -dBi.getX();
-            
-            tBi = Collision.computeCollisionTime(aValue, bValue, cValue);
-            
-            cValue = -dBo.getX();
-            
-            tBo = Collision.computeCollisionTime(aValue, bValue, cValue);
-        
-        // If y velocity is greater:
-        } else {
-            
-            aValue = 0.5 * e2.acceleration.getY();
-            bValue = e2.velocity.getY();
-            cValue = -dBi.getY();
-            
-            tBi = Collision.computeCollisionTime(aValue, bValue, cValue);
-            
-            cValue = -dBo.getY();
-            
-            tBo = Collision.computeCollisionTime(aValue, bValue, cValue);
-            
-        }
-
-        // Use the max of tAi and tBi as the collision time:
-        double timeToCollide = Math.max(tAi, tBi);
-
-        // Make sure all time values are positive:
-        if (tAi >= 0 && tAo >= 0 && tBi >= 0 && tBo >= 0) {
-
-            // Make sure the time values are close enough to each other:
-            if (tAi >= tBi && tAo <= tBo || tBi >= tAi && tBo <= tAo) {
-
-                // Make sure that the collision will happen in this time step:
-                if (timeToCollide <= timeLimit) {
-
-                    // Record the collision:
-                    return new Collision(e1, e2, xC, yC, timeToCollide);
-                }
-            }
-        }
-        
-        // If no collision occurs, return null:
-        return null;
-
+        return computeCollision(otherEntity, timeLimit, null);
     }
     
     // *************************************************************************
     
-    // Method:          alternateCollision
+    // Method:          computeCollision
     
-    // Description:     Alternate collision handler for the computeCollision
-    //                      that handles entities with equal slopes
+    // Description:     Determines if two entities will collide
+    //                      in the given amount of time, filling in a
+    //                      recycled collision record instead of
+    //                      allocating a new one (when given)
+    
+    //                  The motion is taken relative to this entity, so the
+    //                      test is for the other entity's centre, moving
+    //                      with the relative velocity and acceleration
+    //                      along the path of updatePosition, coming within
+    //                      the sum of the radii and the contact slack (see
+    //                      Collision.computeContactTime); the collision
+    //                      point is where the two surfaces meet
     
     // Parameters:      otherEntity - The other entity in the equation
     //                  timeLimit - The allowed time limit for a collision
+    //                  record - Collision record to reuse (null for a new one)
     
-    // Returns:         Collision instance if the two entities collide,
+    // Returns:         The collision record if the two entities collide,
     //                      otherwise returns null
     
     // Calls:           Collision
-    //                  Simulation
-    //                  Vector
     
     // Globals:         position, velocity, acceleration
-    //                  futurePosition
-    //                  radius, maxDistance
-    
-    Collision alternateCollision (Entity otherEntity, double timeLimit) {
-        
-        // Label the two entities:
-        Entity e1 = this;
-        Entity e2 = otherEntity;
-        
-        // Get some information about the entities:
-        double xA = e1.position.getX();
-        double yA = e1.position.getY();
-        double sA = e1.velocity.getSlope();
-        
-        double xB = e2.position.getX();
-        double yB = e2.position.getY();
-        double sB = e2.velocity.getSlope();
-        
-        // Get the distance between the entities' trajectories:
-        double line1x = xA;
-        double line1y = yA;
-        double line1s;
-        if (sA == 0) {
-            line1s = Math.tan(Simulation.PI/2);
-        } else {
-            line1s = -1/sA;
-        }
+    //                  radius
+    
+    Collision computeCollision (Entity otherEntity, double timeLimit, Collision record) {
         
-        double xT = (line1s * line1x - sB * xB + yB - line1y) / (line1s - sB);
-        double yT = line1s * (xT - line1x) + line1y;
+        // Motion of the other entity relative to this one:
+        double pX = otherEntity.position.getX() - position.getX();
+        double pY = otherEntity.position.getY() - position.getY();
         
-        // Find the distance between the two trajectories:
-        double trajectoryDistance = Vector.computeDistance(xA, yA, xT, yT);
+        double vX = otherEntity.velocity.getX() - velocity.getX();
+        double vY = otherEntity.velocity.getY() - velocity.getY();
         
-        // Find dApart:
-        Vector dApart = new Vector(Vector.computeDistance(xT, yT, xB, yB), Vector.computeVectorAngle(xT, yT, xB, yB), 0);
+        double aX = 0.5 * (otherEntity.acceleration.getX() - acceleration.getX());
+        double aY = 0.5 * (otherEntity.acceleration.getY() - acceleration.getY());
         
-        // Check if the trajectories are close enough to each other:
-        double criticalDistance = e1.radius + e2.radius;
+        double reach = radius + otherEntity.radius + Collision.CONTACT_SLACK;
         
-        // If they are close enough:
-        if (trajectoryDistance <= criticalDistance) {
-            
-            // Find out which entity is faster:
-            Entity f, s;
-            
-            // If entity 1 is faster:
-            if (e1.maxDistance.getMagnitude() > e2.maxDistance.getMagnitude()) {
-                f = e1;
-                s = e2;
-                
-            // If entity 2 is faster:
-            } else {
-                f = e2;
-                s = e1;
-            }
-            
-            // If the entities are moving in the same direction:
-            if (Math.signum(f.maxDistance.getX()) == Math.signum(s.maxDistance.getX()) && Math.signum(f.maxDistance.getY()) == Math.signum(s.maxDistance.getY())) {
-                
-                // If the max distances are the same:
-                if (f.maxDistance == s.maxDistance) {
-                    
-                    // Then no collision will occur
-                    return null;
-                }
-                
-                // Find the time until collision:
-                double timeToCollide;
-                
-                double aXf = f.acceleration.getX();
-                double aYf = f.acceleration.getY();
-                
-                double aXs = s.acceleration.getX();
-                double aYs = s.acceleration.getY(); 
-                
-                double vXf = f.velocity.getX();
-                double vYf = f.velocity.getY();
-                
-                double vXs = s.velocity.getX();
-                double vYs = s.velocity.getY();
-                
-                if (Math.abs(dApart.getX()) > Math.abs(dApart.getY())) {
-                    
-                    // Use the x component for time calculations:
-                    timeToCollide = Collision.computeCollisionTime(0.5 * (aXf - aXs), (vXf - vXs), -dApart.getX());
-                    
-                } else {
-                    
-                    // Use the y component for time calculations:
-                    timeToCollide = Collision.computeCollisionTime(0.5 * (aYf - aYs), (vYf - vYs), -dApart.getY());
-                }
-                
-                // Make sure the collision time is appropriate:
-                if (timeToCollide >= 0 && timeToCollide < timeLimit) {
-                    
-                    // Find the positions along the trajectories where the entities meet:
-                    double d_slowerToInt_X = s.velocity.getX() * timeToCollide + 0.5 * s.acceleration.getX() * timeToCollide * timeToCollide;
-                    double d_slowerToInt_Y = s.velocity.getY() * timeToCollide + 0.5 * s.acceleration.getY() * timeToCollide * timeToCollide;
-                    
-                    double sXC = s.position.getX() + d_slowerToInt_X;
-                    double sYC = s.position.getY() + d_slowerToInt_Y;
-                    
-                    double d_fasterToInt_X = d_slowerToInt_X + dApart.getX();
-                    double d_fasterToInt_Y = d_slowerToInt_Y + dApart.getY();
-                    
-                    double fXC = f.position.getX() + d_fasterToInt_X;
-                    double fYC = f.position.getY() + d_fasterToInt_Y;
-                    
-                    double collisionPointX = (sXC + fXC) / 2;
-                    double collisionPointY = (sYC + fYC) / 2;
-                    
-                    // Return the collision event:
-                    return new Collision(f, s, collisionPointX, collisionPointY, timeToCollide);
-                    
-                }
-            
-            // If the entities are moving in opposite directions:
-            } else {
-                
-                Vector dApartStart = new Vector(dApart);
-                
-                // Determine if the entities will collide:
-                line1x = e1.futurePosition.getX();
-                line1y = e1.futurePosition.getY();
-                
-                xB = e2.futurePosition.getX();
-                yB = e2.futurePosition.getY();
-                
-                xT = (line1s * line1x - sB * xB + yB - line1y) / (line1s - sB);
-                yT = line1s * (xT - line1x) + line1y;
-
-                Vector dApartEnd = new Vector(Vector.computeDistance(xT, yT, xB, yB), Vector.computeVectorAngle(xT, yT, xB, yB), 0);
-                
-                // If the entities are heading towards each other:
-                if (dApartEnd.getMagnitude() < dApartStart.getMagnitude() + s.maxDistance.getMagnitude() + f.maxDistance.getMagnitude()) {
-                    
-                    // Find the time until collision:
-                    double timeToCollide;
-
-                    double aXf = f.acceleration.getX();
-                    double aYf = f.acceleration.getY();
-
-                    double vXf = f.velocity.getX();
-                    double vYf = f.velocity.getY();
-                    
-                    double aXs = s.acceleration.getX();
-                    double aYs = s.acceleration.getY();
-
-                    double vXs = s.velocity.getX();
-                    double vYs = s.velocity.getY();
-                    
-                    if (Math.abs(dApartStart.getX()) > Math.abs(dApartStart.getY())) {
-
-                        // Use the x component for time calculations:
-                        timeToCollide = Collision.computeCollisionTime(0.5 * (aXf + aXs), (vXf - vXs), -dApartStart.getX());
-
-                    } else {
-
-                        // Use the y component for time calculations:
-                        timeToCollide = Collision.computeCollisionTime(0.5 * (aYf + aYs), (vYf - vYs), -dApartStart.getY());
-                    }
-                    
-                    // Make sure the collision time is appropriate:
-                    if (timeToCollide >= 0 && timeToCollide < timeLimit) {
-
-                        // Find the positions along the trajectories where the entities meet:
-                        double d_slowerToInt_X = s.velocity.getX() * timeToCollide + 0.5 * s.acceleration.getX() * timeToCollide * timeToCollide;
-                        double d_slowerToInt_Y = s.velocity.getY() * timeToCollide + 0.5 * s.acceleration.getY() * timeToCollide * timeToCollide;
-
-                        double sXC = s.position.getX() + d_slowerToInt_X;
-                        double sYC = s.position.getY() + d_slowerToInt_Y;
-
-                        double d_fasterToInt_X = d_slowerToInt_X + dApart.getX();
-                        double d_fasterToInt_Y = d_slowerToInt_Y + dApart.getY();
-
-                        double fXC = f.position.getX() + d_fasterToInt_X;
-                        double fYC = f.position.getY() + d_fasterToInt_Y;
-
-                        double collisionPointX = (sXC + fXC) / 2;
-                        double collisionPointY = (sYC + fYC) / 2;
-
-                        // Return the collision event:
-                        return new Collision(f, s, collisionPointX, collisionPointY, timeToCollide);
-
-                    }
-                    
-                }
-                
-            }
-            
+        double timeToCollide = Collision.computeContactTime(pX, pY, vX, vY, aX, aY, reach, timeLimit);
+        
+        // If no collision occurs, return null:
+        if (timeToCollide < 0) {
+            return null;
         }
         
-        // No collision will occur
-        return null;
+        // Position of this entity at the time of the collision:
+        double t = timeToCollide;
+        double x1 = position.getX() + (velocity.getX() + 0.5 * acceleration.getX() * t) * t;
+        double y1 = position.getY() + (velocity.getY() + 0.5 * acceleration.getY() * t) * t;
+        
+        // Separation of the centres at the time of the collision:
+        double dX = pX + (vX + aX * t) * t;
+        double dY = pY + (vY + aY * t) * t;
+        
+        // The surfaces meet one radius along the line between the centres:
+        double radii = radius + otherEntity.radius;
+        double share = (radii > 0) ? radius / radii : 0.5;
+        
+        // Record the collision:
+        return Collision.record(record, this, otherEntity, x1 + share * dX, y1 + share * dY, timeToCollide);
         
     }
     
@@ -0,0 +1,150 @@
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           FFT
+// Description:     Pure-Java, in-place radix-2 fast Fourier transforms over
+//                      split real/imaginary arrays
+
+class FFT {
+
+    // *************************************************************************
+
+    // Method:          transform
+
+    // Description:     Performs an in-place 1D FFT of n complex values read
+    //                      from re/im at offset, offset + stride, ...
+    //                      (the inverse transform is scaled by 1/n)
+
+    // Parameters:      re, im - Real and imaginary parts
+    //                  offset - Index of the first value
+    //                  stride - Distance between consecutive values
+    //                  n - Number of values (a power of 2)
+    //                  inverse - True for the inverse transform
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static void transform (double[] re, double[] im, int offset, int stride, int n, boolean inverse) {
+
+        // Bit-reversal permutation:
+        for (int i = 1, j = 0; i < n; i++) {
+
+            int bit = n >> 1;
+            while ((j & bit) != 0) {
+                j ^= bit;
+                bit >>= 1;
+            }
+            j |= bit;
+
+            if (i < j) {
+                int a = offset + i * stride;
+                int b = offset + j * stride;
+                double t = re[a]; re[a] = re[b]; re[b] = t;
+                t = im[a]; im[a] = im[b]; im[b] = t;
+            }
+
+        }
+
+        // Butterflies:
+        double sign = inverse ? 1 : -1;
+        for (int length = 2; length <= n; length <<= 1) {
+
+            double angle = sign * 2 * Math.PI / length;
+            double wRe = Math.cos(angle);
+            double wIm = Math.sin(angle);
+            int half = length >> 1;
+
+            for (int start = 0; start < n; start += length) {
+
+                double uRe = 1;
+                double uIm = 0;
+
+                for (int k = 0; k < half; k++) {
+
+                    int a = offset + (start + k) * stride;
+                    int b = offset + (start + k + half) * stride;
+
+                    double tRe = re[b] * uRe - im[b] * uIm;
+                    double tIm = re[b] * uIm + im[b] * uRe;
+
+                    re[b] = re[a] - tRe;
+                    im[b] = im[a] - tIm;
+                    re[a] += tRe;
+                    im[a] += tIm;
+
+                    double nextRe = uRe * wRe - uIm * wIm;
+                    uIm = uRe * wIm + uIm * wRe;
+                    uRe = nextRe;
+
+                }
+
+            }
+
+        }
+
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[offset + i * stride] /= n;
+                im[offset + i * stride] /= n;
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          transform2D
+
+    // Description:     Performs an in-place 2D FFT of a size x size grid
+    //                      stored row by row
+
+    // Parameters:      re, im - Real and imaginary parts
+    //                  size - Width and height of the grid (a power of 2)
+    //                  inverse - True for the inverse transform
+
+    // Returns:         Nothing
+
+    // Calls:           transform
+
+    // Globals:         None
+
+    static void transform2D (double[] re, double[] im, int size, boolean inverse) {
+
+        // Rows:
+        for (int row = 0; row < size; row++) {
+            transform(re, im, row * size, 1, size, inverse);
+        }
+
+        // Columns:
+        for (int col = 0; col < size; col++) {
+            transform(re, im, col, size, size, inverse);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          isPowerOfTwo
+
+    // Description:     Checks whether a grid size can be transformed
+
+    // Parameters:      n - The grid size
+
+    // Returns:         True if n is a positive power of 2
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static boolean isPowerOfTwo (int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
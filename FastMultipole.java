@@ -0,0 +1,665 @@
+
+import java.util.Arrays;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           FastMultipole
+// Description:     Fast multipole method force backend with a tunable
+//                      expansion order, running in O(N) per step
+
+//                  The pairwise force is the inverse-square law of a 1/r
+//                      potential, which is not harmonic in the plane, so
+//                      the multipole and local expansions are Cartesian
+//                      Taylor series in (x, y) truncated at total order p
+//                      (complex-variable expansions only represent the
+//                      2D logarithmic potential)
+
+//                  Bodies are binned into a uniform quadtree; leaves hold
+//                      roughly leafSize bodies, near neighbours interact
+//                      directly and everything else through M2L translations
+//                      over the usual interaction lists
+
+//                  Softening is applied to the direct (near-field) part only
+
+class FastMultipole implements ForceSolver {
+
+    // Maximum depth of the quadtree
+    static final int MAX_LEVEL = 8;
+
+    // Expansion order and target number of bodies per leaf
+    int order, leafSize;
+
+    // Number of expansion terms, and the term index of each (i, j)
+    int terms;
+    int[][] termIndex;
+
+    // Exponents of each term
+    int[] termI, termJ;
+
+    // Multipole and local expansions of every cell, by level
+    double[][] multipole, local;
+
+    // Bodies sorted by leaf cell, and the range of each leaf
+    int[] sortedBodies, leafStart;
+
+    // Lower-left corner and side length of the root cell
+    double xOrigin, yOrigin, rootSize;
+
+    // Deepest level of the current tree
+    int levels;
+
+    // Scratch table for the derivatives of 1/r (by order and term)
+    double[][] derivativeTable;
+
+    // Scratch powers used by the translations
+    double[] powersX, powersY;
+
+    // *************************************************************************
+
+    // Method:          FastMultipole
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      p - Expansion order (at least 1)
+    //                  leaf - Target number of bodies per leaf
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         order, leafSize
+    //                  terms, termIndex, termI, termJ
+    //                  derivativeTable
+    //                  powersX, powersY
+
+    FastMultipole (int p, int leaf) {
+
+        if (p < 1) {
+            throw new IllegalArgumentException("Expansion order must be at least 1: " + p);
+        }
+
+        order = p;
+        leafSize = Math.max(1, leaf);
+
+        // Enumerate the terms (i, j) with i + j <= p:
+        terms = (p + 1) * (p + 2) / 2;
+        termIndex = new int[p + 1][p + 1];
+        termI = new int[terms];
+        termJ = new int[terms];
+
+        int t = 0;
+        for (int n = 0; n <= p; n++) {
+            for (int i = n; i >= 0; i--) {
+                termIndex[i][n - i] = t;
+                termI[t] = i;
+                termJ[t] = n - i;
+                t++;
+            }
+        }
+
+        derivativeTable = new double[p + 1][terms];
+
+        powersX = new double[p + 1];
+        powersY = new double[p + 1];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the acceleration of every body in the store
+    //                      with the fast multipole method
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         Nothing
+
+    // Calls:           buildTree
+    //                  upwardPass
+    //                  downwardPass
+    //                  evaluate
+
+    // Globals:         None
+
+    @Override
+    public void computeAccelerations (BodyStore bodies, Simulation simulation) {
+
+        if (bodies.count == 0) {
+            return;
+        }
+
+        buildTree(bodies);
+        upwardPass(bodies);
+        downwardPass();
+        evaluate(bodies, simulation.context.G, simulation.softening);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          buildTree
+
+    // Description:     Sizes the root cell around the bodies, picks the tree
+    //                      depth, and sorts the bodies by leaf cell
+
+    // Parameters:      bodies - The bodies to place in the tree
+
+    // Returns:         Nothing
+
+    // Calls:           leafOf
+
+    // Globals:         xOrigin, yOrigin, rootSize, levels
+    //                  sortedBodies, leafStart
+    //                  multipole, local
+
+    void buildTree (BodyStore bodies) {
+
+        int n = bodies.count;
+
+        // Bounding square of the bodies:
+        double xMin = Double.MAX_VALUE, xMax = -Double.MAX_VALUE;
+        double yMin = Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+        for (int b = 0; b < n; b++) {
+            xMin = Math.min(xMin, bodies.x[b]);
+            xMax = Math.max(xMax, bodies.x[b]);
+            yMin = Math.min(yMin, bodies.y[b]);
+            yMax = Math.max(yMax, bodies.y[b]);
+        }
+
+        rootSize = Math.max(xMax - xMin, yMax - yMin) * 1.0001 + 1E-9;
+        xOrigin = xMin;
+        yOrigin = yMin;
+
+        // Deep enough that leaves hold about leafSize bodies:
+        levels = 2;
+        while (levels < MAX_LEVEL && n > leafSize * (1L << (2 * levels))) {
+            levels++;
+        }
+
+        if (multipole == null || multipole.length != levels + 1) {
+            multipole = new double[levels + 1][];
+            local = new double[levels + 1][];
+        }
+        for (int l = 0; l <= levels; l++) {
+            int cells = 1 << (2 * l);
+            if (multipole[l] == null || multipole[l].length != cells * terms) {
+                multipole[l] = new double[cells * terms];
+                local[l] = new double[cells * terms];
+            } else {
+                Arrays.fill(multipole[l], 0);
+                Arrays.fill(local[l], 0);
+            }
+        }
+
+        // Counting sort of the bodies by leaf:
+        int leaves = 1 << (2 * levels);
+        if (leafStart == null || leafStart.length != leaves + 1) {
+            leafStart = new int[leaves + 1];
+        } else {
+            Arrays.fill(leafStart, 0);
+        }
+        if (sortedBodies == null || sortedBodies.length < n) {
+            sortedBodies = new int[n];
+        }
+
+        for (int b = 0; b < n; b++) {
+            leafStart[leafOf(bodies.x[b], bodies.y[b]) + 1]++;
+        }
+        for (int c = 0; c < leaves; c++) {
+            leafStart[c + 1] += leafStart[c];
+        }
+
+        int[] next = Arrays.copyOf(leafStart, leaves);
+        for (int b = 0; b < n; b++) {
+            sortedBodies[next[leafOf(bodies.x[b], bodies.y[b])]++] = b;
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          upwardPass
+
+    // Description:     Forms the multipole expansion of every leaf from its
+    //                      bodies (P2M), then shifts them up the tree (M2M)
+
+    // Parameters:      bodies - The bodies in the tree
+
+    // Returns:         Nothing
+
+    // Calls:           cellCentre
+    //                  fillPowers
+
+    // Globals:         multipole, levels
+    //                  sortedBodies, leafStart
+
+    void upwardPass (BodyStore bodies) {
+
+        int side = 1 << levels;
+        double[] leafMultipole = multipole[levels];
+
+        // P2M: M(i,j) = sum of m (-dx)^i (-dy)^j / (i! j!)
+        for (int c = 0; c < side * side; c++) {
+
+            double xC = cellCentre(xOrigin, c % side, levels);
+            double yC = cellCentre(yOrigin, c / side, levels);
+            int base = c * terms;
+
+            for (int k = leafStart[c]; k < leafStart[c + 1]; k++) {
+
+                int b = sortedBodies[k];
+                fillPowers(xC - bodies.x[b], yC - bodies.y[b]);
+
+                for (int t = 0; t < terms; t++) {
+                    leafMultipole[base + t] += bodies.mass[b] * powersX[termI[t]] * powersY[termJ[t]];
+                }
+
+            }
+
+        }
+
+        // M2M: shift each child's expansion to its parent's centre
+        for (int l = levels; l > 0; l--) {
+
+            int childSide = 1 << l;
+            double[] child = multipole[l];
+            double[] parent = multipole[l - 1];
+
+            for (int c = 0; c < childSide * childSide; c++) {
+
+                int cI = c % childSide;
+                int cJ = c / childSide;
+                int childBase = c * terms;
+
+                if (child[childBase] == 0) {
+                    continue;
+                }
+
+                int p = (cJ / 2) * (childSide / 2) + (cI / 2);
+                int parentBase = p * terms;
+
+                // (-d) where d is the child centre relative to the parent:
+                double dX = cellCentre(xOrigin, cI / 2, l - 1) - cellCentre(xOrigin, cI, l);
+                double dY = cellCentre(yOrigin, cJ / 2, l - 1) - cellCentre(yOrigin, cJ, l);
+                fillPowers(dX, dY);
+
+                for (int t = 0; t < terms; t++) {
+                    int i = termI[t];
+                    int j = termJ[t];
+                    double sum = 0;
+                    for (int a = 0; a <= i; a++) {
+                        for (int b = 0; b <= j; b++) {
+                            sum += child[childBase + termIndex[a][b]] * powersX[i - a] * powersY[j - b];
+                        }
+                    }
+                    parent[parentBase + t] += sum;
+                }
+
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          downwardPass
+
+    // Description:     Converts the multipoles of every cell's interaction
+    //                      list into its local expansion (M2L), and shifts
+    //                      local expansions down to the children (L2L)
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           cellCentre
+    //                  fillDerivatives
+    //                  fillPowers
+
+    // Globals:         multipole, local, levels
+
+    void downwardPass() {
+
+        for (int l = 2; l <= levels; l++) {
+
+            int side = 1 << l;
+            double[] sourceMultipole = multipole[l];
+            double[] targetLocal = local[l];
+            double[] parentLocal = local[l - 1];
+
+            for (int c = 0; c < side * side; c++) {
+
+                int cI = c % side;
+                int cJ = c / side;
+                int base = c * terms;
+
+                double xC = cellCentre(xOrigin, cI, l);
+                double yC = cellCentre(yOrigin, cJ, l);
+
+                // L2L from the parent (levels below 2 have no local terms):
+                if (l > 2) {
+
+                    int parentBase = ((cJ / 2) * (side / 2) + (cI / 2)) * terms;
+                    fillPowers(xC - cellCentre(xOrigin, cI / 2, l - 1), yC - cellCentre(yOrigin, cJ / 2, l - 1));
+
+                    for (int t = 0; t < terms; t++) {
+                        int i = termI[t];
+                        int j = termJ[t];
+                        double sum = 0;
+                        for (int a = i; a <= order - j; a++) {
+                            for (int b = j; a + b <= order; b++) {
+                                sum += parentLocal[parentBase + termIndex[a][b]] * powersX[a - i] * powersY[b - j];
+                            }
+                        }
+                        targetLocal[base + t] += sum;
+                    }
+
+                }
+
+                // M2L over the children of the parent's neighbours that are
+                // not themselves neighbours of this cell:
+                int pI = cI / 2;
+                int pJ = cJ / 2;
+
+                for (int sJ = 2 * pJ - 2; sJ <= 2 * pJ + 3; sJ++) {
+                    for (int sI = 2 * pI - 2; sI <= 2 * pI + 3; sI++) {
+
+                        if (sI < 0 || sJ < 0 || sI >= side || sJ >= side) {
+                            continue;
+                        }
+                        if (Math.abs(sI - cI) <= 1 && Math.abs(sJ - cJ) <= 1) {
+                            continue;
+                        }
+
+                        int sourceBase = (sJ * side + sI) * terms;
+                        if (sourceMultipole[sourceBase] == 0) {
+                            continue;
+                        }
+
+                        fillDerivatives(xC - cellCentre(xOrigin, sI, l), yC - cellCentre(yOrigin, sJ, l));
+                        double[] derivatives = derivativeTable[0];
+
+                        for (int t = 0; t < terms; t++) {
+                            int i = termI[t];
+                            int j = termJ[t];
+                            double sum = 0;
+                            for (int s = 0; s < terms; s++) {
+                                int a = termI[s];
+                                int b = termJ[s];
+                                if (i + j + a + b > order) {
+                                    break;
+                                }
+                                sum += sourceMultipole[sourceBase + s] * derivatives[termIndex[i + a][j + b]];
+                            }
+                            targetLocal[base + t] += sum;
+                        }
+
+                    }
+                }
+
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          evaluate
+
+    // Description:     Evaluates each leaf's local expansion at its bodies
+    //                      (L2P) for the acceleration and potential, and adds
+    //                      the direct interactions with the bodies in the
+    //                      leaf and its 8 neighbours (P2P)
+
+    // Parameters:      bodies - The bodies in the tree
+    //                  g - The gravitational constant
+    //                  softening - The Plummer softening length
+
+    // Returns:         Nothing
+
+    // Calls:           cellCentre
+    //                  fillPowers
+
+    // Globals:         local, levels
+    //                  sortedBodies, leafStart
+
+    void evaluate (BodyStore bodies, double g, double softening) {
+
+        int side = 1 << levels;
+        double[] leafLocal = local[levels];
+        double softeningSquared = softening * softening;
+
+        for (int c = 0; c < side * side; c++) {
+
+            int cI = c % side;
+            int cJ = c / side;
+            int base = c * terms;
+
+            double xC = cellCentre(xOrigin, cI, levels);
+            double yC = cellCentre(yOrigin, cJ, levels);
+
+            for (int k = leafStart[c]; k < leafStart[c + 1]; k++) {
+
+                int b = sortedBodies[k];
+                double x1 = bodies.x[b];
+                double y1 = bodies.y[b];
+
+                // L2P: the local expansion and its gradient
+                fillPowers(x1 - xC, y1 - yC);
+
+                double aX = 0;
+                double aY = 0;
+                double phi = 0;
+
+                for (int t = 0; t < terms; t++) {
+                    int i = termI[t];
+                    int j = termJ[t];
+                    double monomial = powersX[i] * powersY[j];
+                    phi += leafLocal[base + t] * monomial;
+                    if (i + j == order) {
+                        continue;
+                    }
+                    aX += leafLocal[base + termIndex[i + 1][j]] * monomial;
+                    aY += leafLocal[base + termIndex[i][j + 1]] * monomial;
+                }
+
+                aX *= g;
+                aY *= g;
+                phi *= -g;
+
+                // P2P with the leaf and its neighbours:
+                for (int nJ = Math.max(0, cJ - 1); nJ <= Math.min(side - 1, cJ + 1); nJ++) {
+                    for (int nI = Math.max(0, cI - 1); nI <= Math.min(side - 1, cI + 1); nI++) {
+
+                        int n = nJ * side + nI;
+
+                        for (int q = leafStart[n]; q < leafStart[n + 1]; q++) {
+
+                            int o = sortedBodies[q];
+                            double dX = bodies.x[o] - x1;
+                            double dY = bodies.y[o] - y1;
+                            double rSquared = dX * dX + dY * dY;
+
+                            if (rSquared == 0) {
+                                continue;
+                            }
+
+                            double softened = rSquared + softeningSquared;
+                            double factor = (g * bodies.mass[o]) / (softened * Math.sqrt(softened));
+
+                            aX += factor * dX;
+                            aY += factor * dY;
+                            phi -= factor * softened;
+
+                        }
+
+                    }
+                }
+
+                bodies.aX[b] = aX;
+                bodies.aY[b] = aY;
+                bodies.potential[b] = phi;
+
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          fillDerivatives
+
+    // Description:     Fills derivativeTable[0] with the derivatives
+    //                      d^(i+j)/dx^i dy^j (1/r) at (x, y), using the
+    //                      McMurchie-Davidson recurrence
+
+    // Parameters:      x, y - The separation of the two cell centres
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         derivativeTable, order, termIndex
+
+    void fillDerivatives (double x, double y) {
+
+        double rSquared = x * x + y * y;
+        double inverseR = 1 / Math.sqrt(rSquared);
+        double inverseRSquared = inverseR * inverseR;
+
+        // R(n; 0, 0) = (-1)^n (2n - 1)!! / r^(2n + 1)
+        double value = inverseR;
+        for (int n = 0; n <= order; n++) {
+            derivativeTable[n][0] = value;
+            value *= -(2 * n + 1) * inverseRSquared;
+        }
+
+        // R(n; i, j) from R(n + 1; ...), working up in total order:
+        for (int m = 1; m <= order; m++) {
+            for (int n = order - m; n >= 0; n--) {
+                double[] current = derivativeTable[n];
+                double[] above = derivativeTable[n + 1];
+                for (int i = m; i >= 0; i--) {
+                    int j = m - i;
+                    double result;
+                    if (i > 0) {
+                        result = x * above[termIndex[i - 1][j]];
+                        if (i > 1) {
+                            result += (i - 1) * above[termIndex[i - 2][j]];
+                        }
+                    } else {
+                        result = y * above[termIndex[i][j - 1]];
+                        if (j > 1) {
+                            result += (j - 1) * above[termIndex[i][j - 2]];
+                        }
+                    }
+                    current[termIndex[i][j]] = result;
+                }
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          fillPowers
+
+    // Description:     Fills powersX and powersY with x^n / n! and y^n / n!
+
+    // Parameters:      x, y - The values to raise
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         powersX, powersY, order
+
+    void fillPowers (double x, double y) {
+
+        powersX[0] = 1;
+        powersY[0] = 1;
+
+        for (int n = 1; n <= order; n++) {
+            powersX[n] = powersX[n - 1] * x / n;
+            powersY[n] = powersY[n - 1] * y / n;
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          leafOf
+
+    // Description:     Returns the index of the leaf cell holding a point
+
+    // Parameters:      x, y - The point
+
+    // Returns:         The leaf cell index
+
+    // Calls:           Nothing
+
+    // Globals:         xOrigin, yOrigin, rootSize, levels
+
+    int leafOf (double x, double y) {
+
+        int side = 1 << levels;
+
+        int i = (int) ((x - xOrigin) / rootSize * side);
+        int j = (int) ((y - yOrigin) / rootSize * side);
+
+        i = Math.min(side - 1, Math.max(0, i));
+        j = Math.min(side - 1, Math.max(0, j));
+
+        return j * side + i;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          cellCentre
+
+    // Description:     Returns the centre coordinate of a cell along one axis
+
+    // Parameters:      origin - The root cell's lower coordinate on the axis
+    //                  index - The cell index along the axis
+    //                  level - The level of the cell
+
+    // Returns:         The centre coordinate
+
+    // Calls:           Nothing
+
+    // Globals:         rootSize
+
+    double cellCentre (double origin, int index, int level) {
+        return origin + (index + 0.5) * rootSize / (1 << level);
+    }
+
+    // *************************************************************************
+
+    // Method:          getName
+
+    // Description:     Returns a short description of the backend for menus
+
+    // Parameters:      None
+
+    // Returns:         The name of the backend
+
+    // Calls:           Nothing
+    // Globals:         order
+
+    @Override
+    public String getName() {
+        return "Fast multipole (order " + order + ")";
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,142 @@
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           ForceComparison
+// Description:     Validates an approximate force backend against direct
+//                      summation on the same set of bodies
+
+class ForceComparison {
+
+    // Largest number of bodies the O(n^2) reference is run for
+    static final int MAX_REFERENCE_BODIES = 20000;
+
+    // Relative error per body (after compare is called)
+    double rmsError, maxError;
+
+    // Time taken by each backend, in milliseconds
+    double referenceTime, solverTime;
+
+    // *************************************************************************
+
+    // Method:          compare
+
+    // Description:     Runs the backend and direct summation on copies of
+    //                      the bodies and records the relative acceleration
+    //                      error |a - a_ref| / |a_ref| of the backend
+
+    // Parameters:      bodies - The bodies to compare on
+    //                  solver - The backend being validated
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         Nothing
+
+    // Calls:           DirectSumSolver
+    //                  copyOf
+
+    // Globals:         rmsError, maxError
+    //                  referenceTime, solverTime
+
+    void compare (BodyStore bodies, ForceSolver solver, Simulation simulation) {
+
+        BodyStore reference = copyOf(bodies);
+        BodyStore approximate = copyOf(bodies);
+
+        long start = System.nanoTime();
+        new DirectSumSolver().computeAccelerations(reference, simulation);
+        referenceTime = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        solver.computeAccelerations(approximate, simulation);
+        solverTime = (System.nanoTime() - start) / 1e6;
+
+        double sumSquared = 0;
+        maxError = 0;
+        int counted = 0;
+
+        for (int i = 0; i < bodies.count; i++) {
+
+            double magnitude = Vector.computeVectorMagnitude(reference.aX[i], reference.aY[i]);
+            if (magnitude == 0) {
+                continue;
+            }
+
+            double error = Vector.computeDistance(reference.aX[i], reference.aY[i], approximate.aX[i], approximate.aY[i]) / magnitude;
+
+            sumSquared += error * error;
+            maxError = Math.max(maxError, error);
+            counted++;
+
+        }
+
+        rmsError = (counted == 0) ? 0 : Math.sqrt(sumSquared / counted);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          report
+
+    // Description:     Compares the backend against direct summation and
+    //                      prints the result (skipped for large runs)
+
+    // Parameters:      bodies - The bodies to compare on
+    //                  solver - The backend being validated
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         Nothing
+
+    // Calls:           compare
+
+    // Globals:         rmsError, maxError
+    //                  referenceTime, solverTime
+
+    static void report (BodyStore bodies, ForceSolver solver, Simulation simulation) {
+
+        if (bodies.count > MAX_REFERENCE_BODIES) {
+            System.out.println("\nToo many entities to validate against direct summation (limit " + MAX_REFERENCE_BODIES + ").");
+            return;
+        }
+
+        ForceComparison c = new ForceComparison();
+        c.compare(bodies, solver, simulation);
+
+        System.out.println("\n" + solver.getName() + " vs direct summation (" + bodies.count + " entities):");
+        System.out.printf("RMS relative error %.3e, max relative error %.3e\n", c.rmsError, c.maxError);
+        System.out.printf("Backend %.2f ms, direct summation %.2f ms\n", c.solverTime, c.referenceTime);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          copyOf
+
+    // Description:     Makes an independent copy of a body store
+
+    // Parameters:      bodies - The store to copy
+
+    // Returns:         The copy
+
+    // Calls:           BodyStore
+
+    // Globals:         None
+
+    static BodyStore copyOf (BodyStore bodies) {
+
+        BodyStore copy = new BodyStore(bodies.count);
+
+        for (int i = 0; i < bodies.count; i++) {
+            copy.add(bodies.radius[i], bodies.x[i], bodies.y[i], bodies.vX[i], bodies.vY[i]);
+            copy.mass[i] = bodies.mass[i];
+        }
+
+        return copy;
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
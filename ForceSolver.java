@@ -0,0 +1,43 @@
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Interface:       ForceSolver
+// Description:     A force backend that computes the accelerations of all
+//                      bodies in a store at once, in place of the pairwise
+//                      loop in Entity.updateAcceleration
+
+interface ForceSolver {
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the acceleration of every body in the store
+    //                      and writes it into the store's aX and aY arrays
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         Nothing
+
+    void computeAccelerations (BodyStore bodies, Simulation simulation);
+
+    // *************************************************************************
+
+    // Method:          getName
+
+    // Description:     Returns a short description of the backend for menus
+
+    // Parameters:      None
+
+    // Returns:         The name of the backend
+
+    String getName();
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,34 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           FrameEvent
+// Description:     Flight Recorder event spanning the drawing of one frame
+//                      in Simulation.updateDisplay (not the graphics delay)
+
+//                  Enabled by default; can be switched off on its own with
+//                      the recording setting GravitySimulator.Frame#enabled
+
+@Name("GravitySimulator.Frame")
+@Label("Display Frame")
+@Category("Gravity Simulator")
+@Description("One frame drawn to the display window")
+class FrameEvent extends jdk.jfr.Event {
+
+    @Label("Entities")
+    @Description("Number of entities drawn")
+    int entities;
+
+    @Label("First Frame")
+    @Description("Whether the window was opened by this frame")
+    boolean firstFrame;
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
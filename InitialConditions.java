@@ -0,0 +1,506 @@
+
+import java.util.SplittableRandom;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           InitialConditions
+// Description:     Generators for large-N galaxy workloads, written straight
+//                      into a body store (through the seeded block streams
+//                      of RandomGenerator, so a seed always gives the same
+//                      bodies)
+
+//                  Every body has the same radius, so a component's total
+//                      mass is n * PI * r^2 (mass follows radius, as in
+//                      Entity)
+
+//                  disc    - exponential surface density, on circular orbits
+//                              from Freeman's analytic rotation curve, with an
+//                              optional random velocity dispersion
+//                  plummer - Plummer sphere sampled in 3D (Aarseth, Henon and
+//                              Wielen) and projected onto the plane
+//                  pair    - two discs approaching on a parabolic orbit
+
+class InitialConditions {
+
+    // Discs are truncated at this many scale lengths
+    static final double DISC_TRUNCATION = 10;
+
+    // Plummer spheres are truncated at this many scale radii
+    static final double PLUMMER_TRUNCATION = 20;
+
+    // *************************************************************************
+
+    // Method:          preset
+
+    // Description:     Generates one of the named workloads used by the
+    //                      benchmarks and ensembles
+
+    //                  random - the defaults of the random setup in
+    //                              addBodies (radii 5-25 in a 600 x 600 box),
+    //                              dense enough for heavy merging
+    //                  sparse - small radii spread over a box that grows
+    //                              with n, so collisions stay rare
+    //                  disc, plummer, pair - the generators below, scaled
+    //                              with n to keep the surface density fixed
+
+    // Parameters:      name - The workload
+    //                  n - Number of bodies
+    //                  seed - The seed
+    //                  g - The gravitational constant
+
+    // Returns:         A store holding the bodies
+
+    // Calls:           RandomGenerator
+    //                  presetSampler
+
+    // Globals:         None
+
+    static BodyStore preset (String name, int n, long seed, double g) {
+        return RandomGenerator.generateBodies(n, seed, presetSampler(name, n, g));
+    }
+
+    // *************************************************************************
+
+    // Method:          presetSampler
+
+    // Description:     Returns the sampler behind one of the named
+    //                      workloads, so a share of its bodies can be
+    //                      generated on its own (see preset)
+
+    // Parameters:      name - The workload
+    //                  n - Number of bodies in the whole workload
+    //                  g - The gravitational constant
+
+    // Returns:         The sampler
+
+    // Calls:           RandomGenerator
+    //                  discSampler, plummerSampler, pairSampler
+
+    // Globals:         None
+
+    static RandomGenerator.BodySampler presetSampler (String name, int n, double g) {
+
+        switch (name) {
+            case "random":
+                return RandomGenerator.uniformSampler(5, 25, -300, 300, -300, 300, -10, 10, -1);
+            case "sparse":
+                double extent = 300 * Math.sqrt(n / 100.0);
+                return RandomGenerator.uniformSampler(0.5, 2, -extent, extent, -extent, extent, -10, 10, -1);
+            case "disc":
+                return discSampler(n, g, 0.5, 60 * Math.sqrt(n / 10000.0), 0.1, 0, 0, 0, 0, false);
+            case "plummer":
+                return plummerSampler(n, g, 0.5, 60 * Math.sqrt(n / 10000.0), 0, 0, 0, 0);
+            case "pair":
+                double scale = 40 * Math.sqrt(n / 10000.0);
+                return pairSampler(n, g, 0.5, scale, 0.1, 10 * scale, 2 * scale, false);
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + name);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          exponentialDisc
+
+    // Description:     Generates a rotating exponential disc
+
+    // Parameters:      n - Number of bodies
+    //                  seed - The seed
+    //                  g - The gravitational constant
+    //                  bodyRadius - Radius of every body
+    //                  scaleLength - Exponential scale length of the disc
+    //                  dispersion - Random velocity, as a fraction of the
+    //                      circular velocity
+    //                  xC, yC - Centre of the disc
+    //                  vXC, vYC - Velocity of the centre
+    //                  clockwise - Sense of rotation
+
+    // Returns:         A store holding the bodies
+
+    // Calls:           RandomGenerator
+    //                  discSampler
+
+    // Globals:         None
+
+    static BodyStore exponentialDisc (int n, long seed, double g, double bodyRadius, double scaleLength, double dispersion,
+                                      double xC, double yC, double vXC, double vYC, boolean clockwise) {
+
+        return RandomGenerator.generateBodies(n, seed,
+                discSampler(n, g, bodyRadius, scaleLength, dispersion, xC, yC, vXC, vYC, clockwise));
+
+    }
+
+    // *************************************************************************
+
+    // Method:          discSampler
+
+    // Description:     Returns the sampler behind exponentialDisc
+
+    // Parameters:      As exponentialDisc (without the seed)
+
+    // Returns:         The sampler
+
+    // Calls:           sampleDisc
+
+    // Globals:         None
+
+    static RandomGenerator.BodySampler discSampler (int n, double g, double bodyRadius, double scaleLength, double dispersion,
+                                                    double xC, double yC, double vXC, double vYC, boolean clockwise) {
+
+        double mass = n * Math.PI * bodyRadius * bodyRadius;
+
+        return (random, bodies, slot, i) ->
+                sampleDisc(random, bodies, slot, g, bodyRadius, mass, scaleLength, dispersion, xC, yC, vXC, vYC, clockwise);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          plummerSphere
+
+    // Description:     Generates a Plummer sphere in equilibrium (in 3D),
+    //                      projected onto the plane
+
+    // Parameters:      n - Number of bodies
+    //                  seed - The seed
+    //                  g - The gravitational constant
+    //                  bodyRadius - Radius of every body
+    //                  scaleRadius - Plummer scale radius
+    //                  xC, yC - Centre of the sphere
+    //                  vXC, vYC - Velocity of the centre
+
+    // Returns:         A store holding the bodies
+
+    // Calls:           RandomGenerator
+    //                  plummerSampler
+
+    // Globals:         None
+
+    static BodyStore plummerSphere (int n, long seed, double g, double bodyRadius, double scaleRadius,
+                                    double xC, double yC, double vXC, double vYC) {
+
+        return RandomGenerator.generateBodies(n, seed, plummerSampler(n, g, bodyRadius, scaleRadius, xC, yC, vXC, vYC));
+
+    }
+
+    // *************************************************************************
+
+    // Method:          plummerSampler
+
+    // Description:     Returns the sampler behind plummerSphere
+
+    // Parameters:      As plummerSphere (without the seed)
+
+    // Returns:         The sampler
+
+    // Calls:           samplePlummer
+
+    // Globals:         None
+
+    static RandomGenerator.BodySampler plummerSampler (int n, double g, double bodyRadius, double scaleRadius,
+                                                       double xC, double yC, double vXC, double vYC) {
+
+        double mass = n * Math.PI * bodyRadius * bodyRadius;
+
+        return (random, bodies, slot, i) ->
+                samplePlummer(random, bodies, slot, g, bodyRadius, mass, scaleRadius, xC, yC, vXC, vYC);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          galaxyPair
+
+    // Description:     Generates two equal exponential discs, centred on
+    //                      the origin, falling together on a parabolic orbit
+
+    // Parameters:      n - Total number of bodies (split evenly)
+    //                  seed - The seed
+    //                  g - The gravitational constant
+    //                  bodyRadius - Radius of every body
+    //                  scaleLength - Scale length of each disc
+    //                  dispersion - Random velocity, as a fraction of the
+    //                      circular velocity
+    //                  separation - Starting distance between the centres
+    //                  impactParameter - Offset across the line of approach
+    //                  retrograde - Spin the second disc against the orbit
+
+    // Returns:         A store holding the bodies
+
+    // Calls:           RandomGenerator
+    //                  pairSampler
+
+    // Globals:         None
+
+    static BodyStore galaxyPair (int n, long seed, double g, double bodyRadius, double scaleLength, double dispersion,
+                                 double separation, double impactParameter, boolean retrograde) {
+
+        return RandomGenerator.generateBodies(n, seed,
+                pairSampler(n, g, bodyRadius, scaleLength, dispersion, separation, impactParameter, retrograde));
+
+    }
+
+    // *************************************************************************
+
+    // Method:          pairSampler
+
+    // Description:     Returns the sampler behind galaxyPair (bodies below
+    //                      n / 2 belong to the first disc)
+
+    // Parameters:      As galaxyPair (without the seed)
+
+    // Returns:         The sampler
+
+    // Calls:           sampleDisc
+
+    // Globals:         None
+
+    static RandomGenerator.BodySampler pairSampler (int n, double g, double bodyRadius, double scaleLength, double dispersion,
+                                                    double separation, double impactParameter, boolean retrograde) {
+
+        int first = n / 2;
+        double mass = first * Math.PI * bodyRadius * bodyRadius;
+
+        // Relative speed of a parabolic orbit at the starting separation,
+        // shared between the two (equal) discs:
+        double distance = Math.sqrt(separation * separation + impactParameter * impactParameter);
+        double speed = 0.5 * Math.sqrt(2 * g * 2 * mass / distance);
+
+        return (random, bodies, slot, i) -> {
+            if (i < first) {
+                sampleDisc(random, bodies, slot, g, bodyRadius, mass, scaleLength, dispersion,
+                        -separation / 2, -impactParameter / 2, +speed, 0, false);
+            } else {
+                sampleDisc(random, bodies, slot, g, bodyRadius, mass, scaleLength, dispersion,
+                        +separation / 2, +impactParameter / 2, -speed, 0, retrograde);
+            }
+        };
+
+    }
+
+    // *************************************************************************
+
+    // Method:          sampleDisc
+
+    // Description:     Generates one body of an exponential disc
+
+    // Parameters:      random - The stream to draw from
+    //                  bodies - The store to write to
+    //                  i - Slot to write the body into
+    //                  g - The gravitational constant
+    //                  bodyRadius - Radius of the body
+    //                  mass - Total mass of the disc
+    //                  scaleLength - Exponential scale length of the disc
+    //                  dispersion - Random velocity, as a fraction of the
+    //                      circular velocity
+    //                  xC, yC - Centre of the disc
+    //                  vXC, vYC - Velocity of the centre
+    //                  clockwise - Sense of rotation
+
+    // Returns:         Nothing
+
+    // Calls:           RandomGenerator
+    //                  discCircularVelocity
+
+    // Globals:         None
+
+    static void sampleDisc (SplittableRandom random, BodyStore bodies, int i, double g, double bodyRadius, double mass,
+                            double scaleLength, double dispersion, double xC, double yC,
+                            double vXC, double vYC, boolean clockwise) {
+
+        // The enclosed mass of an exponential disc follows a Gamma(2)
+        // distribution in R / scaleLength:
+        double radius;
+        do {
+            radius = -scaleLength * Math.log((1 - random.nextDouble()) * (1 - random.nextDouble()));
+        } while (radius > DISC_TRUNCATION * scaleLength);
+
+        double angle = 2 * Math.PI * random.nextDouble();
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+
+        double v = discCircularVelocity(radius, g, mass, scaleLength);
+        double sense = clockwise ? -1 : 1;
+
+        bodies.x[i] = xC + radius * cos;
+        bodies.y[i] = yC + radius * sin;
+        bodies.vX[i] = vXC - sense * v * sin + dispersion * v * RandomGenerator.gaussian(random);
+        bodies.vY[i] = vYC + sense * v * cos + dispersion * v * RandomGenerator.gaussian(random);
+        bodies.radius[i] = bodyRadius;
+        bodies.mass[i] = Math.PI * bodyRadius * bodyRadius;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          samplePlummer
+
+    // Description:     Generates one body of a Plummer sphere
+
+    // Parameters:      random - The stream to draw from
+    //                  bodies - The store to write to
+    //                  i - Slot to write the body into
+    //                  g - The gravitational constant
+    //                  bodyRadius - Radius of the body
+    //                  mass - Total mass of the sphere
+    //                  scaleRadius - Plummer scale radius
+    //                  xC, yC - Centre of the sphere
+    //                  vXC, vYC - Velocity of the centre
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    static void samplePlummer (SplittableRandom random, BodyStore bodies, int i, double g, double bodyRadius, double mass,
+                               double scaleRadius, double xC, double yC, double vXC, double vYC) {
+
+        // Radius from the inverted cumulative mass:
+        double r;
+        do {
+            r = scaleRadius / Math.sqrt(Math.pow(random.nextDouble(), -2.0 / 3) - 1);
+        } while (r > PLUMMER_TRUNCATION * scaleRadius);
+
+        // Speed as a fraction q of the escape speed, by rejection from
+        // g(q) = q^2 (1 - q^2)^(7/2):
+        double q;
+        do {
+            q = random.nextDouble();
+        } while (0.1 * random.nextDouble() > q * q * Math.pow(1 - q * q, 3.5));
+
+        double escape = Math.sqrt(2 * g * mass) * Math.pow(r * r + scaleRadius * scaleRadius, -0.25);
+        double speed = q * escape;
+
+        // Isotropic directions in 3D, keeping only the x and y parts:
+        double z = 2 * random.nextDouble() - 1;
+        double phi = 2 * Math.PI * random.nextDouble();
+        double planar = Math.sqrt(1 - z * z);
+
+        bodies.x[i] = xC + r * planar * Math.cos(phi);
+        bodies.y[i] = yC + r * planar * Math.sin(phi);
+
+        z = 2 * random.nextDouble() - 1;
+        phi = 2 * Math.PI * random.nextDouble();
+        planar = Math.sqrt(1 - z * z);
+
+        bodies.vX[i] = vXC + speed * planar * Math.cos(phi);
+        bodies.vY[i] = vYC + speed * planar * Math.sin(phi);
+        bodies.radius[i] = bodyRadius;
+        bodies.mass[i] = Math.PI * bodyRadius * bodyRadius;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          discCircularVelocity
+
+    // Description:     Computes the circular velocity of a razor-thin
+    //                      exponential disc (Freeman 1970):
+    //                      v^2 = 4 PI G S0 h y^2 [I0(y) K0(y) - I1(y) K1(y)],
+    //                      y = R / 2h, S0 = M / (2 PI h^2)
+
+    // Parameters:      radius - Distance from the centre
+    //                  g - The gravitational constant
+    //                  mass - Total mass of the disc
+    //                  scaleLength - Exponential scale length h
+
+    // Returns:         The circular velocity
+
+    // Calls:           besselI0, besselI1, besselK0, besselK1
+
+    // Globals:         None
+
+    static double discCircularVelocity (double radius, double g, double mass, double scaleLength) {
+
+        if (radius == 0) {
+            return 0;
+        }
+
+        double y = radius / (2 * scaleLength);
+        double centralDensity = mass / (2 * Math.PI * scaleLength * scaleLength);
+
+        double bessel = besselI0(y) * besselK0(y) - besselI1(y) * besselK1(y);
+        double vSquared = 4 * Math.PI * g * centralDensity * scaleLength * y * y * bessel;
+
+        return Math.sqrt(Math.max(0, vSquared));
+
+    }
+
+    // *************************************************************************
+
+    // Method:          besselI0, besselI1, besselK0, besselK1
+
+    // Description:     Modified Bessel functions of order 0 and 1
+    //                      (polynomial approximations from Abramowitz and
+    //                      Stegun 9.8.1 - 9.8.8, relative error < 2E-7)
+
+    // Parameters:      x - The argument (positive)
+
+    // Returns:         The value of the function
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static double besselI0 (double x) {
+
+        if (x <= 3.75) {
+            double t = (x / 3.75) * (x / 3.75);
+            return 1 + t * (3.5156229 + t * (3.0899424 + t * (1.2067492 + t * (0.2659732 + t * (0.0360768 + t * 0.0045813)))));
+        }
+
+        double t = 3.75 / x;
+        return (Math.exp(x) / Math.sqrt(x)) * (0.39894228 + t * (0.01328592 + t * (0.00225319 + t * (-0.00157565
+                + t * (0.00916281 + t * (-0.02057706 + t * (0.02635537 + t * (-0.01647633 + t * 0.00392377))))))));
+
+    }
+
+    static double besselI1 (double x) {
+
+        if (x <= 3.75) {
+            double t = (x / 3.75) * (x / 3.75);
+            return x * (0.5 + t * (0.87890594 + t * (0.51498869 + t * (0.15084934 + t * (0.02658733 + t * (0.00301532 + t * 0.00032411))))));
+        }
+
+        double t = 3.75 / x;
+        return (Math.exp(x) / Math.sqrt(x)) * (0.39894228 + t * (-0.03988024 + t * (-0.00362018 + t * (0.00163801
+                + t * (-0.01031555 + t * (0.02282967 + t * (-0.02895312 + t * (0.01787654 + t * -0.00420059))))))));
+
+    }
+
+    static double besselK0 (double x) {
+
+        if (x <= 2) {
+            double t = (x / 2) * (x / 2);
+            return -Math.log(x / 2) * besselI0(x) + (-0.57721566 + t * (0.42278420 + t * (0.23069756 + t * (0.03488590
+                    + t * (0.00262698 + t * (0.00010750 + t * 0.00000740))))));
+        }
+
+        double t = 2 / x;
+        return (Math.exp(-x) / Math.sqrt(x)) * (1.25331414 + t * (-0.07832358 + t * (0.02189568 + t * (-0.01062446
+                + t * (0.00587872 + t * (-0.00251540 + t * 0.00053208))))));
+
+    }
+
+    static double besselK1 (double x) {
+
+        if (x <= 2) {
+            double t = (x / 2) * (x / 2);
+            return Math.log(x / 2) * besselI1(x) + (1 / x) * (1 + t * (0.15443144 + t * (-0.67278579 + t * (-0.18156897
+                    + t * (-0.01919402 + t * (-0.00110404 + t * -0.00004686))))));
+        }
+
+        double t = 2 / x;
+        return (Math.exp(-x) / Math.sqrt(x)) * (1.25331414 + t * (0.23498619 + t * (-0.03655620 + t * (0.01504268
+                + t * (-0.00780353 + t * (0.00325614 + t * -0.00068245))))));
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
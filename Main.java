@@ -22,9 +22,6 @@
 
 class Main {
     
-    static KeyboardInputClass kb;
-    static Simulation s;
-    
     // *************************************************************************
     
     // Method:          main
@@ -37,19 +34,19 @@ class Main {
     
     // Calls:           KeyboardInputClass, Simulation
     
-    // Globals:         kb, s
+    // Globals:         None
 
     public static void main(String[] args) {
         
         System.out.println("\n\nGravity Simulator: by Connor Sullivan\n");
         
-        kb = new KeyboardInputClass();
+        KeyboardInputClass kb = new KeyboardInputClass();
         
         while (true) {
             
             if (kb.getInteger(true, 1, 0, 1, "\nPress ENTER to launch new simulation (0 to exit program):") == 1) {
                 
-                s = new Simulation();
+                Simulation s = new Simulation();
                 
                 s.addBodies();
                 s.simulationMenu();
@@ -0,0 +1,42 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           MergeEvent
+// Description:     Flight Recorder event spanning one
+//                      Simulation.processCollisions call
+
+//                  Enabled by default; can be switched off on its own with
+//                      the recording setting GravitySimulator.Merge#enabled
+
+@Name("GravitySimulator.Merge")
+@Label("Collision Merge")
+@Category("Gravity Simulator")
+@Description("Colliding entities combined during a step")
+class MergeEvent extends jdk.jfr.Event {
+
+    @Label("Collisions")
+    @Description("Collision events processed")
+    int collisions;
+
+    @Label("Merges")
+    @Description("New entities created")
+    int merges;
+
+    @Label("Entities Merged")
+    @Description("Entities consumed by the merges")
+    int entitiesMerged;
+
+    @Label("Largest Cluster")
+    @Description("Most entities combined into a single new entity")
+    int largestCluster;
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,208 @@
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           NeighbourList
+// Description:     Object class, representing the short-range neighbour lists
+//                      used when the simulation runs with a force cutoff
+
+class NeighbourList {
+
+    // Fraction of the cutoff radius added as a skin around each list
+    static final double SKIN_FRACTION = 0.2;
+
+    // Cutoff radius the lists were last built for
+    double cutoffRadius;
+
+    // Number of iterations between list rebuilds
+    int rebuildInterval;
+
+    // Iterations remaining until the next rebuild
+    int stepsUntilRebuild = 0;
+
+    // *************************************************************************
+
+    // Method:          NeighbourList
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      cutoff - The cutoff radius of the force
+    //                  interval - Number of iterations between rebuilds
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         cutoffRadius, rebuildInterval
+
+    NeighbourList (double cutoff, int interval) {
+
+        cutoffRadius = cutoff;
+        rebuildInterval = Math.max(1, interval);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          update
+
+    // Description:     Rebuilds the neighbour lists of all entities if the
+    //                      rebuild interval has elapsed (or a rebuild was
+    //                      requested), otherwise counts down the interval
+
+    // Parameters:      entities - All entities in the simulation
+
+    // Returns:         Nothing
+
+    // Calls:           build
+
+    // Globals:         stepsUntilRebuild, rebuildInterval
+
+    void update (List<Entity> entities) {
+
+        if (stepsUntilRebuild <= 0) {
+            build(entities);
+            stepsUntilRebuild = rebuildInterval;
+        }
+
+        stepsUntilRebuild--;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          invalidate
+
+    // Description:     Forces a rebuild on the next update (for example after
+    //                      entities have been added, removed or merged)
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         stepsUntilRebuild
+
+    void invalidate() {
+        stepsUntilRebuild = 0;
+    }
+
+    // *************************************************************************
+
+    // Method:          build
+
+    // Description:     Bins the entities into a uniform grid of cells one
+    //                      list radius wide, then collects each entity's
+    //                      neighbours from its own and the 8 adjacent cells
+
+    // Parameters:      entities - All entities in the simulation
+
+    // Returns:         Nothing
+
+    // Calls:           cellKey
+
+    // Globals:         cutoffRadius
+    //                  neighbours (of each entity)
+
+    void build (List<Entity> entities) {
+
+        // The lists hold everything within the cutoff plus the skin:
+        double listRadius = cutoffRadius * (1 + SKIN_FRACTION);
+        double listRadiusSquared = listRadius * listRadius;
+
+        // Bin the entities into cells:
+        Map<Long, List<Entity>> cells = new HashMap<>();
+        for (Entity e : entities) {
+            long key = cellKey(cellIndex(e.position.getX(), listRadius), cellIndex(e.position.getY(), listRadius));
+            List<Entity> cell = cells.get(key);
+            if (cell == null) {
+                cell = new ArrayList<>();
+                cells.put(key, cell);
+            }
+            cell.add(e);
+        }
+
+        // Collect the neighbours of each entity:
+        for (Entity e : entities) {
+
+            double x1 = e.position.getX();
+            double y1 = e.position.getY();
+
+            int cX = cellIndex(x1, listRadius);
+            int cY = cellIndex(y1, listRadius);
+
+            List<Entity> neighbours = new ArrayList<>();
+
+            for (int i = cX - 1; i <= cX + 1; i++) {
+                for (int j = cY - 1; j <= cY + 1; j++) {
+
+                    List<Entity> cell = cells.get(cellKey(i, j));
+                    if (cell == null) {
+                        continue;
+                    }
+
+                    for (Entity other : cell) {
+                        if (other != e) {
+                            double dX = other.position.getX() - x1;
+                            double dY = other.position.getY() - y1;
+                            if (dX * dX + dY * dY <= listRadiusSquared) {
+                                neighbours.add(other);
+                            }
+                        }
+                    }
+
+                }
+            }
+
+            e.neighbours = neighbours;
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          cellIndex
+
+    // Description:     Computes the grid cell index of a coordinate
+
+    // Parameters:      value - The x or y coordinate
+    //                  cellSize - The width of a grid cell
+
+    // Returns:         The cell index along that axis
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static int cellIndex (double value, double cellSize) {
+        return (int) Math.floor(value / cellSize);
+    }
+
+    // *************************************************************************
+
+    // Method:          cellKey
+
+    // Description:     Packs a pair of cell indices into a single map key
+
+    // Parameters:      i, j - Cell indices along x and y
+
+    // Returns:         The packed key
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static long cellKey (int i, int j) {
+        return ((long) i << 32) | (j & 0xFFFFFFFFL);
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
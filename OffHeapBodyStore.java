@@ -0,0 +1,503 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           OffHeapBodyStore
+// Description:     Object class, holding a run's bodies outside the Java
+//                      heap, in memory-mapped file regions, for runs too
+//                      large for BodyStore's arrays
+
+//                  File layout (little-endian) - a HEADER_SIZE header (the
+//                      magic number OHBS, a version, the capacity, the
+//                      count, the step and the elapsed time), then one
+//                      block of capacity doubles per field, in the order
+//                      x, y, vX, vY, aX, aY, mass, radius
+
+//                  Each field is mapped in chunks of CHUNK_BODIES bodies
+//                      (a mapping is limited to 2 GB), so the heap holds
+//                      only the chunk views whatever the number of bodies;
+//                      the pages belong to the file, so a store survives
+//                      the process and a checkpoint is a flush
+
+//                  Stores without a file of their own map a temporary
+//                      file that is deleted on exit (direct buffers would
+//                      count against the heap-sized direct memory limit)
+
+class OffHeapBodyStore {
+
+    // Fields of each body, in file order
+    static final int X = 0, Y = 1, VX = 2, VY = 3, AX = 4, AY = 5, MASS = 6, RADIUS = 7;
+    static final int FIELDS = 8;
+
+    // File identification
+    static final int MAGIC = 0x5342484F;
+    static final int VERSION = 1;
+
+    // Bytes before the first field
+    static final int HEADER_SIZE = 4096;
+
+    // Bodies per mapped chunk of a field (512 MB)
+    static final int CHUNK_SHIFT = 26;
+    static final int CHUNK_BODIES = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_BODIES - 1;
+
+    // Number of bodies in the store, and the number it can hold
+    int count;
+    int capacity;
+
+    // Iterations completed and time elapsed (kept with the bodies, so a
+    //  run can resume)
+    long step;
+    double time;
+
+    // Backing file and its mapped regions
+    FileChannel channel;
+    MappedByteBuffer header;
+    MappedByteBuffer[][] regions;
+
+    // Views of the regions, by field and chunk
+    DoubleBuffer[][] chunks;
+
+    // *************************************************************************
+
+    // Method:          OffHeapBodyStore
+
+    // Description:     Constructor for the class that maps an opened file
+
+    // Parameters:      channel - The file, opened for reading and writing
+    //                  capacity - Number of bodies the file holds
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         channel, header, regions, chunks
+    //                  capacity
+
+    OffHeapBodyStore (FileChannel channel, int capacity) throws IOException {
+
+        this.channel = channel;
+        this.capacity = capacity;
+
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        int chunkCount = Math.max(1, (capacity + CHUNK_BODIES - 1) / CHUNK_BODIES);
+        regions = new MappedByteBuffer[FIELDS][chunkCount];
+        chunks = new DoubleBuffer[FIELDS][chunkCount];
+
+        for (int f = 0; f < FIELDS; f++) {
+            for (int c = 0; c < chunkCount; c++) {
+
+                long first = (long) c * CHUNK_BODIES;
+                long bodies = Math.min(CHUNK_BODIES, capacity - first);
+                long offset = HEADER_SIZE + ((long) f * capacity + first) * Double.BYTES;
+
+                regions[f][c] = channel.map(FileChannel.MapMode.READ_WRITE, offset, bodies * Double.BYTES);
+                regions[f][c].order(ByteOrder.LITTLE_ENDIAN);
+                chunks[f][c] = regions[f][c].asDoubleBuffer();
+
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          open
+
+    // Description:     Opens a store file, creating it (empty) if it does
+    //                      not exist; an existing file keeps its bodies,
+    //                      step and time
+
+    // Parameters:      path - The file
+    //                  capacity - Number of bodies a new file can hold
+
+    // Returns:         The store
+
+    // Calls:           OffHeapBodyStore
+    //                  writeHeader
+
+    // Globals:         None
+
+    static OffHeapBodyStore open (Path path, int capacity) throws IOException {
+
+        boolean exists = Files.exists(path) && Files.size(path) >= HEADER_SIZE;
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (!exists) {
+
+            if (capacity < 1) {
+                channel.close();
+                throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+            }
+
+            OffHeapBodyStore store = new OffHeapBodyStore(channel, capacity);
+            store.writeHeader();
+
+            return store;
+
+        }
+
+        // Read the existing header:
+        ByteBuffer buffer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(buffer, 0);
+        buffer.flip();
+
+        if (buffer.getInt() != MAGIC) {
+            channel.close();
+            throw new IllegalArgumentException("Not a body store file: " + path);
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            channel.close();
+            throw new IllegalArgumentException("Unsupported body store version: " + version);
+        }
+
+        int stored = buffer.getInt();
+        if (channel.size() < HEADER_SIZE + (long) FIELDS * stored * Double.BYTES) {
+            channel.close();
+            throw new IllegalArgumentException("Body store file is truncated: " + path);
+        }
+
+        OffHeapBodyStore store = new OffHeapBodyStore(channel, stored);
+        store.count = store.header.getInt(12);
+        store.step = store.header.getLong(16);
+        store.time = store.header.getDouble(24);
+
+        return store;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          temporary
+
+    // Description:     Creates a store backed by a temporary file
+
+    // Parameters:      capacity - Number of bodies the store can hold
+
+    // Returns:         The store
+
+    // Calls:           open
+
+    // Globals:         None
+
+    static OffHeapBodyStore temporary (int capacity) throws IOException {
+
+        File file = File.createTempFile("bodies", ".ohbs");
+        file.deleteOnExit();
+        Files.delete(file.toPath());
+
+        return open(file.toPath(), capacity);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          temporaryInts
+
+    // Description:     Maps a temporary file as a scratch array of ints
+    //                      (for index tables too large for the heap)
+
+    // Parameters:      length - Number of ints
+
+    // Returns:         The scratch array
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    static IntBuffer temporaryInts (int length) throws IOException {
+
+        File file = File.createTempFile("indices", ".tmp");
+        file.deleteOnExit();
+
+        try (FileChannel scratch = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer region = scratch.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(1, (long) length * Integer.BYTES));
+            return region.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          get
+
+    // Description:     Reads one field of a body
+
+    // Parameters:      field - The field (X, Y, VX, ...)
+    //                  i - Index of the body
+
+    // Returns:         The value
+
+    // Calls:           Nothing
+
+    // Globals:         chunks
+
+    double get (int field, int i) {
+        return chunks[field][i >>> CHUNK_SHIFT].get(i & CHUNK_MASK);
+    }
+
+    // *************************************************************************
+
+    // Method:          set
+
+    // Description:     Writes one field of a body
+
+    // Parameters:      field - The field (X, Y, VX, ...)
+    //                  i - Index of the body
+    //                  value - The value
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         chunks
+
+    void set (int field, int i, double value) {
+        chunks[field][i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, value);
+    }
+
+    // *************************************************************************
+
+    // Method:          add
+
+    // Description:     Appends a body to the store (mass follows the
+    //                      radius, as in Entity)
+
+    // Parameters:      r - Radius
+    //                  xP, yP - Position
+    //                  xV, yV - Velocity
+
+    // Returns:         The index of the new body
+
+    // Calls:           set
+
+    // Globals:         count, capacity
+
+    int add (double r, double xP, double yP, double xV, double yV) {
+
+        if (count == capacity) {
+            throw new IllegalArgumentException("Body store is full: " + capacity);
+        }
+
+        int i = count++;
+
+        set(X, i, xP);
+        set(Y, i, yP);
+        set(VX, i, xV);
+        set(VY, i, yV);
+        set(AX, i, 0);
+        set(AY, i, 0);
+        set(MASS, i, Math.PI * r * r);
+        set(RADIUS, i, r);
+
+        return i;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          addAll
+
+    // Description:     Appends every body of a heap store
+
+    // Parameters:      bodies - The bodies to append
+
+    // Returns:         Nothing
+
+    // Calls:           set
+
+    // Globals:         count, capacity
+
+    void addAll (BodyStore bodies) {
+
+        if (count + bodies.count > capacity) {
+            throw new IllegalArgumentException("Body store is full: " + capacity);
+        }
+
+        for (int b = 0; b < bodies.count; b++) {
+
+            int i = count++;
+
+            set(X, i, bodies.x[b]);
+            set(Y, i, bodies.y[b]);
+            set(VX, i, bodies.vX[b]);
+            set(VY, i, bodies.vY[b]);
+            set(AX, i, 0);
+            set(AY, i, 0);
+            set(MASS, i, bodies.mass[b]);
+            set(RADIUS, i, bodies.radius[b]);
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          remove
+
+    // Description:     Removes a body by moving the last body into its slot
+
+    // Parameters:      i - Index of the body to remove
+
+    // Returns:         Nothing
+
+    // Calls:           get, set
+
+    // Globals:         count
+
+    void remove (int i) {
+
+        int last = --count;
+
+        for (int f = 0; f < FIELDS; f++) {
+            set(f, i, get(f, last));
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          advance
+
+    // Description:     Moves bodies [0, end) on by a time step with their
+    //                      current accelerations (the same update as
+    //                      Entity.updateVelocity and updatePosition)
+
+    // Parameters:      end - Number of bodies to advance
+    //                  t - The time step
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         chunks
+
+    void advance (int end, double t) {
+
+        for (int c = 0; (long) c * CHUNK_BODIES < end; c++) {
+
+            DoubleBuffer x = chunks[X][c], y = chunks[Y][c];
+            DoubleBuffer vX = chunks[VX][c], vY = chunks[VY][c];
+            DoubleBuffer aX = chunks[AX][c], aY = chunks[AY][c];
+
+            int bodies = (int) Math.min(CHUNK_BODIES, end - (long) c * CHUNK_BODIES);
+
+            for (int i = 0; i < bodies; i++) {
+
+                double accelerationX = aX.get(i);
+                double accelerationY = aY.get(i);
+
+                double velocityX = vX.get(i) + accelerationX * t;
+                double velocityY = vY.get(i) + accelerationY * t;
+
+                x.put(i, x.get(i) + vX.get(i) * t + 0.5 * accelerationX * t * t);
+                y.put(i, y.get(i) + vY.get(i) * t + 0.5 * accelerationY * t * t);
+                vX.put(i, velocityX);
+                vY.put(i, velocityY);
+
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          flush
+
+    // Description:     Writes the header and forces every mapped region out
+    //                      to the file (a checkpoint)
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           writeHeader
+
+    // Globals:         header, regions
+
+    void flush() {
+
+        writeHeader();
+        header.force();
+
+        for (MappedByteBuffer[] field : regions) {
+            for (MappedByteBuffer region : field) {
+                region.force();
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          close
+
+    // Description:     Flushes the store and closes its file (the mappings
+    //                      are released when they are collected)
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           flush
+
+    // Globals:         channel
+
+    void close() throws IOException {
+
+        flush();
+        channel.close();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          writeHeader
+
+    // Description:     Writes the header fields into the mapped header
+
+    // Parameters:      None
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         header
+    //                  capacity, count, step, time
+
+    void writeHeader() {
+
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, capacity);
+        header.putInt(12, count);
+        header.putLong(16, step);
+        header.putDouble(24, time);
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
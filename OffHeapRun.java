@@ -0,0 +1,715 @@
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           OffHeapRun
+// Description:     Command-line driver for runs held in an OffHeapBodyStore,
+//                      for body counts beyond what the heap can hold
+
+//                  Each step follows Simulation.iterate: particle-mesh
+//                      forces, then substeps as in resolveCollisions, each
+//                      finding the soonest collisions in the rest of the
+//                      step (through a uniform grid whose index tables are
+//                      also mapped off the heap), advancing to them and
+//                      merging them, until none is left and the rest of
+//                      the step is taken, all reading and writing the
+//                      store directly; the heap holds only the mesh and
+//                      the collisions being merged
+
+//                  Each substep searches the whole store again, as the
+//                      predictions aren't kept between substeps; collision
+//                      times are kept to the nearest ms, so a step has at
+//                      most tS / 0.001 + 1 substeps plus one per merge
+//                      chained within the same ms
+
+//                  The store file is flushed every few steps and at the
+//                      end, and a run started on an existing file resumes
+//                      from its last flush
+
+//                  Usage: java OffHeapRun [option=value ...]
+//                          file=bodies.ohbs        store file
+//                          scenario=disc           workload preset (for a
+//                                                  new file)
+//                          n=1000000               number of bodies
+//                          seed=1                  seed of the workload
+//                          G=1                     gravitational constant
+//                          softening=1             Plummer softening length
+//                          tS=0.1                  standard time step
+//                          steps=10                steps to run
+//                          grid=1024               mesh cells per side
+//                          checkpoint=10           steps between flushes
+//                          collisions=true         test for collisions
+
+class OffHeapRun {
+
+    // Bodies generated on the heap at a time while filling a new store
+    static final int GENERATE_BLOCK = 1 << 17;
+
+    // The bodies, and the backend computing their forces
+    OffHeapBodyStore store;
+    ParticleMesh mesh;
+
+    // Headless simulation supplying G, softening and PI
+    Simulation simulation;
+
+    // Standard time step
+    double tS;
+
+    // Index tables of the collision grid (reused between steps)
+    IntBuffer cellStart, cellNext, sortedBodies;
+
+    // The soonest collisions of a substep, by body index (reused)
+    CollisionBuffer collisions = new CollisionBuffer();
+
+    // *************************************************************************
+
+    // Method:          main
+
+    // Description:     Opens (or generates) the store and runs the
+    //                      requested steps
+
+    // Parameters:      args - Options
+
+    // Returns:         Nothing
+
+    // Calls:           OffHeapRun
+    //                  OffHeapBodyStore
+    //                  generate, createMesh, iterate
+
+    // Globals:         None
+
+    public static void main(String[] args) throws IOException {
+
+        String file = "bodies.ohbs";
+        String scenario = "disc";
+        int n = 1000000;
+        long seed = 1;
+        double g = 1.0;
+        double softening = 1;
+        double tS = 0.1;
+        int steps = 10;
+        int grid = 1024;
+        int checkpoint = 10;
+        boolean collisions = true;
+
+        for (String arg : args) {
+
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.out.println("\nUnknown option: " + arg);
+                continue;
+            }
+
+            switch (option[0]) {
+                case "file":
+                    file = option[1];
+                    break;
+                case "scenario":
+                    scenario = option[1];
+                    break;
+                case "n":
+                    n = Integer.parseInt(option[1]);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(option[1]);
+                    break;
+                case "G":
+                    g = Double.parseDouble(option[1]);
+                    break;
+                case "softening":
+                    softening = Double.parseDouble(option[1]);
+                    break;
+                case "tS":
+                    tS = Double.parseDouble(option[1]);
+                    break;
+                case "steps":
+                    steps = Integer.parseInt(option[1]);
+                    break;
+                case "grid":
+                    grid = Integer.parseInt(option[1]);
+                    break;
+                case "checkpoint":
+                    checkpoint = Math.max(1, Integer.parseInt(option[1]));
+                    break;
+                case "collisions":
+                    collisions = Boolean.parseBoolean(option[1]);
+                    break;
+                default:
+                    System.out.println("\nUnknown option: " + option[0]);
+                    break;
+            }
+
+        }
+
+        OffHeapRun run = new OffHeapRun();
+        run.tS = tS;
+
+        SimulationContext context = new SimulationContext();
+        context.headless = true;
+        context.G = g;
+
+        run.simulation = new Simulation(0, 0, 0, context);
+        run.simulation.softening = softening;
+
+        Path path = Paths.get(file);
+        boolean resumed = Files.exists(path);
+
+        long start = System.nanoTime();
+        run.store = OffHeapBodyStore.open(path, n);
+
+        if (resumed) {
+            System.out.printf("\nResumed %d bodies at step %d (time %.6g)\n", run.store.count, run.store.step, run.store.time);
+        } else {
+            run.generate(scenario, n, seed, g);
+            System.out.printf("\nGenerated %d bodies in %.1f s\n", n, (System.nanoTime() - start) / 1e9);
+        }
+
+        run.createMesh(grid);
+
+        System.out.println("\nstep,time,bodies,substeps,absorbed,ms");
+
+        for (int s = 1; s <= steps; s++) {
+
+            long stepStart = System.nanoTime();
+            int substeps = 1;
+            int absorbed = 0;
+
+            if (collisions) {
+                int before = run.store.count;
+                substeps = run.iterate();
+                absorbed = before - run.store.count;
+            } else {
+                run.mesh.computeAccelerations(run.store, run.simulation);
+                run.store.advance(run.store.count, tS);
+            }
+
+            run.store.step++;
+            run.store.time += tS;
+
+            if (s % checkpoint == 0 || s == steps) {
+                run.store.flush();
+            }
+
+            System.out.printf("%d,%.6g,%d,%d,%d,%.1f\n", run.store.step, run.store.time, run.store.count, substeps, absorbed,
+                    (System.nanoTime() - stepStart) / 1e6);
+
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("\nHeap in use: %.1f MB\n", (runtime.totalMemory() - runtime.freeMemory()) / 1e6);
+
+        run.store.close();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          generate
+
+    // Description:     Fills the store with a preset workload, a block of
+    //                      bodies at a time
+
+    // Parameters:      scenario - The workload preset
+    //                  n - Number of bodies
+    //                  seed - The seed
+    //                  g - The gravitational constant
+
+    // Returns:         Nothing
+
+    // Calls:           RandomGenerator
+    //                  InitialConditions
+    //                  OffHeapBodyStore
+
+    // Globals:         store
+
+    void generate (String scenario, int n, long seed, double g) {
+
+        RandomGenerator.BodySampler sampler = InitialConditions.presetSampler(scenario, n, g);
+
+        for (int first = 0; first < n; first += GENERATE_BLOCK) {
+            store.addAll(RandomGenerator.generateBodies(n, seed, first, Math.min(GENERATE_BLOCK, n - first), sampler));
+        }
+
+        store.flush();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          createMesh
+
+    // Description:     Sizes the periodic mesh to twice the extent of the
+    //                      bodies, centred on them
+
+    // Parameters:      grid - Number of mesh cells per side
+
+    // Returns:         Nothing
+
+    // Calls:           ParticleMesh
+    //                  OffHeapBodyStore
+
+    // Globals:         store, mesh
+
+    void createMesh (int grid) {
+
+        double xLow = Double.MAX_VALUE, xHigh = -Double.MAX_VALUE;
+        double yLow = Double.MAX_VALUE, yHigh = -Double.MAX_VALUE;
+        for (int b = 0; b < store.count; b++) {
+            double x = store.get(OffHeapBodyStore.X, b);
+            double y = store.get(OffHeapBodyStore.Y, b);
+            xLow = Math.min(xLow, x);
+            xHigh = Math.max(xHigh, x);
+            yLow = Math.min(yLow, y);
+            yHigh = Math.max(yHigh, y);
+        }
+
+        double side = Math.max(1, 2 * Math.max(xHigh - xLow, yHigh - yLow));
+
+        mesh = new ParticleMesh(grid, (xLow + xHigh - side) / 2, (yLow + yHigh - side) / 2, side);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          iterate
+
+    // Description:     Performs one iteration of the run (see
+    //                      Simulation.iterate), in substeps through the
+    //                      collisions of the step
+
+    // Parameters:      None
+
+    // Returns:         The number of substeps taken
+
+    // Calls:           ParticleMesh
+    //                  OffHeapBodyStore
+    //                  computeCollisions, combine
+
+    // Globals:         store, mesh, simulation
+    //                  tS
+    //                  collisions
+
+    int iterate() throws IOException {
+
+        mesh.computeAccelerations(store, simulation);
+
+        // Time reached so far in the step:
+        double elapsed = 0;
+        int substeps = 1;
+
+        for (computeCollisions(tS); collisions.size > 0; computeCollisions(tS - elapsed)) {
+
+            // Bring every body up to the time of the collisions (which are
+            // kept to the nearest ms, so may round past the end of the step):
+            double t = Math.min(collisions.soonest, tS - elapsed);
+            store.advance(store.count, t);
+            elapsed += t;
+
+            // Merged bodies start from their collision point, feeling the
+            // combined force of their members (as in combineEntities):
+            for (double[] body : combine()) {
+                int b = store.add(body[4], body[0], body[1], body[2], body[3]);
+                store.set(OffHeapBodyStore.MASS, b, body[5]);
+                store.set(OffHeapBodyStore.AX, b, body[6]);
+                store.set(OffHeapBodyStore.AY, b, body[7]);
+            }
+
+            substeps++;
+
+        }
+
+        // Take the rest of the step:
+        store.advance(store.count, tS - elapsed);
+
+        return substeps;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          computeCollisions
+
+    // Description:     Finds the collisions that occur soonest in a time
+    //                      (the rest of the step): the bodies are sorted
+    //                      into a uniform grid of cells sized to the mean
+    //                      reach, and each body is tested (with predict)
+    //                      against the bodies with no greater reach in the
+    //                      cells within twice its own reach, so a large
+    //                      merged body only widens its own search
+
+    // Parameters:      t - The time to search
+
+    // Returns:         Nothing (the soonest collisions, all with the same
+    //                      time, are left in the collision buffer)
+
+    // Calls:           OffHeapBodyStore
+    //                  CollisionBuffer
+    //                  reach, predict
+
+    // Globals:         store
+    //                  cellStart, cellNext, sortedBodies
+    //                  collisions
+
+    void computeCollisions (double t) throws IOException {
+
+        int n = store.count;
+
+        double meanReach = 0;
+        double xLow = Double.MAX_VALUE, xHigh = -Double.MAX_VALUE;
+        double yLow = Double.MAX_VALUE, yHigh = -Double.MAX_VALUE;
+        for (int b = 0; b < n; b++) {
+            double x = store.get(OffHeapBodyStore.X, b);
+            double y = store.get(OffHeapBodyStore.Y, b);
+            xLow = Math.min(xLow, x);
+            xHigh = Math.max(xHigh, x);
+            yLow = Math.min(yLow, y);
+            yHigh = Math.max(yHigh, y);
+            meanReach += reach(b, t) / n;
+        }
+
+        // No finer than about four cells per body on average:
+        double width = Math.max(xHigh - xLow, 1E-9);
+        double height = Math.max(yHigh - yLow, 1E-9);
+        double cellWidth = Math.max(2 * meanReach, Math.sqrt(width * height / Math.max(1, 4 * n)));
+
+        int columns = (int) Math.min(1 << 15, width / cellWidth + 1);
+        int rows = (int) Math.min(1 << 15, height / cellWidth + 1);
+        cellWidth = Math.max(cellWidth, Math.max(width / columns, height / rows));
+        int cells = columns * rows;
+
+        if (cellStart == null || cellStart.capacity() < cells + 1) {
+            cellStart = OffHeapBodyStore.temporaryInts(cells + 1);
+            cellNext = OffHeapBodyStore.temporaryInts(cells);
+        }
+        if (sortedBodies == null || sortedBodies.capacity() < n) {
+            sortedBodies = OffHeapBodyStore.temporaryInts(store.capacity);
+        }
+
+        // Counting sort of the bodies by cell:
+        for (int c = 0; c <= cells; c++) {
+            cellStart.put(c, 0);
+        }
+        for (int b = 0; b < n; b++) {
+            int c = cellOf(b, xLow, yLow, cellWidth, columns, rows);
+            cellStart.put(c + 1, cellStart.get(c + 1) + 1);
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart.put(c + 1, cellStart.get(c + 1) + cellStart.get(c));
+            cellNext.put(c, cellStart.get(c));
+        }
+        for (int b = 0; b < n; b++) {
+            int c = cellOf(b, xLow, yLow, cellWidth, columns, rows);
+            int slot = cellNext.get(c);
+            cellNext.put(c, slot + 1);
+            sortedBodies.put(slot, b);
+        }
+
+        collisions.clear();
+
+        for (int a = 0; a < n; a++) {
+
+            double xA = store.get(OffHeapBodyStore.X, a);
+            double yA = store.get(OffHeapBodyStore.Y, a);
+            double reachA = reach(a, t);
+
+            int cell = cellOf(a, xLow, yLow, cellWidth, columns, rows);
+            int column = cell % columns;
+            int row = cell / columns;
+
+            // A partner with no greater reach is within twice this reach:
+            int range = (int) Math.min(Math.max(columns, rows), Math.ceil(2 * reachA / cellWidth));
+
+            for (int j = Math.max(0, row - range); j <= Math.min(rows - 1, row + range); j++) {
+                for (int i = Math.max(0, column - range); i <= Math.min(columns - 1, column + range); i++) {
+
+                    int c = j * columns + i;
+
+                    for (int slot = cellStart.get(c); slot < cellStart.get(c + 1); slot++) {
+
+                        // Each pair is tested from the body with the
+                        // greater reach (or the lower index on a tie):
+                        int b = sortedBodies.get(slot);
+                        double reachB = reach(b, t);
+                        if (reachB > reachA || (reachB == reachA && b <= a)) {
+                            continue;
+                        }
+
+                        // Skip pairs that can't meet in the time step:
+                        double dX = store.get(OffHeapBodyStore.X, b) - xA;
+                        double dY = store.get(OffHeapBodyStore.Y, b) - yA;
+                        if (dX * dX + dY * dY > (reachA + reachB) * (reachA + reachB)) {
+                            continue;
+                        }
+
+                        predict(a, b, t);
+
+                    }
+
+                }
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          predict
+
+    // Description:     Tests two bodies for a collision within a time (as
+    //                      Entity.computeCollision does for entities),
+    //                      keeping it in the buffer when it is no later
+    //                      than the soonest found so far
+
+    // Parameters:      a, b - Indices of the bodies
+    //                  tMax - The time to search
+
+    // Returns:         Nothing
+
+    // Calls:           OffHeapBodyStore
+    //                  Collision
+    //                  CollisionBuffer
+
+    // Globals:         store
+    //                  collisions
+
+    void predict (int a, int b, double tMax) {
+
+        double xA = store.get(OffHeapBodyStore.X, a);
+        double yA = store.get(OffHeapBodyStore.Y, a);
+        double vXA = store.get(OffHeapBodyStore.VX, a);
+        double vYA = store.get(OffHeapBodyStore.VY, a);
+        double aXA = store.get(OffHeapBodyStore.AX, a);
+        double aYA = store.get(OffHeapBodyStore.AY, a);
+        double radiusA = store.get(OffHeapBodyStore.RADIUS, a);
+
+        // Motion of the second body relative to the first:
+        double pX = store.get(OffHeapBodyStore.X, b) - xA;
+        double pY = store.get(OffHeapBodyStore.Y, b) - yA;
+
+        double vX = store.get(OffHeapBodyStore.VX, b) - vXA;
+        double vY = store.get(OffHeapBodyStore.VY, b) - vYA;
+
+        double aX = 0.5 * (store.get(OffHeapBodyStore.AX, b) - aXA);
+        double aY = 0.5 * (store.get(OffHeapBodyStore.AY, b) - aYA);
+
+        double radii = radiusA + store.get(OffHeapBodyStore.RADIUS, b);
+
+        double t = Collision.computeContactTime(pX, pY, vX, vY, aX, aY, radii + Collision.CONTACT_SLACK, tMax);
+
+        // (Times are kept to the nearest ms, as in Collision)
+        double tC = Vector.roundDouble(t, 3);
+        if (t < 0 || tC > collisions.soonest) {
+            return;
+        }
+
+        if (tC < collisions.soonest) {
+            collisions.clear();
+        }
+
+        // The surfaces meet one radius along the line between the centres:
+        double share = (radii > 0) ? radiusA / radii : 0.5;
+        double x1 = xA + (vXA + 0.5 * aXA * t) * t;
+        double y1 = yA + (vYA + 0.5 * aYA * t) * t;
+        double dX = pX + (vX + aX * t) * t;
+        double dY = pY + (vY + aY * t) * t;
+
+        collisions.add(a, b, x1 + share * dX, y1 + share * dY, tC);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          combine
+
+    // Description:     Joins the bodies of the collisions into sets of
+    //                      touching bodies (by union-find over the bodies
+    //                      involved), combines each set into one body, as
+    //                      Simulation.combineEntities does, and removes the
+    //                      members from the store
+
+    // Parameters:      None
+
+    // Returns:         The new bodies (x, y, vX, vY, radius, mass, aX, aY)
+
+    // Calls:           OffHeapBodyStore
+    //                  CollisionBuffer
+    //                  find
+
+    // Globals:         store, simulation
+    //                  collisions
+
+    List<double[]> combine() {
+
+        // The bodies involved, in index order:
+        int[] members = new int[2 * collisions.size];
+        for (int k = 0; k < collisions.size; k++) {
+            members[2 * k] = collisions.a[k];
+            members[2 * k + 1] = collisions.b[k];
+        }
+        Arrays.sort(members);
+
+        int count = 0;
+        for (int m = 0; m < members.length; m++) {
+            if (m == 0 || members[m] != members[m - 1]) {
+                members[count++] = members[m];
+            }
+        }
+        members = Arrays.copyOf(members, count);
+
+        // Join the members of every collision into sets:
+        int[] parent = new int[count];
+        for (int m = 0; m < count; m++) {
+            parent[m] = m;
+        }
+        for (int k = 0; k < collisions.size; k++) {
+            int rootA = find(parent, Arrays.binarySearch(members, collisions.a[k]));
+            int rootB = find(parent, Arrays.binarySearch(members, collisions.b[k]));
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+
+        // Sum the collision points of each set:
+        double[] xSum = new double[count], ySum = new double[count];
+        int[] points = new int[count];
+        for (int k = 0; k < collisions.size; k++) {
+            int root = find(parent, Arrays.binarySearch(members, collisions.a[k]));
+            xSum[root] += collisions.xC[k];
+            ySum[root] += collisions.yC[k];
+            points[root]++;
+        }
+
+        // Get the TOTAL mass, momentum and force of each set:
+        double[] mass = new double[count], pX = new double[count], pY = new double[count];
+        double[] fX = new double[count], fY = new double[count];
+        for (int m = 0; m < count; m++) {
+            int root = find(parent, m);
+            double massM = store.get(OffHeapBodyStore.MASS, members[m]);
+            mass[root] += massM;
+            pX[root] += massM * store.get(OffHeapBodyStore.VX, members[m]);
+            pY[root] += massM * store.get(OffHeapBodyStore.VY, members[m]);
+            fX[root] += massM * store.get(OffHeapBodyStore.AX, members[m]);
+            fY[root] += massM * store.get(OffHeapBodyStore.AY, members[m]);
+        }
+
+        List<double[]> merged = new ArrayList<>();
+        for (int m = 0; m < count; m++) {
+            if (parent[m] == m) {
+                double M = mass[m];
+                merged.add(new double[] {xSum[m] / points[m], ySum[m] / points[m], pX[m] / M, pY[m] / M,
+                        Math.sqrt(M / simulation.context.PI), M, fX[m] / M, fY[m] / M});
+            }
+        }
+
+        // Remove the members from the highest index down, as each removal
+        // moves the last body into the freed slot:
+        for (int m = count - 1; m >= 0; m--) {
+            store.remove(members[m]);
+        }
+
+        collisions.clear();
+
+        return merged;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          find
+
+    // Description:     Finds the representative (lowest member) of the
+    //                      set holding a member, halving the path to it
+
+    // Parameters:      parent - Parent of each joined member
+    //                  m - The member
+
+    // Returns:         The representative of its set
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    static int find (int[] parent, int m) {
+
+        while (parent[m] != m) {
+            parent[m] = parent[parent[m]];
+            m = parent[m];
+        }
+
+        return m;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          cellOf
+
+    // Description:     Finds the grid cell holding a body
+
+    // Parameters:      b - Index of the body
+    //                  xLow, yLow - Lower-left corner of the grid
+    //                  cellWidth - Width of a cell
+    //                  columns, rows - Dimensions of the grid
+
+    // Returns:         The index of the cell
+
+    // Calls:           OffHeapBodyStore
+
+    // Globals:         store
+
+    int cellOf (int b, double xLow, double yLow, double cellWidth, int columns, int rows) {
+
+        int i = (int) ((store.get(OffHeapBodyStore.X, b) - xLow) / cellWidth);
+        int j = (int) ((store.get(OffHeapBodyStore.Y, b) - yLow) / cellWidth);
+
+        return Math.max(0, Math.min(rows - 1, j)) * columns + Math.max(0, Math.min(columns - 1, i));
+
+    }
+
+    // *************************************************************************
+
+    // Method:          reach
+
+    // Description:     Computes how far a body's edge could be from its
+    //                      current centre at any point during a time
+
+    // Parameters:      b - Index of the body
+    //                  t - The time
+
+    // Returns:         The reach of the body
+
+    // Calls:           OffHeapBodyStore
+    //                  Collision
+
+    // Globals:         store
+
+    double reach (int b, double t) {
+
+        double vX = store.get(OffHeapBodyStore.VX, b);
+        double vY = store.get(OffHeapBodyStore.VY, b);
+        double aX = store.get(OffHeapBodyStore.AX, b);
+        double aY = store.get(OffHeapBodyStore.AY, b);
+
+        // (Math.hypot is much slower, and this is called for every
+        // candidate pair)
+        double speed = Math.sqrt(vX * vX + vY * vY);
+        double accel = Math.sqrt(aX * aX + aY * aY);
+
+        return Collision.reach(store.get(OffHeapBodyStore.RADIUS, b), speed, accel, t);
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,408 @@
+
+import java.util.Arrays;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           ParticleMesh
+// Description:     Particle-mesh force backend for periodic large-N runs
+
+//                  Masses are deposited onto a square periodic grid with
+//                      cloud-in-cell weights, the potential is found with an
+//                      FFT Poisson solve, and the finite-difference gradient
+//                      is interpolated back onto the bodies with the same
+//                      weights, for a cost of O(N + M log M) per step
+
+//                  The Green's function -2 PI G exp(-|k| e) / |k| is the 2D
+//                      transform of the Plummer-softened 1/r potential, so the
+//                      mesh force follows the same law as the pairwise sum
+//                      (smoothed on the scale of a cell, and including
+//                      periodic images); softening should span a few cells
+
+//                  The same steps run straight over an OffHeapBodyStore
+//                      for runs too large for the heap
+
+//                  Dropping the k = 0 term leaves the potential defined up
+//                      to a constant, which shifts the potential energy
+//                      but not its drift
+
+class ParticleMesh implements ForceSolver {
+
+    // Number of grid cells along each side of the box
+    int gridSize;
+
+    // Lower-left corner and side length of the periodic box
+    double xOrigin, yOrigin, boxSize;
+
+    // Grid buffers (reused between steps)
+    double[] densityRe, densityIm, potential;
+
+    // Acceleration and potential found by the last call to interpolate
+    double sampleX, sampleY, samplePotential;
+
+    // *************************************************************************
+
+    // Method:          ParticleMesh
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      size - Number of grid cells per side (a power of 2)
+    //                  left, bottom - Lower-left corner of the periodic box
+    //                  width - Side length of the periodic box
+
+    // Returns:         A new instance of the class
+
+    // Calls:           FFT
+
+    // Globals:         gridSize, xOrigin, yOrigin, boxSize
+    //                  densityRe, densityIm, potential
+
+    ParticleMesh (int size, double left, double bottom, double width) {
+
+        if (!FFT.isPowerOfTwo(size)) {
+            throw new IllegalArgumentException("Grid size must be a power of 2: " + size);
+        }
+
+        gridSize = size;
+
+        xOrigin = left;
+        yOrigin = bottom;
+        boxSize = width;
+
+        densityRe = new double[size * size];
+        densityIm = new double[size * size];
+        potential = new double[size * size];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the acceleration of every body in the store
+    //                      from the mesh potential
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G
+
+    // Returns:         Nothing
+
+    // Calls:           depositMass
+    //                  solvePotential
+    //                  interpolateAccelerations
+
+    // Globals:         None
+
+    @Override
+    public void computeAccelerations (BodyStore bodies, Simulation simulation) {
+
+        depositMass(bodies);
+        solvePotential(simulation.context.G, simulation.softening);
+        interpolateAccelerations(bodies);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the acceleration of every body in an
+    //                      off-heap store from the mesh potential, reading
+    //                      and writing the store directly
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G
+
+    // Returns:         Nothing
+
+    // Calls:           OffHeapBodyStore
+    //                  deposit
+    //                  solvePotential
+    //                  interpolate
+
+    // Globals:         densityRe, densityIm
+    //                  sampleX, sampleY
+
+    void computeAccelerations (OffHeapBodyStore bodies, Simulation simulation) {
+
+        Arrays.fill(densityRe, 0);
+        Arrays.fill(densityIm, 0);
+
+        for (int b = 0; b < bodies.count; b++) {
+            deposit(bodies.get(OffHeapBodyStore.X, b), bodies.get(OffHeapBodyStore.Y, b), bodies.get(OffHeapBodyStore.MASS, b));
+        }
+
+        solvePotential(simulation.context.G, simulation.softening);
+
+        for (int b = 0; b < bodies.count; b++) {
+            interpolate(bodies.get(OffHeapBodyStore.X, b), bodies.get(OffHeapBodyStore.Y, b));
+            bodies.set(OffHeapBodyStore.AX, b, sampleX);
+            bodies.set(OffHeapBodyStore.AY, b, sampleY);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          depositMass
+
+    // Description:     Spreads the mass of every body over the 4 nearest
+    //                      grid points (cloud-in-cell) as a surface density
+
+    // Parameters:      bodies - The bodies to deposit
+
+    // Returns:         Nothing
+
+    // Calls:           deposit
+
+    // Globals:         densityRe, densityIm
+
+    void depositMass (BodyStore bodies) {
+
+        Arrays.fill(densityRe, 0);
+        Arrays.fill(densityIm, 0);
+
+        for (int b = 0; b < bodies.count; b++) {
+            deposit(bodies.x[b], bodies.y[b], bodies.mass[b]);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          deposit
+
+    // Description:     Spreads the mass of one body over the 4 nearest
+    //                      grid points as a surface density
+
+    // Parameters:      x, y - Position of the body
+    //                  mass - Mass of the body
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         gridSize, xOrigin, yOrigin, boxSize
+    //                  densityRe
+
+    void deposit (double x, double y, double mass) {
+
+        int n = gridSize;
+        double h = boxSize / n;
+
+        double u = (x - xOrigin) / h;
+        double v = (y - yOrigin) / h;
+
+        int i0 = (int) Math.floor(u);
+        int j0 = (int) Math.floor(v);
+
+        double fX = u - i0;
+        double fY = v - j0;
+
+        // Wrap into the periodic box:
+        int i1 = Math.floorMod(i0 + 1, n);
+        int j1 = Math.floorMod(j0 + 1, n);
+        i0 = Math.floorMod(i0, n);
+        j0 = Math.floorMod(j0, n);
+
+        double density = mass / (h * h);
+
+        densityRe[j0 * n + i0] += density * (1 - fX) * (1 - fY);
+        densityRe[j0 * n + i1] += density * fX * (1 - fY);
+        densityRe[j1 * n + i0] += density * (1 - fX) * fY;
+        densityRe[j1 * n + i1] += density * fX * fY;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          solvePotential
+
+    // Description:     Solves for the grid potential by multiplying the
+    //                      transformed density by the Green's function
+
+    // Parameters:      g - The gravitational constant
+    //                  softening - The Plummer softening length
+
+    // Returns:         Nothing
+
+    // Calls:           FFT
+
+    // Globals:         gridSize, boxSize
+    //                  densityRe, densityIm, potential
+
+    void solvePotential (double g, double softening) {
+
+        int n = gridSize;
+        double kUnit = 2 * Math.PI / boxSize;
+
+        FFT.transform2D(densityRe, densityIm, n, false);
+
+        for (int j = 0; j < n; j++) {
+
+            int nY = (j < n / 2) ? j : j - n;
+
+            for (int i = 0; i < n; i++) {
+
+                int nX = (i < n / 2) ? i : i - n;
+
+                double k = kUnit * Math.sqrt(nX * nX + nY * nY);
+
+                // The mean density (k = 0) exerts no force:
+                double green = (k == 0) ? 0 : -2 * Math.PI * g * Math.exp(-k * softening) / k;
+
+                densityRe[j * n + i] *= green;
+                densityIm[j * n + i] *= green;
+
+            }
+
+        }
+
+        FFT.transform2D(densityRe, densityIm, n, true);
+
+        System.arraycopy(densityRe, 0, potential, 0, n * n);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          interpolateAccelerations
+
+    // Description:     Interpolates the centred-difference gradient of the
+    //                      potential, and the potential itself, back onto
+    //                      every body
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+
+    // Returns:         Nothing
+
+    // Calls:           interpolate
+
+    // Globals:         sampleX, sampleY, samplePotential
+
+    void interpolateAccelerations (BodyStore bodies) {
+
+        for (int b = 0; b < bodies.count; b++) {
+
+            interpolate(bodies.x[b], bodies.y[b]);
+
+            bodies.aX[b] = sampleX;
+            bodies.aY[b] = sampleY;
+            bodies.potential[b] = samplePotential;
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          interpolate
+
+    // Description:     Interpolates the acceleration and potential at a
+    //                      point from the 4 nearest grid points
+
+    // Parameters:      x, y - The point
+
+    // Returns:         Nothing (the results are left in sampleX, sampleY
+    //                      and samplePotential)
+
+    // Calls:           gradient
+    //                  potentialAt
+
+    // Globals:         gridSize, xOrigin, yOrigin, boxSize
+    //                  sampleX, sampleY, samplePotential
+
+    void interpolate (double x, double y) {
+
+        int n = gridSize;
+        double h = boxSize / n;
+
+        double u = (x - xOrigin) / h;
+        double v = (y - yOrigin) / h;
+
+        int i0 = (int) Math.floor(u);
+        int j0 = (int) Math.floor(v);
+
+        double fX = u - i0;
+        double fY = v - j0;
+
+        double w00 = (1 - fX) * (1 - fY);
+        double w10 = fX * (1 - fY);
+        double w01 = (1 - fX) * fY;
+        double w11 = fX * fY;
+
+        sampleX = w00 * gradient(i0, j0, 1, 0, h) + w10 * gradient(i0 + 1, j0, 1, 0, h)
+                + w01 * gradient(i0, j0 + 1, 1, 0, h) + w11 * gradient(i0 + 1, j0 + 1, 1, 0, h);
+
+        sampleY = w00 * gradient(i0, j0, 0, 1, h) + w10 * gradient(i0 + 1, j0, 0, 1, h)
+                + w01 * gradient(i0, j0 + 1, 0, 1, h) + w11 * gradient(i0 + 1, j0 + 1, 0, 1, h);
+
+        samplePotential = w00 * potentialAt(i0, j0) + w10 * potentialAt(i0 + 1, j0)
+                        + w01 * potentialAt(i0, j0 + 1) + w11 * potentialAt(i0 + 1, j0 + 1);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          gradient
+
+    // Description:     Computes the acceleration (negative potential
+    //                      gradient) at a grid point along one axis
+
+    // Parameters:      i, j - Grid point (wrapped into the box)
+    //                  dI, dJ - Axis of the derivative (1,0 or 0,1)
+    //                  h - Width of a grid cell
+
+    // Returns:         The acceleration component at the grid point
+
+    // Calls:           potentialAt
+
+    // Globals:         None
+
+    double gradient (int i, int j, int dI, int dJ, double h) {
+        return -(potentialAt(i + dI, j + dJ) - potentialAt(i - dI, j - dJ)) / (2 * h);
+    }
+
+    // *************************************************************************
+
+    // Method:          potentialAt
+
+    // Description:     Returns the potential at a (periodically wrapped)
+    //                      grid point
+
+    // Parameters:      i, j - Grid point
+
+    // Returns:         The potential at the grid point
+
+    // Calls:           Nothing
+
+    // Globals:         gridSize, potential
+
+    double potentialAt (int i, int j) {
+        return potential[Math.floorMod(j, gridSize) * gridSize + Math.floorMod(i, gridSize)];
+    }
+
+    // *************************************************************************
+
+    // Method:          getName
+
+    // Description:     Returns a short description of the backend for menus
+
+    // Parameters:      None
+
+    // Returns:         The name of the backend
+
+    // Calls:           Nothing
+    // Globals:         gridSize
+
+    @Override
+    public String getName() {
+        return "Particle-mesh (" + gridSize + " x " + gridSize + " grid)";
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,862 @@
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           Quadtree
+// Description:     Linear (Morton-ordered) quadtree force backend, kept
+//                      up to date once per step and shared with the
+//                      collision pass
+
+//                  The bodies are sorted by the Morton code of their
+//                      position (codes and sort both in parallel), so each
+//                      cell holds a contiguous run of the sorted bodies;
+//                      cells are stored depth first, each with the index
+//                      just past its subtree, so every walk runs without a
+//                      stack or any allocation
+
+//                  Between rebuilds the tree is only refit: the bodies
+//                      keep their cells, and each cell's bounds, mass and
+//                      centre of mass are recomputed bottom-up; it is
+//                      rebuilt when the bodies change (invalidate) or once
+//                      the cells have grown too loose
+
+//                  Gravity walks the tree Barnes-Hut style: a cell seen
+//                      under less than the opening angle acts through its
+//                      mass at its centre of mass, leaves interact directly
+
+//                  Once the step's accelerations are known, sweep refits
+//                      the same cells with the boxes swept by their bodies
+//                      over the working time step, and candidates answers
+//                      which bodies could touch a given one
+
+//                  Softening is applied throughout; a cutoff is applied to
+//                      cells by the distance to their centre of mass
+
+class Quadtree implements ForceSolver {
+
+    // Bits of each coordinate in a Morton code (also the deepest level)
+    static final int BITS = 15;
+
+    // Opening angle and target number of bodies per leaf
+    double theta;
+    int leafSize;
+
+    // Growth of the total size of the cells (since the last build) past
+    //  which the tree is rebuilt instead of refit
+    double rebuildGrowth = 1.25;
+
+    // Whether the bodies may have changed since the last build, and the
+    //  store the tree was built from
+    boolean stale = true;
+    BodyStore builtFrom;
+
+    // Total size of the cells when the tree was last built
+    double builtSize;
+
+    // Number of builds and refits so far
+    int builds, refits;
+
+    // Number of bodies in the tree
+    int count;
+
+    // Morton codes (high bits) and body indices (low bits), sorted
+    long[] keys;
+
+    // Body at each sorted position, and sorted position of each body
+    int[] order, rank;
+
+    // Positions and masses of the bodies, in sorted order
+    double[] sortedX, sortedY, sortedMass;
+
+    // Swept box of each body, in sorted order
+    double[] bodyXMin, bodyXMax, bodyYMin, bodyYMax;
+
+    // Lower-left corner and side length of the root cell
+    double xOrigin, yOrigin, rootSize;
+
+    // Number of cells
+    int cells;
+
+    // Run of sorted bodies in each cell, and the index just past its
+    //  subtree (one past the cell itself for a leaf)
+    int[] first, last, next;
+
+    // Lower-left corner and side length of the square bounding the bodies
+    //  of each cell
+    double[] cellX, cellY, cellSize;
+
+    // Mass and centre of mass of each cell
+    double[] cellMass, centreX, centreY;
+
+    // Swept box of each cell
+    double[] xMin, xMax, yMin, yMax;
+
+    // *************************************************************************
+
+    // Method:          Quadtree
+
+    // Description:     Default constructor for the class
+
+    // Parameters:      angle - Opening angle (0 for direct summation)
+    //                  leaf - Target number of bodies per leaf
+
+    // Returns:         A new instance of the class
+
+    // Calls:           ensureBodies
+
+    // Globals:         theta, leafSize
+    //                  first, last, next
+    //                  cellX, cellY, cellSize
+    //                  cellMass, centreX, centreY
+    //                  xMin, xMax, yMin, yMax
+
+    Quadtree (double angle, int leaf) {
+
+        if (!(angle >= 0)) {
+            throw new IllegalArgumentException("Opening angle must be at least 0: " + angle);
+        }
+
+        theta = angle;
+        leafSize = Math.max(1, leaf);
+
+        ensureBodies(0);
+
+        int capacity = 16;
+
+        first = new int[capacity];
+        last = new int[capacity];
+        next = new int[capacity];
+        cellX = new double[capacity];
+        cellY = new double[capacity];
+        cellSize = new double[capacity];
+        cellMass = new double[capacity];
+        centreX = new double[capacity];
+        centreY = new double[capacity];
+        xMin = new double[capacity];
+        xMax = new double[capacity];
+        yMin = new double[capacity];
+        yMax = new double[capacity];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Refits (or rebuilds) the tree, then computes the
+    //                      acceleration of every body by walking it (in
+    //                      parallel, in Morton order)
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         Nothing
+
+    // Calls:           update
+    //                  accelerate
+
+    // Globals:         count
+
+    @Override
+    public void computeAccelerations (BodyStore bodies, Simulation simulation) {
+
+        update(bodies);
+
+        if (count == 0) {
+            return;
+        }
+
+        double g = simulation.context.G;
+        double softeningSquared = simulation.softening * simulation.softening;
+        double cutoffSquared = simulation.cutoffRadius * simulation.cutoffRadius;
+
+        IntStream.range(0, count).parallel().forEach(k -> accelerate(k, bodies, g, softeningSquared, cutoffSquared));
+
+    }
+
+    // *************************************************************************
+
+    // Method:          invalidate
+
+    // Description:     Marks the bodies as changed (added, removed or
+    //                      renumbered), so the next update rebuilds the tree
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         stale
+
+    void invalidate() {
+        stale = true;
+    }
+
+    // *************************************************************************
+
+    // Method:          update
+
+    // Description:     Brings the tree up to date with the bodies' new
+    //                      positions, refitting it unless the bodies have
+    //                      changed or the refit cells have grown too loose
+
+    // Parameters:      bodies - The bodies in the tree
+
+    // Returns:         Nothing
+
+    // Calls:           build, refit
+
+    // Globals:         stale, builtFrom, builtSize
+    //                  rebuildGrowth
+    //                  count, cells
+
+    void update (BodyStore bodies) {
+
+        if (stale || bodies != builtFrom || bodies.count != count || cells == 0) {
+            build(bodies);
+            return;
+        }
+
+        if (refit(bodies) > rebuildGrowth * builtSize) {
+            build(bodies);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          refit
+
+    // Description:     Copies the bodies' new positions into the tree (in
+    //                      its existing order) and recomputes every cell
+    //                      from its bodies, keeping the cells as they are
+
+    // Parameters:      bodies - The bodies in the tree (as when built)
+
+    // Returns:         The total size of the cells
+
+    // Calls:           summarize
+
+    // Globals:         count, order
+    //                  sortedX, sortedY, sortedMass
+    //                  refits
+
+    double refit (BodyStore bodies) {
+
+        IntStream.range(0, count).parallel().forEach(k -> {
+            int b = order[k];
+            sortedX[k] = bodies.x[b];
+            sortedY[k] = bodies.y[b];
+            sortedMass[k] = bodies.mass[b];
+        });
+
+        refits++;
+
+        return summarize();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          build
+
+    // Description:     Sizes the root cell around the bodies, sorts them by
+    //                      Morton code, and splits the sorted run into cells
+
+    // Parameters:      bodies - The bodies to place in the tree
+
+    // Returns:         Nothing
+
+    // Calls:           ensureBodies
+    //                  mortonCode
+    //                  split, summarize
+
+    // Globals:         count, keys, order, rank
+    //                  sortedX, sortedY, sortedMass
+    //                  xOrigin, yOrigin, rootSize
+    //                  cells
+    //                  stale, builtFrom, builtSize, builds
+
+    void build (BodyStore bodies) {
+
+        int n = bodies.count;
+
+        count = n;
+        cells = 0;
+
+        stale = false;
+        builtFrom = bodies;
+        builds++;
+
+        if (n == 0) {
+            return;
+        }
+
+        ensureBodies(n);
+
+        // Bounding square of the bodies:
+        double xLow = Double.MAX_VALUE, xHigh = -Double.MAX_VALUE;
+        double yLow = Double.MAX_VALUE, yHigh = -Double.MAX_VALUE;
+        for (int b = 0; b < n; b++) {
+            xLow = Math.min(xLow, bodies.x[b]);
+            xHigh = Math.max(xHigh, bodies.x[b]);
+            yLow = Math.min(yLow, bodies.y[b]);
+            yHigh = Math.max(yHigh, bodies.y[b]);
+        }
+
+        rootSize = Math.max(xHigh - xLow, yHigh - yLow) * 1.0001 + 1E-9;
+        xOrigin = xLow;
+        yOrigin = yLow;
+
+        double scale = (1 << BITS) / rootSize;
+
+        IntStream.range(0, n).parallel().forEach(b -> {
+            keys[b] = (mortonCode(bodies.x[b] - xOrigin, bodies.y[b] - yOrigin, scale) << 32) | b;
+        });
+
+        Arrays.parallelSort(keys, 0, n);
+
+        IntStream.range(0, n).parallel().forEach(k -> {
+            int b = (int) keys[k];
+            order[k] = b;
+            rank[b] = k;
+            sortedX[k] = bodies.x[b];
+            sortedY[k] = bodies.y[b];
+            sortedMass[k] = bodies.mass[b];
+        });
+
+        split(0, n, 0);
+        builtSize = summarize();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          mortonCode
+
+    // Description:     Computes the Morton code of a point in the root cell
+
+    // Parameters:      x, y - Offset of the point from the lower-left corner
+    //                  scale - Grid steps per unit length (2^BITS over the
+    //                      side of the root cell)
+
+    // Returns:         The code (2 * BITS bits)
+
+    // Calls:           spread
+
+    // Globals:         None
+
+    static long mortonCode (double x, double y, double scale) {
+
+        int top = (1 << BITS) - 1;
+
+        int ix = Math.max(0, Math.min(top, (int) (x * scale)));
+        int iy = Math.max(0, Math.min(top, (int) (y * scale)));
+
+        return spread(ix) | (spread(iy) << 1);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          spread
+
+    // Description:     Spreads the bits of a coordinate out to the even bit
+    //                      positions of a Morton code
+
+    // Parameters:      v - The coordinate (BITS bits)
+
+    // Returns:         The spread bits
+
+    // Calls:           Nothing
+
+    // Globals:         None
+
+    static long spread (int v) {
+
+        long s = v & ((1 << BITS) - 1);
+
+        s = (s | (s << 8)) & 0x00FF00FFL;
+        s = (s | (s << 4)) & 0x0F0F0F0FL;
+        s = (s | (s << 2)) & 0x33333333L;
+        s = (s | (s << 1)) & 0x55555555L;
+
+        return s;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          split
+
+    // Description:     Adds the cell holding a run of the sorted bodies and,
+    //                      unless it is small enough to be a leaf, the
+    //                      cells of each of its non-empty quadrants
+
+    // Parameters:      start, end - The run of sorted bodies
+    //                  level - Depth of the cell
+
+    // Returns:         Nothing
+
+    // Calls:           ensureCells
+
+    // Globals:         keys, cells
+    //                  first, last, next
+
+    void split (int start, int end, int level) {
+
+        int c = cells++;
+        ensureCells(cells);
+
+        first[c] = start;
+        last[c] = end;
+
+        if (end - start > leafSize && level < BITS) {
+
+            // The two bits of the Morton code picking the quadrant:
+            int shift = 32 + 2 * (BITS - 1 - level);
+
+            int m = start;
+            for (int q = 0; q < 4; q++) {
+                int quadrantStart = m;
+                while (m < end && ((keys[m] >>> shift) & 3) == q) {
+                    m++;
+                }
+                if (m > quadrantStart) {
+                    split(quadrantStart, m, level + 1);
+                }
+            }
+
+        }
+
+        next[c] = cells;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          summarize
+
+    // Description:     Computes the bounding square, mass and centre of
+    //                      mass of every cell, children before parents (in
+    //                      reverse depth-first order)
+
+    // Parameters:      None
+
+    // Returns:         The total size of the cells (sum of their sides)
+
+    // Calls:           Nothing
+
+    // Globals:         cells, first, last, next
+    //                  sortedX, sortedY, sortedMass
+    //                  cellX, cellY, cellSize
+    //                  cellMass, centreX, centreY
+
+    double summarize() {
+
+        double total = 0;
+
+        for (int c = cells - 1; c >= 0; c--) {
+
+            double m = 0, mX = 0, mY = 0;
+            double x0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE;
+            double y0 = Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+
+            if (next[c] == c + 1) {
+                for (int k = first[c]; k < last[c]; k++) {
+                    m += sortedMass[k];
+                    mX += sortedMass[k] * sortedX[k];
+                    mY += sortedMass[k] * sortedY[k];
+                    x0 = Math.min(x0, sortedX[k]);
+                    x1 = Math.max(x1, sortedX[k]);
+                    y0 = Math.min(y0, sortedY[k]);
+                    y1 = Math.max(y1, sortedY[k]);
+                }
+            } else {
+                for (int d = c + 1; d < next[c]; d = next[d]) {
+                    m += cellMass[d];
+                    mX += cellMass[d] * centreX[d];
+                    mY += cellMass[d] * centreY[d];
+                    x0 = Math.min(x0, cellX[d]);
+                    x1 = Math.max(x1, cellX[d] + cellSize[d]);
+                    y0 = Math.min(y0, cellY[d]);
+                    y1 = Math.max(y1, cellY[d] + cellSize[d]);
+                }
+            }
+
+            cellX[c] = x0;
+            cellY[c] = y0;
+            cellSize[c] = Math.max(x1 - x0, y1 - y0);
+            total += cellSize[c];
+
+            cellMass[c] = m;
+
+            // (Massless cells are centred on their middle)
+            centreX[c] = (m > 0) ? mX / m : cellX[c] + cellSize[c] / 2;
+            centreY[c] = (m > 0) ? mY / m : cellY[c] + cellSize[c] / 2;
+
+        }
+
+        return total;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          accelerate
+
+    // Description:     Computes the acceleration of one body by walking the
+    //                      tree, opening every cell that contains the body
+    //                      or is seen under more than the opening angle
+
+    // Parameters:      k - Sorted position of the body
+    //                  bodies - The store to write the acceleration into
+    //                  g - Gravitational constant
+    //                  softeningSquared - Square of the softening length
+    //                  cutoffSquared - Square of the cutoff (0 for none)
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         theta
+    //                  order, sortedX, sortedY, sortedMass
+    //                  cells, first, last, next
+    //                  cellX, cellY, cellSize
+    //                  cellMass, centreX, centreY
+
+    void accelerate (int k, BodyStore bodies, double g, double softeningSquared, double cutoffSquared) {
+
+        double x1 = sortedX[k];
+        double y1 = sortedY[k];
+
+        double aX = 0;
+        double aY = 0;
+        double phi = 0;
+
+        int c = 0;
+        while (c < cells) {
+
+            if (next[c] == c + 1) {
+
+                // Leaf: interact with each body directly
+                for (int j = first[c]; j < last[c]; j++) {
+
+                    double dX = sortedX[j] - x1;
+                    double dY = sortedY[j] - y1;
+                    double rSquared = dX * dX + dY * dY;
+
+                    // Skips the body itself and any coincident bodies:
+                    if (rSquared == 0) {
+                        continue;
+                    }
+
+                    if (cutoffSquared > 0 && rSquared > cutoffSquared) {
+                        continue;
+                    }
+
+                    double softened = rSquared + softeningSquared;
+                    double factor = (g * sortedMass[j]) / (softened * Math.sqrt(softened));
+
+                    aX += factor * dX;
+                    aY += factor * dY;
+                    phi -= factor * softened;
+
+                }
+
+                c = next[c];
+                continue;
+
+            }
+
+            double dX = centreX[c] - x1;
+            double dY = centreY[c] - y1;
+            double rSquared = dX * dX + dY * dY;
+
+            boolean inside = x1 >= cellX[c] && x1 <= cellX[c] + cellSize[c] && y1 >= cellY[c] && y1 <= cellY[c] + cellSize[c];
+
+            // Distance is measured past the offset of the centre of mass
+            // from the middle of the cell (which bounds the error better
+            // than the distance to the centre of mass alone):
+            double offsetX = centreX[c] - (cellX[c] + cellSize[c] / 2);
+            double offsetY = centreY[c] - (cellY[c] + cellSize[c] / 2);
+            double clearance = Math.sqrt(rSquared) - Math.sqrt(offsetX * offsetX + offsetY * offsetY);
+
+            if (inside || clearance <= 0 || cellSize[c] >= theta * clearance) {
+
+                // Open the cell:
+                c++;
+
+            } else {
+
+                // Far enough away to act through its centre of mass:
+                if (cutoffSquared == 0 || rSquared <= cutoffSquared) {
+
+                    double softened = rSquared + softeningSquared;
+                    double factor = (g * cellMass[c]) / (softened * Math.sqrt(softened));
+
+                    aX += factor * dX;
+                    aY += factor * dY;
+                    phi -= factor * softened;
+
+                }
+
+                c = next[c];
+
+            }
+
+        }
+
+        int b = order[k];
+        bodies.aX[b] = aX;
+        bodies.aY[b] = aY;
+        bodies.potential[b] = phi;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          sweep
+
+    // Description:     Refits every cell with the box swept by its bodies
+    //                      over a time step, from the velocities and
+    //                      accelerations the entities now hold (a body's
+    //                      centre moves by at most |v|t + |a|t^2/2 along
+    //                      each axis, as in Entity.computeCollision, with
+    //                      the slack of Collision.reach)
+
+    // Parameters:      entities - The entities the tree was built from,
+    //                      in the same order
+    //                  t - The time step
+
+    // Returns:         Nothing
+
+    // Calls:           Entity
+
+    // Globals:         count, order
+    //                  sortedX, sortedY
+    //                  bodyXMin, bodyXMax, bodyYMin, bodyYMax
+    //                  cells, first, last, next
+    //                  xMin, xMax, yMin, yMax
+
+    void sweep (List<Entity> entities, double t) {
+
+        for (int k = 0; k < count; k++) {
+
+            Entity e = entities.get(order[k]);
+
+            double reachX = Collision.reach(e.radius, Math.abs(e.velocity.getX()), Math.abs(e.acceleration.getX()), t);
+            double reachY = Collision.reach(e.radius, Math.abs(e.velocity.getY()), Math.abs(e.acceleration.getY()), t);
+
+            // Widened by a hair, so rounding can't drop a grazing contact:
+            reachX += 1E-9 * (reachX + Math.abs(sortedX[k]));
+            reachY += 1E-9 * (reachY + Math.abs(sortedY[k]));
+
+            bodyXMin[k] = sortedX[k] - reachX;
+            bodyXMax[k] = sortedX[k] + reachX;
+            bodyYMin[k] = sortedY[k] - reachY;
+            bodyYMax[k] = sortedY[k] + reachY;
+
+        }
+
+        for (int c = cells - 1; c >= 0; c--) {
+
+            double x0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE;
+            double y0 = Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+
+            if (next[c] == c + 1) {
+                for (int k = first[c]; k < last[c]; k++) {
+                    x0 = Math.min(x0, bodyXMin[k]);
+                    x1 = Math.max(x1, bodyXMax[k]);
+                    y0 = Math.min(y0, bodyYMin[k]);
+                    y1 = Math.max(y1, bodyYMax[k]);
+                }
+            } else {
+                for (int d = c + 1; d < next[c]; d = next[d]) {
+                    x0 = Math.min(x0, xMin[d]);
+                    x1 = Math.max(x1, xMax[d]);
+                    y0 = Math.min(y0, yMin[d]);
+                    y1 = Math.max(y1, yMax[d]);
+                }
+            }
+
+            xMin[c] = x0;
+            xMax[c] = x1;
+            yMin[c] = y0;
+            yMax[c] = y1;
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          candidates
+
+    // Description:     Finds the bodies after a given one (by index) whose
+    //                      swept box overlaps its own, in no set order
+
+    //                  Only as many as fit are written; if the count
+    //                      returned is larger, call again with more room
+
+    // Parameters:      i - Index of the body
+    //                  found - Receives the indices of the bodies
+
+    // Returns:         The number of bodies found
+
+    // Calls:           Nothing
+
+    // Globals:         order, rank
+    //                  bodyXMin, bodyXMax, bodyYMin, bodyYMax
+    //                  cells, first, last, next
+    //                  xMin, xMax, yMin, yMax
+
+    int candidates (int i, int[] found) {
+
+        int k = rank[i];
+
+        double x0 = bodyXMin[k], x1 = bodyXMax[k];
+        double y0 = bodyYMin[k], y1 = bodyYMax[k];
+
+        int n = 0;
+
+        int c = 0;
+        while (c < cells) {
+
+            if (xMin[c] > x1 || xMax[c] < x0 || yMin[c] > y1 || yMax[c] < y0) {
+
+                // Nothing in the cell can reach the body:
+                c = next[c];
+
+            } else if (next[c] == c + 1) {
+
+                for (int m = first[c]; m < last[c]; m++) {
+                    int j = order[m];
+                    if (j > i && bodyXMin[m] <= x1 && bodyXMax[m] >= x0 && bodyYMin[m] <= y1 && bodyYMax[m] >= y0) {
+                        if (n < found.length) {
+                            found[n] = j;
+                        }
+                        n++;
+                    }
+                }
+
+                c = next[c];
+
+            } else {
+
+                c++;
+
+            }
+
+        }
+
+        return n;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          ensureBodies
+
+    // Description:     Grows the per-body arrays so they can hold a number
+    //                      of bodies
+
+    // Parameters:      n - Number of bodies
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         keys, order, rank
+    //                  sortedX, sortedY, sortedMass
+    //                  bodyXMin, bodyXMax, bodyYMin, bodyYMax
+
+    void ensureBodies (int n) {
+
+        if (keys != null && keys.length >= n) {
+            return;
+        }
+
+        keys = new long[n];
+        order = new int[n];
+        rank = new int[n];
+        sortedX = new double[n];
+        sortedY = new double[n];
+        sortedMass = new double[n];
+        bodyXMin = new double[n];
+        bodyXMax = new double[n];
+        bodyYMin = new double[n];
+        bodyYMax = new double[n];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          ensureCells
+
+    // Description:     Grows the per-cell arrays (by at least half) so they
+    //                      can hold a number of cells
+
+    // Parameters:      n - Number of cells
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         first, last, next
+    //                  cellX, cellY, cellSize
+    //                  cellMass, centreX, centreY
+    //                  xMin, xMax, yMin, yMax
+
+    void ensureCells (int n) {
+
+        if (first.length >= n) {
+            return;
+        }
+
+        int capacity = Math.max(n, first.length + first.length / 2);
+
+        first = Arrays.copyOf(first, capacity);
+        last = Arrays.copyOf(last, capacity);
+        next = Arrays.copyOf(next, capacity);
+        cellX = Arrays.copyOf(cellX, capacity);
+        cellY = Arrays.copyOf(cellY, capacity);
+        cellSize = Arrays.copyOf(cellSize, capacity);
+        cellMass = Arrays.copyOf(cellMass, capacity);
+        centreX = Arrays.copyOf(centreX, capacity);
+        centreY = Arrays.copyOf(centreY, capacity);
+        xMin = Arrays.copyOf(xMin, capacity);
+        xMax = Arrays.copyOf(xMax, capacity);
+        yMin = Arrays.copyOf(yMin, capacity);
+        yMax = Arrays.copyOf(yMax, capacity);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          getName
+
+    // Description:     Returns a short description of the backend for menus
+
+    // Parameters:      None
+
+    // Returns:         The name of the backend
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    @Override
+    public String getName() {
+        return "Barnes-Hut quadtree (theta = " + theta + ", shared with collisions)";
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
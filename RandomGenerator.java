@@ -1,7 +1,6 @@
 
-import java.util.Random;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 // *****************************************************************************
 // *****************************************************************************
@@ -9,9 +8,29 @@ import java.math.RoundingMode;
 // Class:           RandomGenerator
 // Description:     Class for generating random values in a specified range
 
+//                  All values come from seeded SplittableRandom streams
+//                      (a simulation's own stream is in its context), so
+//                      a run can be regenerated from its seed; bulk
+//                      generation splits one stream per fixed-size block of
+//                      bodies (in block order) before filling the blocks in
+//                      parallel, so the output for a seed is the same
+//                      whatever the number of threads
+
 class RandomGenerator {
     
-    static Random r = new Random();
+    // Number of bodies generated from each split stream
+    static final int BLOCK_SIZE = 1 << 14;
+    
+    // *************************************************************************
+    
+    // Interface:       BodySampler
+    
+    // Description:     Generates body i of a bulk scenario from a stream
+    //                      and writes it into a slot of a store
+    
+    interface BodySampler {
+        void sample (SplittableRandom random, BodyStore bodies, int slot, int i);
+    }
     
     // *************************************************************************
     
@@ -20,20 +39,21 @@ class RandomGenerator {
     // Description:     Generates a random Integer value
     //                      in the range [min, max]
     
-    // Parameters:      min - minimum value (inclusive)
+    // Parameters:      random - The stream to draw from
+    //                  min - minimum value (inclusive)
     //                  max - maximum value (inclusive)
     
     // Returns:         Randomly generated Integer value
     
     // Calls:           Nothing
     
-    // Globals:         r
+    // Globals:         None
 
-    static int generateRandomInteger (int min, int max) {
+    static int generateRandomInteger (SplittableRandom random, int min, int max) {
         
         int range = max - min + 1;
         
-        return r.nextInt(range) + min;
+        return random.nextInt(range) + min;
         
     }
     
@@ -45,26 +65,242 @@ class RandomGenerator {
     //                      in the range [min, max]
     //                      with the specified amount of precision
     
-    // Parameters:            min - minimum value (inclusive)
+    // Parameters:         random - The stream to draw from
+    //                        min - minimum value (inclusive)
     //                        max - maximum value (inclusive)
     //                  precision - # of desired decimal places
     
     // Returns:         Randomly generated Double value
     
+    // Calls:           round
+    
+    // Globals:         None
+    
+    static double generateRandomDouble (SplittableRandom random, double min, double max, int precision) {
+        
+        return round(uniform(random, min, max), precision);
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          uniform
+    
+    // Description:     Draws a value in the range [min, max] from a stream
+    
+    // Parameters:      random - The stream to draw from
+    //                  min - minimum value (inclusive)
+    //                  max - maximum value (inclusive)
+    
+    // Returns:         The value
+    
     // Calls:           Nothing
+    // Globals:         None
+    
+    static double uniform (SplittableRandom random, double min, double max) {
+        return (max - min) * random.nextDouble() + min;
+    }
+    
+    // *************************************************************************
     
-    // Globals:         r
+    // Method:          gaussian
     
-    static double generateRandomDouble (double min, double max, int precision) {
+    // Description:     Draws a standard normal value from a stream
+    //                      (Marsaglia polar method, as in java.util.Random)
+    
+    // Parameters:      random - The stream to draw from
+    
+    // Returns:         The value
+    
+    // Calls:           Nothing
+    // Globals:         None
+    
+    static double gaussian (SplittableRandom random) {
+        
+        double u, v, s;
+        do {
+            u = 2 * random.nextDouble() - 1;
+            v = 2 * random.nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
         
-        double range = max - min;
+        return u * Math.sqrt(-2 * Math.log(s) / s);
         
-        double value = ( range * r.nextDouble() ) + min;
+    }
+    
+    // *************************************************************************
+    
+    // Method:          round
+    
+    // Description:     Rounds a value half up to a number of decimal places,
+    //                      exactly as the rest of the simulation does (see
+    //                      Vector.roundDouble)
+    
+    // Parameters:      value - The value to round
+    //                  precision - # of desired decimal places
+    //                      (negative for no rounding)
+    
+    // Returns:         The rounded value
+    
+    // Calls:           Vector
+    // Globals:         None
+    
+    static double round (double value, int precision) {
+        
+        if (precision < 0) {
+            return value;
+        }
+        
+        return Vector.roundDouble(value, precision);
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          generateBodies
+    
+    // Description:     Fills a body store with n bodies from a sampler,
+    //                      one split stream per block of BLOCK_SIZE bodies
+    
+    // Parameters:      n - Number of bodies
+    //                  s - The seed
+    //                  sampler - Generates each body
+    
+    // Returns:         A store holding the bodies
+    
+    // Calls:           generateBodies
+    
+    // Globals:         None
+    
+    static BodyStore generateBodies (int n, long s, BodySampler sampler) {
+        return generateBodies(n, s, 0, n, sampler);
+    }
+    
+    // *************************************************************************
+    
+    // Method:          generateBodies
+    
+    // Description:     Generates only bodies [first, first + count) of an
+    //                      n-body scenario, exactly as they would come out
+    //                      of the full run (so separate processes can each
+    //                      generate their own share)
+    
+    //                  Bodies of a partly covered block that fall before
+    //                      the range are still drawn, into a scratch store,
+    //                      to keep the block's stream in step
+    
+    // Parameters:      n - Number of bodies in the scenario
+    //                  s - The seed
+    //                  first - Index of the first body to generate
+    //                  count - Number of bodies to generate
+    //                  sampler - Generates each body
+    
+    // Returns:         A store holding the bodies
+    
+    // Calls:           BodyStore
+    
+    // Globals:         None
+    
+    static BodyStore generateBodies (int n, long s, int first, int count, BodySampler sampler) {
+        
+        if (first < 0 || count < 0 || first + count > n) {
+            throw new IllegalArgumentException("Range [" + first + ", " + (first + count) + ") is outside 0 to " + n);
+        }
+        
+        BodyStore bodies = new BodyStore(count);
+        bodies.count = count;
+        
+        int end = first + count;
+        
+        // Split the streams in block order, before any parallel work:
+        int firstBlock = first / BLOCK_SIZE;
+        int blocks = (end + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        SplittableRandom root = new SplittableRandom(s);
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int b = 0; b < blocks; b++) {
+            streams[b] = root.split();
+        }
+        
+        IntStream.range(firstBlock, blocks).parallel().forEach(b -> {
+            BodyStore skipped = new BodyStore(1);
+            int blockEnd = Math.min(end, (b + 1) * BLOCK_SIZE);
+            for (int i = b * BLOCK_SIZE; i < blockEnd; i++) {
+                if (i < first) {
+                    sampler.sample(streams[b], skipped, 0, i);
+                } else {
+                    sampler.sample(streams[b], bodies, i - first, i);
+                }
+            }
+        });
+        
+        return bodies;
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          generateUniformBodies
+    
+    // Description:     Generates bodies with uniformly distributed radius,
+    //                      position and velocity components
+    
+    // Parameters:      n - Number of bodies
+    //                  s - The seed
+    //                  rMin, rMax - Range of radii
+    //                  xMin, xMax, yMin, yMax - Range of positions
+    //                  vMin, vMax - Range of each velocity component
+    //                  precision - # of decimal places to round to
+    //                      (negative for no rounding)
+    
+    // Returns:         A store holding the bodies
+    
+    // Calls:           generateBodies
+    //                  uniformSampler
+    
+    // Globals:         None
+    
+    static BodyStore generateUniformBodies (int n, long s, double rMin, double rMax,
+                                            double xMin, double xMax, double yMin, double yMax,
+                                            double vMin, double vMax, int precision) {
+        
+        return generateBodies(n, s, uniformSampler(rMin, rMax, xMin, xMax, yMin, yMax, vMin, vMax, precision));
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          uniformSampler
+    
+    // Description:     Returns the sampler behind generateUniformBodies
+    
+    // Parameters:      rMin, rMax - Range of radii
+    //                  xMin, xMax, yMin, yMax - Range of positions
+    //                  vMin, vMax - Range of each velocity component
+    //                  precision - # of decimal places to round to
+    //                      (negative for no rounding)
+    
+    // Returns:         The sampler
+    
+    // Calls:           uniform
+    //                  round
+    
+    // Globals:         None
+    
+    static BodySampler uniformSampler (double rMin, double rMax, double xMin, double xMax, double yMin, double yMax,
+                                       double vMin, double vMax, int precision) {
         
-        BigDecimal bd = new BigDecimal(value);
-        bd = bd.setScale(precision, RoundingMode.HALF_UP);
-     
-        return bd.doubleValue();
+        return (random, bodies, slot, i) -> {
+            
+            double radius = round(uniform(random, rMin, rMax), precision);
+            
+            bodies.x[slot] = round(uniform(random, xMin, xMax), precision);
+            bodies.y[slot] = round(uniform(random, yMin, yMax), precision);
+            bodies.vX[slot] = round(uniform(random, vMin, vMax), precision);
+            bodies.vY[slot] = round(uniform(random, vMin, vMax), precision);
+            bodies.radius[slot] = radius;
+            bodies.mass[slot] = Math.PI * radius * radius;
+            
+        };
         
     }
     
@@ -0,0 +1,763 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           ScenarioFile
+// Description:     Object class, representing a scenario (run settings plus
+//                      a body list) read from or written to a file
+
+//                  CSV variant - "# key=value" setting lines, an optional
+//                      "radius,x,y,vX,vY" header, then one body (exactly
+//                      5 numbers) per line
+//                  Binary variant (little-endian) - the magic number GSIM,
+//                      a version, the settings, the body count, then 5
+//                      doubles (radius, x, y, vX, vY) per body
+
+//                  Both are streamed through one fixed-size NIO buffer
+//                      straight into a BodyStore (numbers are parsed from
+//                      the bytes, without a String per line or value), so
+//                      the heap used beyond the store itself is bounded;
+//                      CSV values are read to within an ulp, the binary
+//                      variant is exact
+
+class ScenarioFile {
+
+    // Binary variant identification
+    static final int MAGIC = 0x4D495347;
+    static final int VERSION = 1;
+
+    // Size of the NIO read/write buffer
+    static final int CHUNK_SIZE = 1 << 20;
+
+    // Bytes per body in the binary variant
+    static final int RECORD_SIZE = 5 * Double.BYTES;
+
+    // Exact powers of ten (as doubles) for the CSV number parser
+    static final double[] POWERS_OF_TEN = {
+        1E0, 1E1, 1E2, 1E3, 1E4, 1E5, 1E6, 1E7, 1E8, 1E9, 1E10, 1E11,
+        1E12, 1E13, 1E14, 1E15, 1E16, 1E17, 1E18, 1E19, 1E20, 1E21, 1E22
+    };
+
+    // Run settings
+    double G = 1.00;
+    double tS = 1.0;
+    int grace = 0;
+    int rows = 800, cols = 800, scale = 1;
+    double softening = 0, cutoffRadius = 0;
+
+    // The bodies in the scenario
+    BodyStore bodies;
+
+    // Position in the CSV text while parsing
+    int cursor;
+
+    // *************************************************************************
+
+    // Method:          ScenarioFile
+
+    // Description:     Default constructor for the class (an empty scenario
+    //                      with the default settings)
+
+    // Parameters:      None
+
+    // Returns:         A new instance of the class
+
+    // Calls:           BodyStore
+
+    // Globals:         bodies
+
+    ScenarioFile() {
+        bodies = new BodyStore(0);
+    }
+
+    // *************************************************************************
+
+    // Method:          of
+
+    // Description:     Captures the settings and entities of a simulation
+
+    // Parameters:      simulation - The simulation to capture
+
+    // Returns:         The scenario
+
+    // Calls:           BodyStore
+
+    // Globals:         None
+
+    static ScenarioFile of (Simulation simulation) {
+
+        ScenarioFile scenario = new ScenarioFile();
+
+        scenario.G = simulation.context.G;
+        scenario.tS = simulation.tS;
+        scenario.grace = simulation.grace;
+        scenario.rows = simulation.rows;
+        scenario.cols = simulation.cols;
+        scenario.scale = simulation.scale;
+        scenario.softening = simulation.softening;
+        scenario.cutoffRadius = simulation.cutoffRadius;
+
+        scenario.bodies = BodyStore.gather(simulation.entities, null);
+
+        return scenario;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          applyTo
+
+    // Description:     Copies the settings into a simulation and adds the
+    //                      bodies as entities (the window size is only
+    //                      changed before the display has been opened)
+
+    // Parameters:      simulation - The simulation to set up
+
+    // Returns:         Nothing
+
+    // Calls:           Simulation
+
+    // Globals:         None
+
+    void applyTo (Simulation simulation) {
+
+        simulation.context.G = G;
+        simulation.tS = tS;
+        simulation.grace = grace;
+        simulation.softening = softening;
+        simulation.cutoffRadius = cutoffRadius;
+
+        if (cutoffRadius > 0) {
+            simulation.neighbourList = new NeighbourList(cutoffRadius, simulation.neighbourRebuildInterval);
+        } else {
+            simulation.neighbourList = null;
+        }
+
+        if (simulation.context.display == null) {
+            simulation.rows = rows;
+            simulation.cols = cols;
+            simulation.area = rows * cols;
+            simulation.scale = scale;
+        }
+
+        simulation.addEntities(bodies);
+
+    }
+
+    // *************************************************************************
+
+    // Method:          load
+
+    // Description:     Reads a scenario file, detecting the variant from
+    //                      its first bytes
+
+    // Parameters:      path - The file to read
+
+    // Returns:         The scenario
+
+    // Calls:           readBinary
+    //                  readCsv
+
+    // Globals:         None
+
+    static ScenarioFile load (String path) throws IOException {
+
+        ScenarioFile scenario = new ScenarioFile();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.limit(0);
+
+            fill(channel, buffer, Integer.BYTES);
+
+            if (buffer.remaining() >= Integer.BYTES && buffer.getInt(buffer.position()) == MAGIC) {
+                scenario.readBinary(channel, buffer);
+            } else {
+                scenario.readCsv(channel, buffer);
+            }
+
+        }
+
+        return scenario;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          fill
+
+    // Description:     Reads from the channel until the buffer holds at
+    //                      least a number of bytes (or the file ends), and
+    //                      leaves it ready for reading
+
+    // Parameters:      channel - The file being read
+    //                  buffer - The buffer, ready for reading
+    //                  required - Number of bytes wanted
+
+    // Returns:         False at the end of the file
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static boolean fill (FileChannel channel, ByteBuffer buffer, int required) throws IOException {
+
+        buffer.compact();
+
+        boolean more = true;
+        while (buffer.position() < required) {
+            if (channel.read(buffer) < 0) {
+                more = false;
+                break;
+            }
+        }
+
+        buffer.flip();
+
+        return more;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          readBinary
+
+    // Description:     Reads the binary variant
+
+    // Parameters:      channel - The file being read
+    //                  buffer - The buffer, positioned at the magic number
+
+    // Returns:         Nothing
+
+    // Calls:           fill
+    //                  BodyStore
+
+    // Globals:         G, tS, grace, rows, cols, scale
+    //                  softening, cutoffRadius
+    //                  bodies
+
+    void readBinary (FileChannel channel, ByteBuffer buffer) throws IOException {
+
+        fill(channel, buffer, 64);
+
+        buffer.getInt();
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported scenario version: " + version);
+        }
+
+        G = buffer.getDouble();
+        tS = buffer.getDouble();
+        grace = buffer.getInt();
+        rows = buffer.getInt();
+        cols = buffer.getInt();
+        scale = buffer.getInt();
+        softening = buffer.getDouble();
+        cutoffRadius = buffer.getDouble();
+
+        long count = buffer.getLong();
+        if (count < 0 || count > Integer.MAX_VALUE - 8) {
+            throw new IOException("Invalid body count: " + count);
+        }
+
+        bodies = new BodyStore((int) count);
+
+        while (bodies.count < count) {
+
+            if (buffer.remaining() < RECORD_SIZE && !fill(channel, buffer, RECORD_SIZE) && buffer.remaining() < RECORD_SIZE) {
+                throw new IOException("Scenario ends after " + bodies.count + " of " + count + " bodies");
+            }
+
+            while (buffer.remaining() >= RECORD_SIZE && bodies.count < count) {
+                bodies.add(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          readCsv
+
+    // Description:     Reads the CSV variant, one complete line at a time
+    //                      out of the buffer
+
+    // Parameters:      channel - The file being read
+    //                  buffer - The buffer, positioned at the first byte
+
+    // Returns:         Nothing
+
+    // Calls:           fill
+    //                  readSetting
+    //                  startsWith
+    //                  parseNumber
+    //                  BodyStore
+
+    // Globals:         bodies, cursor
+
+    void readCsv (FileChannel channel, ByteBuffer buffer) throws IOException {
+
+        bodies = new BodyStore(Math.max(16, (int) Math.min(Integer.MAX_VALUE - 8, channel.size() / 40)));
+
+        double[] values = new double[5];
+        boolean more = true, headerAllowed = true;
+        int lineNumber = 0;
+
+        while (true) {
+
+            // Find the end of the next line:
+            int end = -1;
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    end = i;
+                    break;
+                }
+            }
+
+            if (end < 0) {
+                if (more) {
+                    if (buffer.remaining() == buffer.capacity()) {
+                        throw new IOException("Line " + (lineNumber + 1) + " is longer than " + CHUNK_SIZE + " bytes");
+                    }
+                    more = fill(channel, buffer, buffer.remaining() + 1);
+                    continue;
+                }
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+                end = buffer.limit();
+            }
+
+            lineNumber++;
+            int start = buffer.position();
+            int stop = (end > start && buffer.get(end - 1) == '\r') ? end - 1 : end;
+
+            buffer.position(Math.min(end + 1, buffer.limit()));
+
+            // Skip blank lines:
+            if (stop == start) {
+                continue;
+            }
+
+            byte first = buffer.get(start);
+
+            if (first == '#') {
+                readSetting(buffer, start + 1, stop);
+                continue;
+            }
+
+            // Skip the column header, which can only come after the settings
+            // and isn't a number the parser would reject:
+            if (headerAllowed && Character.isLetter(first)
+                    && !startsWith(buffer, start, stop, "NaN") && !startsWith(buffer, start, stop, "Infinity")) {
+                headerAllowed = false;
+                continue;
+            }
+            headerAllowed = false;
+
+            cursor = start;
+            for (int v = 0; v < 5; v++) {
+                values[v] = parseNumber(buffer, stop, lineNumber);
+                if (v < 4) {
+                    if (cursor >= stop || buffer.get(cursor) != ',') {
+                        throw new IOException("Expected 5 values on line " + lineNumber);
+                    }
+                    cursor++;
+                }
+            }
+
+            if (cursor < stop) {
+                throw new IOException("Unexpected characters after the 5th value on line " + lineNumber);
+            }
+
+            if (bodies.count == bodies.capacity()) {
+                bodies.ensureCapacity(bodies.count + 1);
+            }
+            bodies.add(values[0], values[1], values[2], values[3], values[4]);
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          readSetting
+
+    // Description:     Applies a "key=value" setting line of the CSV variant
+    //                      (unknown keys and comments are ignored)
+
+    // Parameters:      buffer - The buffer holding the line
+    //                  start, stop - Range of the line after the '#'
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         G, tS, grace, rows, cols, scale
+    //                  softening, cutoffRadius
+
+    void readSetting (ByteBuffer buffer, int start, int stop) throws IOException {
+
+        byte[] text = new byte[stop - start];
+        buffer.get(start, text);
+
+        String line = new String(text, StandardCharsets.UTF_8).trim();
+        int equals = line.indexOf('=');
+        if (equals < 0) {
+            return;
+        }
+
+        String key = line.substring(0, equals).trim();
+        String value = line.substring(equals + 1).trim();
+
+        try {
+            switch (key) {
+                case "G":
+                    G = Double.parseDouble(value);
+                    break;
+                case "tS":
+                    tS = Double.parseDouble(value);
+                    break;
+                case "grace":
+                    grace = Integer.parseInt(value);
+                    break;
+                case "rows":
+                    rows = Integer.parseInt(value);
+                    break;
+                case "cols":
+                    cols = Integer.parseInt(value);
+                    break;
+                case "scale":
+                    scale = Integer.parseInt(value);
+                    break;
+                case "softening":
+                    softening = Double.parseDouble(value);
+                    break;
+                case "cutoff":
+                    cutoffRadius = Double.parseDouble(value);
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid value for " + key + ": " + value);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          startsWith
+
+    // Description:     Returns whether a line of the buffer starts with some
+    //                      ASCII text
+
+    // Parameters:      buffer - The buffer holding the line
+    //                  start, stop - Range of the line
+    //                  text - The text to look for
+
+    // Returns:         True if the line starts with the text
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static boolean startsWith (ByteBuffer buffer, int start, int stop, String text) {
+
+        if (stop - start < text.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer.get(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          parseNumber
+
+    // Description:     Parses a decimal number ([-+]digits[.digits][e[-+]digits])
+    //                      from the buffer at the cursor, leaving the cursor
+    //                      after it
+
+    // Parameters:      buffer - The buffer holding the line
+    //                  stop - End of the line
+    //                  lineNumber - Line number for error messages
+
+    // Returns:         The value
+
+    // Calls:           Nothing
+
+    // Globals:         cursor
+
+    double parseNumber (ByteBuffer buffer, int stop, int lineNumber) throws IOException {
+
+        int i = cursor;
+        while (i < stop && buffer.get(i) == ' ') {
+            i++;
+        }
+
+        boolean negative = false;
+        if (i < stop && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        boolean seenDigit = false, seenPoint = false;
+
+        for (; i < stop; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                // Keep 18 significant digits (enough for a double):
+                if (digits < 18) {
+                    if (mantissa != 0 || b != '0') {
+                        digits++;
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (seenPoint) {
+                        exponent--;
+                    }
+                } else if (!seenPoint) {
+                    exponent++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+
+        if (!seenDigit) {
+            throw new IOException("Expected a number on line " + lineNumber);
+        }
+
+        if (i < stop && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < stop && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+            int value = 0;
+            boolean seenExponent = false;
+            for (; i < stop && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+                value = Math.min(100000, value * 10 + (buffer.get(i) - '0'));
+                seenExponent = true;
+            }
+            if (!seenExponent) {
+                throw new IOException("Invalid exponent on line " + lineNumber);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        while (i < stop && buffer.get(i) == ' ') {
+            i++;
+        }
+        cursor = i;
+
+        // Exact when the mantissa fits in 53 bits and the power of ten is
+        // exact; otherwise within an ulp or so:
+        double result = mantissa;
+        if (exponent == 0 || mantissa == 0) {
+            // Nothing to scale
+        } else if (exponent > 0 && exponent <= 22) {
+            result *= POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && exponent >= -22) {
+            result /= POWERS_OF_TEN[-exponent];
+        } else {
+            result *= Math.pow(10, exponent);
+        }
+
+        return negative ? -result : result;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          write
+
+    // Description:     Writes the scenario to a file in either variant
+
+    // Parameters:      path - The file to write
+    //                  binary - Write the binary variant instead of CSV
+
+    // Returns:         Nothing
+
+    // Calls:           writeBinary
+    //                  writeCsv
+
+    // Globals:         None
+
+    void write (String path, boolean binary) throws IOException {
+
+        Path file = Paths.get(path);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (binary) {
+                writeBinary(channel, buffer);
+            } else {
+                writeCsv(channel, buffer);
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          drain
+
+    // Description:     Writes out the buffer if it has less room than needed
+
+    // Parameters:      channel - The file being written
+    //                  buffer - The buffer, ready for writing into
+    //                  required - Number of bytes about to be put
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    static void drain (FileChannel channel, ByteBuffer buffer, int required) throws IOException {
+
+        if (buffer.remaining() >= required) {
+            return;
+        }
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+
+    }
+
+    // *************************************************************************
+
+    // Method:          writeBinary
+
+    // Description:     Writes the binary variant
+
+    // Parameters:      channel - The file being written
+    //                  buffer - The buffer, ready for writing into
+
+    // Returns:         Nothing
+
+    // Calls:           drain
+
+    // Globals:         G, tS, grace, rows, cols, scale
+    //                  softening, cutoffRadius
+    //                  bodies
+
+    void writeBinary (FileChannel channel, ByteBuffer buffer) throws IOException {
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putDouble(G);
+        buffer.putDouble(tS);
+        buffer.putInt(grace);
+        buffer.putInt(rows);
+        buffer.putInt(cols);
+        buffer.putInt(scale);
+        buffer.putDouble(softening);
+        buffer.putDouble(cutoffRadius);
+        buffer.putLong(bodies.count);
+
+        for (int i = 0; i < bodies.count; i++) {
+
+            drain(channel, buffer, RECORD_SIZE);
+
+            buffer.putDouble(bodies.radius[i]);
+            buffer.putDouble(bodies.x[i]);
+            buffer.putDouble(bodies.y[i]);
+            buffer.putDouble(bodies.vX[i]);
+            buffer.putDouble(bodies.vY[i]);
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          writeCsv
+
+    // Description:     Writes the CSV variant (values in their shortest
+    //                      round-trip form)
+
+    // Parameters:      channel - The file being written
+    //                  buffer - The buffer, ready for writing into
+
+    // Returns:         Nothing
+
+    // Calls:           drain
+
+    // Globals:         G, tS, grace, rows, cols, scale
+    //                  softening, cutoffRadius
+    //                  bodies
+
+    void writeCsv (FileChannel channel, ByteBuffer buffer) throws IOException {
+
+        String header = "# Gravity Simulator scenario\n"
+                      + "# G=" + G + "\n"
+                      + "# tS=" + tS + "\n"
+                      + "# grace=" + grace + "\n"
+                      + "# rows=" + rows + "\n"
+                      + "# cols=" + cols + "\n"
+                      + "# scale=" + scale + "\n"
+                      + "# softening=" + softening + "\n"
+                      + "# cutoff=" + cutoffRadius + "\n"
+                      + "radius,x,y,vX,vY\n";
+
+        buffer.put(header.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder line = new StringBuilder(128);
+
+        for (int i = 0; i < bodies.count; i++) {
+
+            line.setLength(0);
+            line.append(bodies.radius[i]).append(',')
+                .append(bodies.x[i]).append(',')
+                .append(bodies.y[i]).append(',')
+                .append(bodies.vX[i]).append(',')
+                .append(bodies.vY[i]).append('\n');
+
+            drain(channel, buffer, line.length());
+
+            for (int c = 0; c < line.length(); c++) {
+                buffer.put((byte) line.charAt(c));
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
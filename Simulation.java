@@ -1,11 +1,14 @@
 
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import java.awt.Color;
-import java.util.LinkedList;
+import java.io.IOException;
 
 // *****************************************************************************
 // *****************************************************************************
@@ -18,9 +21,32 @@ class Simulation {
     
     KeyboardInputClass kb;
     
-    // Global list of entities in the simulation
+    // Global list of entities in the simulation (periodically reordered,
+    //  so entities are followed by id rather than by index)
     List<Entity> entities;
     
+    // The entities by id (kept by addEntity and combineEntities; as the
+    //  entries are references, reordering leaves them as they are)
+    Map<Long, Entity> entitiesById = new HashMap<>();
+    
+    // Id for the next entity added
+    long nextId = 0;
+    
+    // Number of iterations between reorderings of the entity list along a
+    //  Morton curve (0 = never)
+    int reorderInterval = 20;
+    
+    // Iterations left until the next reordering
+    int reorderCountdown = 0;
+    
+    // Scratch space for reordering the entity list
+    long[] reorderKeys = new long[0], reorderSorted = new long[0];
+    int[] reorderCounts = new int[1 << REORDER_DIGIT_BITS];
+    Entity[] reorderScratch = new Entity[0];
+    
+    // Bits of the Morton code sorted per radix pass when reordering
+    static final int REORDER_DIGIT_BITS = 10;
+    
     // Dimensions of the visible simulation space
     int rows = 800;
     int cols = 800;
@@ -36,6 +62,7 @@ class Simulation {
     final double x_Min = -cols / 2, x_Max = cols / 2;
     final double y_Min = -rows / 2, y_Max = rows / 2;
     final double v_Min = -100, v_Max = 100;
+    final int n_Max = 1000000;
     
     // Soft limits on data (for random generation)
     double r_LowerBound = 5, r_UpperBound = 25;
@@ -56,19 +83,85 @@ class Simulation {
     // Delay for smoother graphics
     int graphicsDelay = 0;
     
-    // Constants for the simulation computations
-    static double G = 1.00;
+    // Constants, random stream and display of this simulation
+    SimulationContext context;
+    
+    // Plummer softening length for the force (0 = no softening)
+    double softening = 0;
+    
+    // Cutoff radius for short-range forces (0 = no cutoff)
+    double cutoffRadius = 0;
     
-    static double PI = Math.PI;
+    // Number of iterations between neighbour list rebuilds
+    int neighbourRebuildInterval = 10;
+    
+    // Neighbour lists used when running with a cutoff
+    NeighbourList neighbourList;
+    
+    // Force backend used in place of the pairwise sum (null = pairwise)
+    ForceSolver forceSolver;
+    
+    // Quadtree built by this step's force computation, reused as the
+    //  collision broad phase (null = none, or out of date)
+    Quadtree collisionTree;
+    
+    // Time the last collision search spent refitting the tree's swept
+    //  boxes (its broad phase; 0 when every pair was tested)
+    long broadPhaseNanos = 0;
+    
+    // Primitive copy of the entities handed to the force backend
+    BodyStore bodyStore;
     
     // Display entities as a solid color vs just an outline
     boolean fillEntities = false;
     
-    ImageConstruction display;
-    
     // Display collision data on each iteration
     boolean showCollisionOutput = false;
     
+    // Per-step timings and counters
+    SimulationMetrics metrics = new SimulationMetrics();
+    
+    // Standard time step (default value = 1.0)
+    double tS = 1.0;
+    
+    // Conservation diagnostics (null = off)
+    Diagnostics diagnostics;
+    
+    // Zero-garbage stepping: iterate recycles its collision buffer, so
+    //  steps without merges allocate nothing once warmed up
+    boolean zeroGarbage = false;
+    
+    // Collision buffer recycled in zero-garbage mode
+    CollisionBuffer collisionBuffer = new CollisionBuffer();
+    
+    // Collision record reused for every pair tested
+    Collision collisionRecord;
+    
+    // Step event reused in zero-garbage mode
+    StepEvent stepEvent = new StepEvent();
+    
+    // Scratch of collision resolution, reused between substeps: the
+    //  soonest collisions, the entities of one merge, the entities created
+    //  by one processCollisions call, and the index of each entity after
+    //  the list is compacted (-1 once merged; see compactEntities)
+    CollisionBuffer soonestCollisions = new CollisionBuffer();
+    List<Entity> toBeCombined = new ArrayList<>();
+    List<Entity> mergedEntities = new ArrayList<>();
+    int[] survivorIndex = new int[0];
+    
+    // Search for collisions over chunks of entity pairs in parallel (the
+    //  collisions found, and their order, are those of a serial search)
+    boolean parallelCollisions = true;
+    
+    // Fewest entities worth a parallel collision search, and the number of
+    //  chunks of pairs given to each thread
+    static final int PARALLEL_COLLISION_ENTITIES = 256;
+    static final int COLLISION_CHUNKS_PER_THREAD = 4;
+    
+    // Collision buffers and records for the chunks of a parallel search
+    CollisionBuffer[] chunkBuffers = new CollisionBuffer[0];
+    Collision[] chunkRecords = new Collision[0];
+    
     // *************************************************************************
     
     // Method:          Simulation
@@ -80,14 +173,18 @@ class Simulation {
     // Returns:         A new instance of the class
     
     // Calls:           KeyboardInputClass
+    //                  SimulationMetrics
     
     // Globals:         kb
     //                  entities
     //                  rows, cols, area, scale
     //                  grace
+    //                  metrics
     
     Simulation() {
         
+        context = new SimulationContext();
+        
         kb = new KeyboardInputClass();
         
         entities = new ArrayList<>();
@@ -105,6 +202,69 @@ class Simulation {
         
         grace = kb.getInteger(true, grace, 0, 1000000, "\nNumber of time steps to pass before collisions? (default = " + grace + "):");
         
+        // Publish the metrics over JMX:
+        metrics.register();
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          Simulation
+    
+    // Description:     Constructor for the class that takes the display
+    //                      parameters directly instead of prompting for them
+    //                      (used by benchmarks and other non-interactive runs)
+    
+    // Parameters:      rows, cols - Dimensions of the visible simulation space
+    //                  grace - Number of iterations before collisions
+    
+    // Returns:         A new instance of the class
+    
+    // Calls:           KeyboardInputClass
+    
+    // Globals:         kb
+    //                  entities
+    //                  rows, cols, area
+    //                  grace
+    
+    Simulation (int rows, int cols, int grace) {
+        this(rows, cols, grace, new SimulationContext());
+    }
+    
+    // *************************************************************************
+    
+    // Method:          Simulation
+    
+    // Description:     Constructor for the class that takes the display
+    //                      parameters and a context (for seeded runs)
+    
+    // Parameters:      rows, cols - Dimensions of the visible simulation space
+    //                  grace - Number of iterations before collisions
+    //                  context - Constants, random stream and display
+    
+    // Returns:         A new instance of the class
+    
+    // Calls:           KeyboardInputClass
+    
+    // Globals:         kb, context
+    //                  entities
+    //                  rows, cols, area
+    //                  grace
+    
+    Simulation (int rows, int cols, int grace, SimulationContext context) {
+        
+        this.context = context;
+        
+        kb = new KeyboardInputClass();
+        
+        entities = new ArrayList<>();
+        
+        this.rows = rows;
+        this.cols = cols;
+        area = rows*cols;
+        
+        this.grace = grace;
+        
     }
     
     // *************************************************************************
@@ -117,7 +277,9 @@ class Simulation {
     // Returns:         Nothing
     
     // Calls:           KeyboardInputClass
-    //                  Entity
+    //                  RandomGenerator
+    //                  addEntity, addGalaxy
+    //                  loadScenario
     //                  updateDisplay
     
     // Globals:         kb
@@ -130,7 +292,23 @@ class Simulation {
         System.out.println("1. Randomly configure a collection of N entities");
         System.out.println("2. Specify radius, position, and velocity parameters for one or more entites");
         System.out.println("3. Pre-configured conditions");
-        int entitySetup = kb.getInteger(true, 1, 1, 3, "\nChoice? (default = random):");
+        System.out.println("4. Galaxy and disc generators");
+        System.out.println("5. Load a scenario file");
+        int entitySetup = kb.getInteger(true, 1, 1, 5, "\nChoice? (default = random):");
+        
+        // Settings and bodies from a file:
+        if (entitySetup == 5) {
+            loadScenario();
+            updateDisplay();
+            return;
+        }
+        
+        // Large-N galaxy workloads:
+        if (entitySetup == 4) {
+            addGalaxy();
+            updateDisplay();
+            return;
+        }
         
         // Quick setup for collision testing:
         if (entitySetup == 3) {
@@ -143,25 +321,25 @@ class Simulation {
             switch (kb.getInteger(true, 1, 1, 4, "\nChoice?")) {
                 
                 case 1:
-                    entities.add(new Entity(20, -200, +200, +10, -10, this));
-                    entities.add(new Entity(20, +200, +200, -10, -10, this));
+                    addEntity(20, -200, +200, +10, -10);
+                    addEntity(20, +200, +200, -10, -10);
                     updateDisplay();
                     return;
                 case 2:
-                    entities.add(new Entity(20, -200, -200, +10, +10, this));
-                    entities.add(new Entity(20, +200, -200, -10, +10, this));
+                    addEntity(20, -200, -200, +10, +10);
+                    addEntity(20, +200, -200, -10, +10);
                     updateDisplay();
                     return;
                 case 3:
-                    entities.add(new Entity(20, -200, +200, +10, -10, this));
-                    entities.add(new Entity(20, +200, +200, -10, -10, this));
-                    entities.add(new Entity(20, -200, -200, +10, +10, this));
-                    entities.add(new Entity(20, +200, -200, -10, +10, this));
+                    addEntity(20, -200, +200, +10, -10);
+                    addEntity(20, +200, +200, -10, -10);
+                    addEntity(20, -200, -200, +10, +10);
+                    addEntity(20, +200, -200, -10, +10);
                     updateDisplay();
                     return;
                 case 4:
-                    entities.add(new Entity(100, 0, 0, 0, 0, this));
-                    entities.add(new Entity(20, -200, -200, +10, -5, this));
+                    addEntity(100, 0, 0, 0, 0);
+                    addEntity(20, -200, -200, +10, -5);
                     updateDisplay();
                     return;
             }
@@ -169,12 +347,15 @@ class Simulation {
         }
         
         // Getting initial parameters for adding the bodies:
-        int bodiesToAdd = kb.getInteger(true, 10, 0, 100, "\nNumber of entities? (0 to quit and return to simulation) (default = 10):");
+        int bodiesToAdd = kb.getInteger(true, 10, 0, n_Max, "\nNumber of entities? (0 to quit and return to simulation) (default = 10):");
         if (bodiesToAdd == 0) {
             updateDisplay();
             return;
         }
         
+        // Randomly generated bodies, in the order they are added:
+        BodyStore randomBodies = null;
+        
         // Define ranges for randomly generated data:
         if (entitySetup == 1) {
             
@@ -192,6 +373,13 @@ class Simulation {
             v_LowerBound = kb.getDouble(true, v_LowerBound, v_Min, v_Max, "\nMinimum allowable velocity? (default = " + v_LowerBound + "):");
             v_UpperBound = kb.getDouble(true, v_UpperBound, v_LowerBound, v_Max, "\nMaximum allowable velocity? (default = " + v_UpperBound + "):");
             
+            // Seed (so the same setup can be generated again)
+            int seed = kb.getInteger(true, RandomGenerator.generateRandomInteger(context.random, 0, Integer.MAX_VALUE - 1), 0, Integer.MAX_VALUE, "\nRandom seed? (default = random):");
+            System.out.println("\nGenerating " + bodiesToAdd + " entities from seed " + seed);
+            
+            randomBodies = RandomGenerator.generateUniformBodies(bodiesToAdd, seed, r_LowerBound, r_UpperBound,
+                    x_LowerBound, x_UpperBound, y_LowerBound, y_UpperBound, v_LowerBound, v_UpperBound, 1);
+            
         }
         
         // Adding the bodies to the list:
@@ -204,13 +392,13 @@ class Simulation {
                 // Randomly configured (within boundaries):
                 case 1:
                     
-                     R = RandomGenerator.generateRandomDouble(r_LowerBound, r_UpperBound, 1);
+                     R = randomBodies.radius[i];
                     
-                     x = RandomGenerator.generateRandomDouble(x_LowerBound, x_UpperBound, 1);
-                     y = RandomGenerator.generateRandomDouble(y_LowerBound, y_UpperBound, 1);
+                     x = randomBodies.x[i];
+                     y = randomBodies.y[i];
                     
-                    vX = RandomGenerator.generateRandomDouble(v_LowerBound, v_UpperBound, 1);
-                    vY = RandomGenerator.generateRandomDouble(v_LowerBound, v_UpperBound, 1);
+                    vX = randomBodies.vX[i];
+                    vY = randomBodies.vY[i];
                     
                     break;
                     
@@ -251,16 +439,360 @@ class Simulation {
                 
             }
             
-            entities.add(new Entity(R, x, y, vX, vY, this));
+            addEntity(R, x, y, vX, vY);
             
         } // end of adding bodies to the list!
 
+        // New entities need to appear in the neighbour lists:
+        if (neighbourList != null) {
+            neighbourList.invalidate();
+        }
+        
         updateDisplay();
         
     }
     
     // *************************************************************************
     
+    // Method:          addGalaxy
+    
+    // Description:     Prompts for and adds one of the InitialConditions
+    //                      workloads (disc, Plummer sphere or galaxy pair)
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           KeyboardInputClass
+    //                  InitialConditions
+    //                  RandomGenerator
+    //                  addEntities
+    
+    // Globals:         kb
+    //                  r_Min, r_Max, n_Max
+    //                  G
+    
+    void addGalaxy() {
+        
+        System.out.println("\nGalaxy and disc generators:");
+        System.out.println("1. Rotating exponential disc");
+        System.out.println("2. Plummer sphere (projected)");
+        System.out.println("3. Colliding galaxy pair");
+        int generator = kb.getInteger(true, 1, 1, 3, "\nChoice? (default = disc):");
+        
+        int n = kb.getInteger(true, 10000, 1, n_Max, "\nNumber of entities? (default = 10000):");
+        int seed = kb.getInteger(true, RandomGenerator.generateRandomInteger(context.random, 0, Integer.MAX_VALUE - 1), 0, Integer.MAX_VALUE, "\nRandom seed? (default = random):");
+        double bodyRadius = kb.getDouble(true, r_Min, r_Min, r_Max, "\nRadius of each entity? (default = " + r_Min + "):");
+        double scale = kb.getDouble(true, 60, 1, 100000, "\nScale length? (default = 60):");
+        
+        BodyStore bodies;
+        
+        switch (generator) {
+            
+            case 1: {
+                double dispersion = kb.getDouble(true, 0.1, 0, 10, "\nVelocity dispersion, as a fraction of circular velocity? (default = 0.1):");
+                boolean clockwise = kb.getCharacter(true, 'N', "YN", 1, "\nRotate clockwise? (Y/N, default = N):") == 'Y';
+                bodies = InitialConditions.exponentialDisc(n, seed, context.G, bodyRadius, scale, dispersion, 0, 0, 0, 0, clockwise);
+                break;
+            }
+                
+            case 2:
+                bodies = InitialConditions.plummerSphere(n, seed, context.G, bodyRadius, scale, 0, 0, 0, 0);
+                break;
+                
+            default: {
+                double dispersion = kb.getDouble(true, 0.1, 0, 10, "\nVelocity dispersion, as a fraction of circular velocity? (default = 0.1):");
+                double separation = kb.getDouble(true, 6 * scale, 0, 1000000, "\nStarting separation? (default = " + (6 * scale) + "):");
+                double impact = kb.getDouble(true, scale, 0, 1000000, "\nImpact parameter? (default = " + scale + "):");
+                boolean retrograde = kb.getCharacter(true, 'N', "YN", 1, "\nSpin the second galaxy retrograde? (Y/N, default = N):") == 'Y';
+                bodies = InitialConditions.galaxyPair(n, seed, context.G, bodyRadius, scale, dispersion, separation, impact, retrograde);
+                break;
+            }
+                
+        }
+        
+        System.out.println("\nGenerated " + n + " entities from seed " + seed);
+        
+        addEntities(bodies);
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          loadScenario
+    
+    // Description:     Prompts for a scenario file and loads its settings
+    //                      and bodies into the simulation
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           KeyboardInputClass
+    //                  ScenarioFile
+    
+    // Globals:         kb
+    //                  entities
+    
+    void loadScenario() {
+        
+        String path = kb.getString("", "\nScenario file to load? (CSV or binary):");
+        if (path.isEmpty()) {
+            return;
+        }
+        
+        try {
+            long start = System.nanoTime();
+            ScenarioFile scenario = ScenarioFile.load(path);
+            scenario.applyTo(this);
+            System.out.printf("\nLoaded %d entities from %s in %.2f s\n", scenario.bodies.count, path, (System.nanoTime() - start) / 1e9);
+        } catch (IOException e) {
+            System.out.println("\nCould not load " + path + ": " + e.getMessage());
+        }
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          saveScenario
+    
+    // Description:     Prompts for a file and saves the simulation's
+    //                      settings and entities to it
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           KeyboardInputClass
+    //                  ScenarioFile
+    
+    // Globals:         kb
+    
+    void saveScenario() {
+        
+        String path = kb.getString("", "\nFile to save the scenario to? (ending in .csv for CSV, otherwise binary):");
+        if (path.isEmpty()) {
+            return;
+        }
+        
+        try {
+            ScenarioFile.of(this).write(path, !path.toLowerCase().endsWith(".csv"));
+            System.out.println("\nSaved " + entities.size() + " entities to " + path);
+        } catch (IOException e) {
+            System.out.println("\nCould not save " + path + ": " + e.getMessage());
+        }
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          addEntities
+    
+    // Description:     Adds an entity for every body in a body store
+    //                      (for setups generated in bulk)
+    
+    // Parameters:      bodies - The bodies to add
+    
+    // Returns:         Nothing
+    
+    // Calls:           addEntity
+    
+    // Globals:         entities
+    //                  neighbourList
+    
+    void addEntities (BodyStore bodies) {
+        
+        if (entities instanceof ArrayList) {
+            ((ArrayList<Entity>) entities).ensureCapacity(entities.size() + bodies.count);
+        }
+        
+        for (int i = 0; i < bodies.count; i++) {
+            addEntity(bodies.radius[i], bodies.x[i], bodies.y[i], bodies.vX[i], bodies.vY[i]);
+        }
+        
+        if (neighbourList != null) {
+            neighbourList.invalidate();
+        }
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          addEntity
+    
+    // Description:     Adds a new entity to the simulation, giving it the
+    //                      next id
+    
+    // Parameters:      r - Radius
+    //                  x, y - Position
+    //                  vX, vY - Velocity
+    
+    // Returns:         The new entity
+    
+    // Calls:           Entity
+    //                  invalidateTree
+    
+    // Globals:         entities, entitiesById
+    //                  nextId
+    
+    Entity addEntity (double r, double x, double y, double vX, double vY) {
+        
+        Entity e = new Entity(r, x, y, vX, vY, this);
+        e.id = nextId++;
+        
+        entities.add(e);
+        entitiesById.put(e.id, e);
+        invalidateTree();
+        
+        return e;
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          invalidateTree
+    
+    // Description:     Marks any quadtree as out of date after entities
+    //                      are added, removed or reordered, so it is
+    //                      rebuilt rather than refit
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           Quadtree
+    
+    // Globals:         forceSolver
+    //                  collisionTree
+    
+    void invalidateTree() {
+        
+        collisionTree = null;
+        
+        if (forceSolver instanceof Quadtree) {
+            ((Quadtree) forceSolver).invalidate();
+        }
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          findEntity
+    
+    // Description:     Finds an entity by its id (ids survive reordering,
+    //                      and a merged entity keeps the lowest id of its
+    //                      parts, so the display and any recorded
+    //                      trajectories can follow an entity by id)
+    
+    // Parameters:      id - The id of the entity
+    
+    // Returns:         The entity, or null if there is none with the id
+    
+    // Calls:           Nothing
+    
+    // Globals:         entitiesById
+    
+    Entity findEntity (long id) {
+        return entitiesById.get(id);
+    }
+    
+    // *************************************************************************
+    
+    // Method:          reorderEntities
+    
+    // Description:     Sorts the entity list along a Morton curve through
+    //                      the entities' positions, so entities near each
+    //                      other in space are near each other in the list
+    //                      (and, once the collector has copied them in list
+    //                      order, in memory)
+    
+    //                  The entities keep their ids; indices held from
+    //                      before the call are no longer valid
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           Quadtree
+    //                  invalidateTree
+    
+    // Globals:         entities
+    //                  reorderKeys, reorderSorted, reorderCounts
+    //                  reorderScratch
+    
+    void reorderEntities() {
+        
+        int n = entities.size();
+        if (n < 2) {
+            return;
+        }
+        
+        if (reorderKeys.length < n) {
+            reorderKeys = new long[n + n / 2];
+            reorderSorted = new long[n + n / 2];
+            reorderScratch = new Entity[n + n / 2];
+        }
+        
+        // Bounding square of the entities:
+        double xLow = Double.MAX_VALUE, xHigh = -Double.MAX_VALUE;
+        double yLow = Double.MAX_VALUE, yHigh = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Entity e = entities.get(i);
+            xLow = Math.min(xLow, e.position.getX());
+            xHigh = Math.max(xHigh, e.position.getX());
+            yLow = Math.min(yLow, e.position.getY());
+            yHigh = Math.max(yHigh, e.position.getY());
+        }
+        
+        double scale = (1 << Quadtree.BITS) / (Math.max(xHigh - xLow, yHigh - yLow) * 1.0001 + 1E-9);
+        
+        for (int i = 0; i < n; i++) {
+            Entity e = entities.get(i);
+            reorderKeys[i] = (Quadtree.mortonCode(e.position.getX() - xLow, e.position.getY() - yLow, scale) << 32) | i;
+        }
+        
+        // Stable radix sort on the codes (Arrays.sort may allocate on the
+        // nearly sorted keys of every reordering after the first):
+        int digits = (2 * Quadtree.BITS + REORDER_DIGIT_BITS - 1) / REORDER_DIGIT_BITS;
+        int mask = (1 << REORDER_DIGIT_BITS) - 1;
+        for (int d = 0; d < digits; d++) {
+            
+            int shift = 32 + d * REORDER_DIGIT_BITS;
+            
+            Arrays.fill(reorderCounts, 0);
+            for (int i = 0; i < n; i++) {
+                reorderCounts[(int) (reorderKeys[i] >>> shift) & mask]++;
+            }
+            
+            int total = 0;
+            for (int c = 0; c <= mask; c++) {
+                int count = reorderCounts[c];
+                reorderCounts[c] = total;
+                total += count;
+            }
+            
+            for (int i = 0; i < n; i++) {
+                reorderSorted[reorderCounts[(int) (reorderKeys[i] >>> shift) & mask]++] = reorderKeys[i];
+            }
+            
+            long[] swap = reorderKeys;
+            reorderKeys = reorderSorted;
+            reorderSorted = swap;
+            
+        }
+        
+        for (int k = 0; k < n; k++) {
+            reorderScratch[k] = entities.get((int) reorderKeys[k]);
+        }
+        for (int k = 0; k < n; k++) {
+            entities.set(k, reorderScratch[k]);
+        }
+        
+        // Don't hold on to entities that may later merge away:
+        Arrays.fill(reorderScratch, 0, n, null);
+        
+        // Any tree refers to the old order:
+        invalidateTree();
+        
+    }
+    
+    // *************************************************************************
+    
     // Method:          simulationMenu
     
     // Description:     Displays the main menu for the simulation
@@ -279,15 +811,13 @@ class Simulation {
     //                  i_default
     //                  z_default
     //                  p_default
-    //                  G, fillEntities, graphicsDelay
+    //                  fillEntities, graphicsDelay
     //                  entities
-    //                  display
+    //                  context
+    //                  tS, diagnostics
     
     void simulationMenu() {
         
-        // Standard time step (default value = 1.0)
-        double tS = 1.0;
-        
         // Loop menu until user decides to exit
         while (true) {
 
@@ -332,22 +862,22 @@ class Simulation {
                     
                     switch (choice) {
                         case "ZI":
-                            display.xLeft /= z_Default;
-                            display.xRight /= z_Default;
-                            display.yBottom /= z_Default;
-                            display.yTop /= z_Default;
+                            context.display.xLeft /= z_Default;
+                            context.display.xRight /= z_Default;
+                            context.display.yBottom /= z_Default;
+                            context.display.yTop /= z_Default;
                             break;
                         case "ZO":
-                            display.xLeft *= z_Default;
-                            display.xRight *= z_Default;
-                            display.yBottom *= z_Default;
-                            display.yTop *= z_Default;
+                            context.display.xLeft *= z_Default;
+                            context.display.xRight *= z_Default;
+                            context.display.yBottom *= z_Default;
+                            context.display.yTop *= z_Default;
                             break;
                     }
                     
                     // Recalculate image parameters:
-                    display.xRange = display.xRight-display.xLeft;
-                    display.yRange = display.yTop-display.yBottom;
+                    context.display.xRange = context.display.xRight-context.display.xLeft;
+                    context.display.yRange = context.display.yTop-context.display.yBottom;
                     
                     updateDisplay();
                     
@@ -357,25 +887,25 @@ class Simulation {
                     
                     p_Default = kb.getDouble(true, p_Default, 0.1, 100, "\nPan factor? (default = " + p_Default + "):");
                     
-                    double panX = display.xRange * p_Default;
-                    double panY = display.yRange * p_Default;
+                    double panX = context.display.xRange * p_Default;
+                    double panY = context.display.yRange * p_Default;
                     
                     switch (choice) {
                         case "PU":
-                            display.yBottom += panY;
-                            display.yTop += panY;
+                            context.display.yBottom += panY;
+                            context.display.yTop += panY;
                             break;
                         case "PD":
-                            display.yBottom -= panY;
-                            display.yTop -= panY;
+                            context.display.yBottom -= panY;
+                            context.display.yTop -= panY;
                             break;
                         case "PL":
-                            display.xLeft -= panX;
-                            display.xRight -= panX;
+                            context.display.xLeft -= panX;
+                            context.display.xRight -= panX;
                             break;
                         case "PR":
-                            display.xLeft += panX;
-                            display.xRight += panX;
+                            context.display.xLeft += panX;
+                            context.display.xRight += panX;
                             break;
                     }
                     
@@ -385,10 +915,10 @@ class Simulation {
                     
                 case "H":
                     
-                    display.xLeft = -display.xRange/2;
-                    display.xRight = display.xRange/2;
-                    display.yBottom = -display.yRange/2;
-                    display.yTop = display.yRange/2;
+                    context.display.xLeft = -context.display.xRange/2;
+                    context.display.xRight = context.display.xRange/2;
+                    context.display.yBottom = -context.display.yRange/2;
+                    context.display.yTop = context.display.yRange/2;
                     
                     updateDisplay();
                     
@@ -423,13 +953,23 @@ class Simulation {
                     System.out.println("2. Change value of G");
                     System.out.println("3. Switch between solid colored or outlined entities");
                     System.out.println("4. Specify delay time between graphics updates");
-                    System.out.println("5. Go back");
-                    switch (kb.getInteger(true, 5, 1, 5, "\nChoice? (default = go back):")) {
+                    System.out.println("5. Change force softening and cutoff");
+                    System.out.println("6. Change force method");
+                    System.out.println("7. Conservation diagnostics");
+                    System.out.println("8. Save a scenario file");
+                    System.out.println("9. Go back");
+                    switch (kb.getInteger(true, 9, 1, 9, "\nChoice? (default = go back):")) {
                         case 1:
                             addBodies();
+                            if (diagnostics != null) {
+                                diagnostics.rebase();
+                            }
                             break;
                         case 2:
-                            G = kb.getDouble(true, G, 0, 1000000, "\nValue for G? (default = " + G + ")");
+                            context.G = kb.getDouble(true, context.G, 0, 1000000, "\nValue for G? (default = " + context.G + ")");
+                            if (diagnostics != null) {
+                                diagnostics.rebase();
+                            }
                             break;
                         case 3:
                             if (fillEntities == false) {
@@ -445,6 +985,25 @@ class Simulation {
                             graphicsDelay = kb.getInteger(true, graphicsDelay, 0, 1000, "\nSpecify graphics update delay in milliseconds (default = " + graphicsDelay + "):");
                             break;
                         case 5:
+                            softening = kb.getDouble(true, softening, 0, 1000, "\nSoftening length? (0 for none) (default = " + softening + "):");
+                            cutoffRadius = kb.getDouble(true, cutoffRadius, 0, 1000000, "\nCutoff radius? (0 for none) (default = " + cutoffRadius + "):");
+                            if (cutoffRadius > 0) {
+                                neighbourRebuildInterval = kb.getInteger(true, neighbourRebuildInterval, 1, 1000, "\nIterations between neighbour list rebuilds? (default = " + neighbourRebuildInterval + "):");
+                                neighbourList = new NeighbourList(cutoffRadius, neighbourRebuildInterval);
+                            } else {
+                                neighbourList = null;
+                            }
+                            break;
+                        case 6:
+                            selectForceMethod();
+                            break;
+                        case 7:
+                            configureDiagnostics();
+                            break;
+                        case 8:
+                            saveScenario();
+                            break;
+                        case 9:
                             break;
                     }
                     
@@ -453,10 +1012,16 @@ class Simulation {
                 case "S":
                     
                     System.out.println("\nThere are " + entities.size() + " entities in the simulation.");
-                    System.out.println("\n X       Y        vX      vY       aX      aY     R");
+                    System.out.println("\n    ID    X       Y        vX      vY       aX      aY     R");
                     
                     for (Entity e : entities) {
-                        System.out.printf("%6.1f, %6.1f, %6.1f, %6.1f, %6.1f, %6.1f, %6.1f\n", e.position.getX(), e.position.getY(), e.velocity.getX(), e.velocity.getY(), e.acceleration.getX(), e.acceleration.getY(), e.radius);
+                        System.out.printf("%6d, %6.1f, %6.1f, %6.1f, %6.1f, %6.1f, %6.1f, %6.1f\n", e.id, e.position.getX(), e.position.getY(), e.velocity.getX(), e.velocity.getY(), e.acceleration.getX(), e.acceleration.getY(), e.radius);
+                    }
+                    
+                    metrics.print();
+                    
+                    if (diagnostics != null) {
+                        diagnostics.print(10);
                     }
                     
                     if (kb.getCharacter(true, 'N', "YN", 1, "\nDisplay collision information on each iteration? (Y/N, default = N):") == 'Y') {
@@ -469,14 +1034,22 @@ class Simulation {
                     
                 case "R":
                     if (kb.getCharacter(true, 'N', "YN", 1, "\nAre you sure you want to restart the simulation? (Y/N, default = N):") == 'Y') {
-                        display.closeDisplay();
+                        context.display.closeDisplay();
+                        metrics.unregister();
+                        if (diagnostics != null) {
+                            diagnostics.close();
+                        }
                         return;
                     }
                     break;
                     
                 case "E":
                     if (kb.getCharacter(true, 'N', "YN", 1, "\nAre you sure you want to exit the simulation? (Y/N, default = N):") == 'Y') {
-                        display.closeDisplay();
+                        context.display.closeDisplay();
+                        metrics.unregister();
+                        if (diagnostics != null) {
+                            diagnostics.close();
+                        }
                         System.out.println("\nExiting program...\n");
                         System.exit(0);
                     }
@@ -494,59 +1067,272 @@ class Simulation {
     
     // *************************************************************************
     
+    // Method:          selectForceMethod
+    
+    // Description:     Lets the user choose the force backend, and optionally
+    //                      validates it against direct summation
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           KeyboardInputClass
+    //                  ParticleMesh
+    //                  FastMultipole
+    //                  DirectSumSolver
+    //                  Quadtree
+    //                  ForceComparison
+    //                  BodyStore
+    
+    // Globals:         kb
+    //                  forceSolver, bodyStore
+    //                  entities, rows, cols
+    
+    void selectForceMethod() {
+        
+        System.out.println("\nCurrent force method is " + (forceSolver == null ? "pairwise summation" : forceSolver.getName()));
+        System.out.println("");
+        System.out.println("1. Pairwise summation");
+        System.out.println("2. Particle-mesh (periodic)");
+        System.out.println("3. Fast multipole");
+        System.out.println("4. Direct summation (Vector API kernel when available)");
+        System.out.println("5. Direct summation (mixed precision Vector API kernel when available)");
+        System.out.println("6. Barnes-Hut quadtree (also used for collisions)");
+        
+        switch (kb.getInteger(true, 1, 1, 6, "\nChoice? (default = pairwise):")) {
+            case 1:
+                forceSolver = null;
+                return;
+            case 2:
+                int gridSize = kb.getInteger(true, 256, 2, 8192, "\nGrid cells per side? (power of 2) (default = 256):");
+                while (!FFT.isPowerOfTwo(gridSize)) {
+                    gridSize = kb.getInteger(true, 256, 2, 8192, "\nGrid size must be a power of 2. Grid cells per side? (default = 256):");
+                }
+                int boxSize = Math.max(rows, cols);
+                forceSolver = new ParticleMesh(gridSize, -boxSize / 2.0, -boxSize / 2.0, boxSize);
+                break;
+            case 3:
+                int order = kb.getInteger(true, 6, 1, 20, "\nExpansion order? (default = 6):");
+                int leafSize = kb.getInteger(true, 16, 1, 1000, "\nTarget entities per leaf cell? (default = 16):");
+                forceSolver = new FastMultipole(order, leafSize);
+                break;
+            case 4:
+                forceSolver = DirectSumSolver.select(this, "VectorizedDirectSolver");
+                break;
+            case 5:
+                forceSolver = DirectSumSolver.select(this, "MixedPrecisionSolver");
+                break;
+            case 6:
+                double angle = kb.getDouble(true, 0.5, 0, 2, "\nOpening angle? (0 = exact) (default = 0.5):");
+                int bucketSize = kb.getInteger(true, 8, 1, 1000, "\nTarget entities per leaf cell? (default = 8):");
+                forceSolver = new Quadtree(angle, bucketSize);
+                break;
+        }
+        
+        if (!entities.isEmpty() && kb.getCharacter(true, 'N', "YN", 1, "\nValidate against direct summation? (Y/N, default = N):") == 'Y') {
+            bodyStore = BodyStore.gather(entities, bodyStore);
+            ForceComparison.report(bodyStore, forceSolver, this);
+        }
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          configureDiagnostics
+    
+    // Description:     Lets the user turn the conservation diagnostics on
+    //                      or off and set their cadence, drift tolerance and
+    //                      output file
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           KeyboardInputClass
+    //                  Diagnostics
+    
+    // Globals:         kb
+    //                  diagnostics
+    
+    void configureDiagnostics() {
+        
+        int interval = (diagnostics == null) ? 10 : diagnostics.interval;
+        double tolerance = (diagnostics == null) ? 1E-3 : diagnostics.tolerance;
+        
+        interval = kb.getInteger(true, interval, 0, 1000000, "\nIterations between samples? (0 to turn diagnostics off) (default = " + interval + "):");
+        
+        if (diagnostics != null) {
+            diagnostics.close();
+        }
+        
+        if (interval == 0) {
+            diagnostics = null;
+            System.out.println("\nConservation diagnostics are off.");
+            return;
+        }
+        
+        tolerance = kb.getDouble(true, tolerance, 0, 1, "\nRelative energy drift that halves the time step? (0 for no alarm) (default = " + tolerance + "):");
+        
+        diagnostics = new Diagnostics(interval, tolerance);
+        
+        String path = kb.getString("", "\nFile to write the time series to? (blank for none):");
+        if (!path.isEmpty()) {
+            try {
+                diagnostics.open(path);
+            } catch (IOException e) {
+                System.out.println("\nCould not open " + path + ": " + e.getMessage());
+            }
+        }
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          computeAccelerations
+    
+    // Description:     Updates the acceleration of every entity, either
+    //                      through the pairwise sum in Entity or through
+    //                      the selected force backend
+    
+    //                  A quadtree backend's tree is kept for the
+    //                      collision pass of the same step
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           Entity
+    //                  BodyStore
+    //                  ForceSolver
+    
+    // Globals:         entities
+    //                  forceSolver, bodyStore
+    //                  collisionTree
+    
+    void computeAccelerations() {
+        
+        collisionTree = null;
+        
+        if (forceSolver == null) {
+            for (int i = 0; i < entities.size(); i++) {
+                entities.get(i).updateAcceleration();
+            }
+            return;
+        }
+        
+        bodyStore = BodyStore.gather(entities, bodyStore);
+        forceSolver.computeAccelerations(bodyStore, this);
+        bodyStore.scatterAccelerations(entities);
+        
+        if (forceSolver instanceof Quadtree) {
+            collisionTree = (Quadtree) forceSolver;
+        }
+        
+    }
+    
+    // *************************************************************************
+    
     // Method:          updateDisplay
     
-    // Description:     Updates the graphics display with the latest data
-    //                      from the simulation
+    // Description:     Confirms the entities' future values, then updates
+    //                      the graphics display with the latest data from
+    //                      the simulation (unless running headless)
     
     // Parameters:      None
     // Returns:         Nothing
     
     // Calls:           ImageConstruction
     //                  Entity
+    //                  renderFrame
+    //                  FrameEvent
     
-    // Globals:         display
+    // Globals:         context
     //                  entities
-    //                  mass, area, radius
-    //                  Vector
     //                  graphicsDelay
+    //                  metrics
     
     void updateDisplay() {
         
-        // If the display hasn't been set up yet:
-        if (display == null) {
-            display = new ImageConstruction(rows+1, cols+1, -cols/2, cols/2, -rows/2, rows/2, scale);
-            display.displayImage(true, "Gravity Simulation", false);
+        // Update velocity and position with future values:
+        for (int i = 0; i < entities.size(); i++) {
+            entities.get(i).confirmVelocity();
+            entities.get(i).confirmPosition();
+        }
+        
+        if (context.headless) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        
+        FrameEvent frame = new FrameEvent();
+        frame.begin();
+        
+        boolean firstFrame = (context.display == null);
+        
+        renderFrame();
+        
+        // If the display hasn't been set up yet, open the window:
+        if (firstFrame) {
+            context.display.displayImage(true, "Gravity Simulation", false);
+        // Otherwise, overwrite the new pixel values in the RGB arrays:
+        } else {
+            context.display.setPixelValues();
+        }
+        
+        metrics.record(SimulationMetrics.RENDER, System.nanoTime() - start);
+        
+        if (frame.shouldCommit()) {
+            frame.entities = entities.size();
+            frame.firstFrame = firstFrame;
+            frame.commit();
+        }
+        
+        // Wait a moment for smoother graphics:
+        try {
+            Thread.sleep(graphicsDelay);
+        } catch (Exception e) {
+            // Don't do anything
+        }
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          renderFrame
+    
+    // Description:     Draws the entities into the display image
+    //                      (without pushing it to the window)
+    
+    // Parameters:      None
+    // Returns:         Nothing
+    
+    // Calls:           ImageConstruction
+    //                  Entity
+    
+    // Globals:         context
+    //                  entities
+    //                  mass, area, radius
+    //                  fillEntities
+    
+    void renderFrame() {
+        
+        // If the image hasn't been set up yet:
+        if (context.display == null) {
+            context.display = new ImageConstruction(rows+1, cols+1, -cols/2, cols/2, -rows/2, rows/2, scale);
         // Otherwise, wipe the old image:
         } else {
-            display.clearImage(0, 0, 0);
+            context.display.clearImage(0, 0, 0);
         }
         
         // For all entities in the simulation:
         for (Entity e : entities) {
             
-            // Update velocity and position with future values:
-            e.confirmVelocity();
-            e.confirmPosition();
-            
             // Get the appropriate color for this entity:
             Color c = Entity.getColorValue(e.mass, area);
             
             // Insert this entity into the image:
-            display.insertCircle(e.position.getX(), e.position.getY(), e.radius, c.getRed(), c.getGreen(), c.getBlue(), fillEntities);
+            context.display.insertCircle(e.position.getX(), e.position.getY(), e.radius, c.getRed(), c.getGreen(), c.getBlue(), fillEntities);
             
         }
         
-        // Overwrite the new pixel values in the RGB arrays:
-        display.setPixelValues();
-        
-        // Wait a moment for smoother graphics:
-        try {
-            Thread.sleep(graphicsDelay);
-        } catch (Exception e) {
-            // Don't do anything
-        }
-        
     }
     
     // *************************************************************************
@@ -555,80 +1341,116 @@ class Simulation {
     
     // Description:     Performs one iteration of the simulation
     
+    //                  Every collision predicted within the step is
+    //                      processed, in time order, so the step always
+    //                      covers the full working time step
+    
     // Parameters:      tS - The value of the standard time step
     
     // Returns:         Nothing
     
     // Calls:           Entity
+    //                  StepEvent
+    //                  reorderEntities
+    //                  computeAccelerations
+    //                  computeCollisions
+    //                  resolveCollisions
     //                  updateDisplay
     
     // Globals:         entities
+    //                  reorderInterval, reorderCountdown
     //                  grace
+    //                  neighbourList
+    //                  metrics, broadPhaseNanos
+    //                  diagnostics
+    //                  zeroGarbage, stepEvent
     
     void iterate (double tS) {
         
         // Set the working time step equal to the standard time step:
         double tW = tS;
         
+        // Reorder the entities along a Morton curve if it is due:
+        if (reorderInterval > 0 && --reorderCountdown <= 0) {
+            reorderEntities();
+            reorderCountdown = reorderInterval;
+        }
+        
+        // Rebuild the neighbour lists if they are due:
+        if (neighbourList != null) {
+            neighbourList.update(entities);
+        }
+        
+        // Zero-garbage mode reuses one event (end() resets its duration):
+        StepEvent step = zeroGarbage ? stepEvent : new StepEvent();
+        step.begin();
+        
+        int entitiesAtStart = entities.size();
+        
+        long start = System.nanoTime();
+        
         // Compute acceleration, futureVelocity, and futurePosition
-        for (Entity e : entities) {
-            e.updateAcceleration();
-            e.updateVelocity(tW);
-            e.updatePosition(tW);
+        computeAccelerations();
+        long forceEnd = System.nanoTime();
+        
+        // Sample the conserved quantities from the state the forces were
+        // computed for, halving the time step if the energy has drifted:
+        if (diagnostics != null && diagnostics.isDue() && diagnostics.sample(entities)) {
+            if (this.tS / 2 >= diagnostics.minimumTimeStep) {
+                this.tS = this.tS / 2;
+                tW = Math.min(tW, this.tS);
+                if (!context.headless) {
+                    System.out.println("\nEnergy drift exceeded " + diagnostics.tolerance + "; standard time step is now " + this.tS);
+                }
+            }
         }
         
+        for (int i = 0; i < entities.size(); i++) {
+            entities.get(i).updateVelocity(tW);
+            entities.get(i).updatePosition(tW);
+        }
+        long integrateEnd = System.nanoTime();
+        
+        metrics.record(SimulationMetrics.FORCE, forceEnd - start);
+        metrics.record(SimulationMetrics.INTEGRATE, integrateEnd - forceEnd);
+        
+        // Collision counts and time for the metrics:
+        long candidatePairs = 0, predicted = 0, merged = 0;
+        long collisionTime = 0;
+        
         // Check for grace period before computing collisions:
         if (grace == 0) {
 
-            // Compute all collisions (handshake problem):
-            List<Collision> collisions = new LinkedList<>();
-            for (int i = 0; i < entities.size(); i++) {
-                Entity currentEntity = entities.get(i);
-                for (int j = i + 1; j < entities.size(); j++) {
-                    Collision currentCollision = currentEntity.computeCollision(entities.get(j), tW);
-                    if (currentCollision != null) {
-                        collisions.add(currentCollision);
-                    }
-                }
-            }
+            // Compute all collisions (the candidate pairs come from the
+            // tree's swept boxes when there is one, else every pair is one):
+            CollisionBuffer collisions = computeCollisions(tW);
+            collisionTime = System.nanoTime() - integrateEnd;
+            metrics.record(SimulationMetrics.BROAD_PHASE, broadPhaseNanos);
+            metrics.record(SimulationMetrics.NARROW_PHASE, collisionTime - broadPhaseNanos);
+            
+            candidatePairs = collisions.tested;
+            predicted = collisions.size;
             
             if (showCollisionOutput) {
-                System.out.println("\nThere were " + collisions.size() + " collisions to process in the last time step.");
-                if (!collisions.isEmpty()) {
+                System.out.println("\nThere were " + collisions.size + " collisions to process in the last time step.");
+                if (collisions.size > 0) {
                     System.out.println("");
-                    for (Collision c: collisions) {
-                        System.out.println("\nCollision at " + c.xC + ", " + c.yC + " with time " + c.tC);
+                    for (int k = 0; k < collisions.size; k++) {
+                        System.out.println("\nCollision at " + collisions.xC[k] + ", " + collisions.yC[k] + " with time " + collisions.tC[k]);
                     }
                 }
             }
 
             // If there were collisions:
-            if (!collisions.isEmpty()) {
-
-                // Sort them and only process the ones occurring soonest:
-                Collections.sort(collisions);
-                double shortestCollisionTime = collisions.get(0).tC;
-                for (Collision c : new ArrayList<>(collisions)) {
-                    if (c.tC > shortestCollisionTime) {
-                        collisions.remove(c);
-                    }
-                }
-
-                // Keep track of the entities that were collided:
-                List<Entity> newEntites = processCollisions(collisions);
-
-                // Change the duration of the working time step:
-                tW = shortestCollisionTime;
+            if (collisions.size > 0) {
+                
+                long mergeStart = System.nanoTime();
 
-                // For the new working time step, re-compute vectors:
-                for (Entity e : entities) {
-                    
-                    // Only for entities not involved in collisions
-                    if (!newEntites.contains(e)) {
-                        e.updateVelocity(tW);
-                        e.updatePosition(tW);
-                    }
-                }
+                // Process them all, in time order, through the step:
+                List<Entity> newEntities = resolveCollisions(collisions, tW);
+                
+                merged = newEntities.size();
+                metrics.record(SimulationMetrics.MERGE, System.nanoTime() - mergeStart);
 
             }
 
@@ -639,6 +1461,24 @@ class Simulation {
             
         }
         
+        metrics.endStep(candidatePairs, predicted, merged);
+        
+        if (diagnostics != null) {
+            diagnostics.endStep(tW, merged > 0);
+        }
+        
+        step.end();
+        if (step.shouldCommit()) {
+            step.entities = entitiesAtStart;
+            step.timeStep = tS;
+            step.workingTimeStep = tW;
+            step.collisions = (int) predicted;
+            step.forceTime = forceEnd - start;
+            step.broadPhaseTime = broadPhaseNanos;
+            step.narrowPhaseTime = collisionTime - broadPhaseNanos;
+            step.commit();
+        }
+        
         // Update the simulation:
         updateDisplay();
         
@@ -646,66 +1486,409 @@ class Simulation {
     
     // *************************************************************************
     
+    // Method:          computeCollisions
+    
+    // Description:     Finds every pair of entities that will collide within
+    //                      the working time step (handshake problem)
+    
+    //                  With enough entities the rows of the handshake are
+    //                      split into chunks of about the same number of
+    //                      pairs, searched in parallel into buffers of
+    //                      their own, and joined in row order, so the
+    //                      result is the same as for a serial search
+    
+    //                  When the step's forces came from a quadtree, the
+    //                      tree is refit with the boxes swept over the
+    //                      working time step, and only the pairs whose
+    //                      boxes overlap are tested (chunks then take
+    //                      equal numbers of rows)
+    
+    //                  In zero-garbage mode the buffer is recycled, and
+    //                      only valid until the next call (the search stays
+    //                      serial, as the parallel tasks allocate)
+    
+    // Parameters:      tW - The working time step
+    
+    // Returns:         A buffer of the predicted collision events
+    
+    // Calls:           CollisionBuffer
+    //                  Quadtree
+    //                  findCollisions
+    
+    // Globals:         entities
+    //                  zeroGarbage, parallelCollisions
+    //                  collisionBuffer, collisionRecord
+    //                  chunkBuffers, chunkRecords
+    //                  collisionTree, broadPhaseNanos
+    
+    CollisionBuffer computeCollisions (double tW) {
+        
+        CollisionBuffer collisions = zeroGarbage ? collisionBuffer.clear() : new CollisionBuffer();
+        
+        int n = entities.size();
+        
+        // The tree is only of use if it was built for these entities:
+        Quadtree tree = (collisionTree != null && collisionTree.count == n) ? collisionTree : null;
+        
+        // (Its queries are interleaved with the pair tests, so only the
+        // sweep is timed as the broad phase)
+        long sweepStart = System.nanoTime();
+        if (tree != null) {
+            tree.sweep(entities, tW);
+        }
+        broadPhaseNanos = (tree != null) ? System.nanoTime() - sweepStart : 0;
+        
+        if (zeroGarbage || !parallelCollisions || n < PARALLEL_COLLISION_ENTITIES) {
+            collisionRecord = findCollisions(tW, 0, n, tree, collisions, collisionRecord);
+            return collisions;
+        }
+        
+        // Compute any lazily derived components up front, so the threads
+        // only ever read the vectors:
+        for (Entity e : entities) {
+            e.position.getX();
+            e.velocity.getX();
+            e.acceleration.getX();
+        }
+        
+        int chunks = COLLISION_CHUNKS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism();
+        
+        if (chunkBuffers.length < chunks) {
+            int first = chunkBuffers.length;
+            chunkBuffers = Arrays.copyOf(chunkBuffers, chunks);
+            chunkRecords = Arrays.copyOf(chunkRecords, chunks);
+            for (int c = first; c < chunks; c++) {
+                chunkBuffers[c] = new CollisionBuffer();
+            }
+        }
+        
+        // First row of each chunk, balancing the number of pairs (or of
+        // rows, for the tree):
+        int[] rows = new int[chunks + 1];
+        long total = (tree == null) ? (long) n * (n - 1) / 2 : n, pairs = 0;
+        int c = 1;
+        for (int i = 0; i < n && c < chunks; i++) {
+            pairs += (tree == null) ? n - 1 - i : 1;
+            while (c < chunks && pairs * chunks >= total * c) {
+                rows[c++] = i + 1;
+            }
+        }
+        while (c <= chunks) {
+            rows[c++] = n;
+        }
+        
+        IntStream.range(0, chunks).parallel().forEach(k ->
+                chunkRecords[k] = findCollisions(tW, rows[k], rows[k + 1], tree, chunkBuffers[k].clear(), chunkRecords[k]));
+        
+        // Join the chunks in row order (which also reduces the soonest time):
+        for (int k = 0; k < chunks; k++) {
+            collisions.addAll(chunkBuffers[k]);
+        }
+        
+        return collisions;
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          findCollisions
+    
+    // Description:     Tests the pairs of entities in a range of rows of
+    //                      the handshake (each entity against the ones
+    //                      after it) for collisions within the working
+    //                      time step
+    
+    //                  With a swept tree only the entities it finds are
+    //                      tested, in index order, so the collisions come
+    //                      out as they would from testing every pair
+    
+    // Parameters:      tW - The working time step
+    //                  first, end - The range of rows
+    //                  tree - Quadtree swept over tW (null to test all)
+    //                  collisions - Buffer to add the collisions to
+    //                  record - Collision record to reuse (null for none)
+    
+    // Returns:         The collision record to reuse next time
+    
+    // Calls:           Entity
+    //                  CollisionBuffer
+    //                  Quadtree
+    
+    // Globals:         entities
+    
+    Collision findCollisions (double tW, int first, int end, Quadtree tree, CollisionBuffer collisions, Collision record) {
+        
+        for (int i = first; i < end; i++) {
+            Entity currentEntity = entities.get(i);
+            
+            // Entities to test against (all the later ones without a tree):
+            int[] candidates = null;
+            int found = entities.size() - 1 - i;
+            if (tree != null) {
+                found = tree.candidates(i, collisions.candidates);
+                if (found > collisions.candidates.length) {
+                    collisions.candidates = new int[2 * found];
+                    found = tree.candidates(i, collisions.candidates);
+                }
+                candidates = collisions.candidates;
+                Arrays.sort(candidates, 0, found);
+            }
+            
+            collisions.tested += found;
+            
+            for (int m = 0; m < found; m++) {
+                
+                int j = (candidates == null) ? i + 1 + m : candidates[m];
+                
+                Collision currentCollision = currentEntity.computeCollision(entities.get(j), tW, record);
+                if (currentCollision != null) {
+                    
+                    record = currentCollision;
+                    
+                    // Keep the entities in the order the collision lists them:
+                    if (currentCollision.entities.get(0) == currentEntity) {
+                        collisions.add(currentCollision, i, j);
+                    } else {
+                        collisions.add(currentCollision, j, i);
+                    }
+                    
+                }
+                
+            }
+        }
+        
+        return record;
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          resolveCollisions
+    
+    // Description:     Processes every collision predicted within the
+    //                      working time step, in time order, as a series
+    //                      of substeps
+    
+    //                  Each substep advances every entity to the time of
+    //                      the soonest remaining collisions and merges
+    //                      them; only the pairs involving the new entities
+    //                      are then predicted again (for the rest of the
+    //                      step), as the other predictions still hold
+    
+    //                  Entities move along the same path whether a step is
+    //                      taken whole or in substeps (see
+    //                      Entity.updatePosition and advance), so each
+    //                      substep finds them where their collisions were
+    //                      predicted
+
+    //                  On return the future state of every entity is set
+    //                      for the end of the step (Benchmark's overlap
+    //                      check confirms no pair is left overlapping)
+    
+    // Parameters:      collisions - The predicted collisions (with times
+    //                      from the start of the step); consumed
+    //                  tW - The working time step
+    
+    // Returns:         A list of every entity created by a merge
+    
+    // Calls:           Entity
+    //                  CollisionBuffer
+    //                  processCollisions
+    
+    // Globals:         entities
+    //                  soonestCollisions, survivorIndex
+    
+    List<Entity> resolveCollisions (CollisionBuffer collisions, double tW) {
+        
+        List<Entity> created = new ArrayList<>();
+        
+        CollisionBuffer soonest = soonestCollisions;
+        
+        // Time reached so far in the step:
+        double elapsed = 0;
+        
+        while (collisions.size > 0) {
+            
+            double t = collisions.takeSoonest(soonest);
+            
+            // Bring every entity up to the time of the collisions (rounding
+            // only at the end of the step, as a rounding per substep adds
+            // up past the contact slack):
+            if (t > elapsed) {
+                for (int i = 0; i < entities.size(); i++) {
+                    entities.get(i).advance(t - elapsed);
+                }
+                elapsed = t;
+            }
+            
+            List<Entity> newEntities = processCollisions(soonest);
+            created.addAll(newEntities);
+            
+            // The survivors keep their order, ahead of the new entities
+            // (see compactEntities):
+            collisions.remap(survivorIndex);
+            int survivors = entities.size() - newEntities.size();
+            
+            // Predict the collisions of the new entities for the rest of the
+            // step (testing each pair of new entities once):
+            Collision record = null;
+            for (int i = survivors; i < entities.size(); i++) {
+                Entity newEntity = entities.get(i);
+                for (int j = 0; j < entities.size(); j++) {
+                    
+                    if (j >= survivors && j <= i) {
+                        continue;
+                    }
+                    
+                    Collision c = newEntity.computeCollision(entities.get(j), tW - elapsed, record);
+                    if (c != null) {
+                        record = c;
+                        collisions.add(i, j, c.xC, c.yC, elapsed + c.tC);
+                    }
+                    
+                }
+            }
+            
+        }
+        
+        // Set up the rest of the step:
+        for (int i = 0; i < entities.size(); i++) {
+            entities.get(i).updateVelocity(tW - elapsed);
+            entities.get(i).updatePosition(tW - elapsed);
+        }
+        
+        return created;
+        
+    }
+    
+    // *************************************************************************
+    
     // Method:          processCollisions
     
-    // Description:     Translates a list of recorded collision events
+    // Description:     Translates a buffer of predicted collision events
     //                      into actual collisions by colliding the entities
     //                      into the resulting new entities and updating
     //                      the simulation accordingly
     
-    // Parameters:      collisions - The collision event(s) to process
+    //                  The buffer is consumed: each pass takes the first
+    //                      remaining collision and every other one sharing
+    //                      an entity with those taken so far (scanning
+    //                      until the group is closed), and compacts the
+    //                      rest in place for the next pass
+    
+    //                  The merged entities stay in the list (so the
+    //                      indices hold) until it is compacted once at the
+    //                      end, leaving the survivors in their order
+    //                      followed by the new entities (see
+    //                      compactEntities, which also fills survivorIndex)
     
-    // Returns:         A list of the newly created entities
+    // Parameters:      collisions - The collision events to process (with
+    //                      entity indices into the current entity list)
     
-    // Calls:           combineEntities
+    // Returns:         A list of the newly created entities (a scratch
+    //                      list, reused by the next call)
+    
+    // Calls:           CollisionBuffer
+    //                  combineEntities
+    //                  compactEntities
+    //                  MergeEvent
     
     // Globals:         entities
+    //                  toBeCombined, mergedEntities
+    //                  neighbourList
     
-    List<Entity> processCollisions (List<Collision> collisions) {
+    List<Entity> processCollisions (CollisionBuffer collisions) {
+        
+        MergeEvent event = new MergeEvent();
+        event.begin();
+        event.collisions = collisions.size;
+        
+        int n = entities.size();
+        int[] marks = collisions.marks(n);
         
         // Keep a list of new entities that are created:
-        List<Entity> newEntities = new ArrayList<>();
+        List<Entity> newEntities = mergedEntities;
+        newEntities.clear();
         
         // Keep looping until all collisions are processed:
-        while (!collisions.isEmpty()) {
+        for (int pass = 1; collisions.size > 0; pass++) {
             
-            // Set of entities to be combined into a single entity:
-            Set<Entity> toBeCombined = new LinkedHashSet<>();
+            toBeCombined.clear();
             
-            // List of x & y collision points for each individual collision:
-            List<Vector> collisionPoints = new ArrayList<>();
+            // Sum of the collision points of the group:
+            double xSum = 0, ySum = 0;
+            int points = 0;
             
-            for (Collision c: new ArrayList<>(collisions)) {
+            // Scan again until the group stops growing, as a collision
+            // passed over early can share an entity with a later one:
+            for (boolean grew = true; grew; ) {
                 
-                boolean foundMatch = false;
-                for (Entity e: c.entities) {
-                    if (toBeCombined.contains(e)) {
-                        foundMatch = true;
-                    }
-                }
-
-                if (foundMatch || toBeCombined.isEmpty()) {
-
-                    // Add all of the entities in this collision:
-                    for (Entity e: c.entities) {
-                        toBeCombined.add(e);
+                grew = false;
+                
+                int kept = 0;
+                for (int k = 0; k < collisions.size; k++) {
+                    
+                    int a = collisions.a[k];
+                    int b = collisions.b[k];
+                    
+                    if (points == 0 || marks[a] == pass || marks[b] == pass) {
+                        
+                        // Add both entities of this collision:
+                        if (marks[a] != pass) {
+                            marks[a] = pass;
+                            toBeCombined.add(entities.get(a));
+                        }
+                        if (marks[b] != pass) {
+                            marks[b] = pass;
+                            toBeCombined.add(entities.get(b));
+                        }
+                        
+                        xSum += collisions.xC[k];
+                        ySum += collisions.yC[k];
+                        points++;
+                        
+                        grew = true;
+                        
+                    } else if (marks[a] == 0 && marks[b] == 0) {
+                        
+                        // Keep the collision for a later pass:
+                        collisions.move(k, kept++);
+                        
                     }
-
-                    // Add the x & y coordinate of the collision:
-                    collisionPoints.add(new Vector(c.xC, c.yC));
                     
-                    // Remove the collision:
-                    collisions.remove(c);
-
+                    // (A collision with an entity merged in an earlier
+                    // pass is dropped)
+                    
                 }
                 
+                collisions.size = kept;
+                
+            }
+            
+            // (Once empty, the buffer is cleared for reuse)
+            if (collisions.size == 0) {
+                collisions.clear();
             }
             
-            // Combine the entities and add the new entity to the list:
-            newEntities.add(combineEntities(toBeCombined, collisionPoints));
+            event.entitiesMerged += toBeCombined.size();
+            event.largestCluster = Math.max(event.largestCluster, toBeCombined.size());
+            
+            // Combine the entities about the mean collision point:
+            newEntities.add(combineEntities(toBeCombined, xSum / points, ySum / points));
             
         }
         
+        // Drop the merged entities (the ones marked) from the list:
+        compactEntities(marks, n);
+        
+        // Merged entities invalidate the neighbour lists:
+        if (neighbourList != null && !newEntities.isEmpty()) {
+            neighbourList.invalidate();
+        }
+        
+        event.merges = newEntities.size();
+        event.commit();
+        
         // Return the list of newly created entities:
         return newEntities;
         
@@ -713,60 +1896,121 @@ class Simulation {
     
     // *************************************************************************
     
+    // Method:          compactEntities
+    
+    // Description:     Removes the merged entities from the entity list in
+    //                      one pass, moving the others down in their order
+    //                      (entities past the first n, the new ones, are
+    //                      all kept) and truncating the list
+    
+    // Parameters:      marks - Nonzero for each of the first n entities
+    //                      that was merged
+    //                  n - Number of entities the marks cover
+    
+    // Returns:         Nothing (survivorIndex holds the new index of each
+    //                      of the first n entities, or -1)
+    
+    // Calls:           Nothing
+    
+    // Globals:         entities
+    //                  survivorIndex
+    
+    void compactEntities (int[] marks, int n) {
+        
+        if (survivorIndex.length < n) {
+            survivorIndex = new int[Math.max(n, 2 * survivorIndex.length)];
+        }
+        
+        int kept = 0;
+        for (int i = 0; i < entities.size(); i++) {
+            if (i >= n || marks[i] == 0) {
+                if (i < n) {
+                    survivorIndex[i] = kept;
+                }
+                entities.set(kept++, entities.get(i));
+            } else {
+                survivorIndex[i] = -1;
+            }
+        }
+        
+        // Truncate from the end, which moves nothing:
+        while (entities.size() > kept) {
+            entities.remove(entities.size() - 1);
+        }
+        
+    }
+    
+    // *************************************************************************
+    
     // Method:          combineEntities
     
-    // Description:     Helper method for processCollisions, which takes in
-    //                      a list of entities and collision points and
-    //                      combines the entities into one new entity
+    // Description:     Combines a group of entities into one new entity
+    //                      at the given point, conserving mass and momentum
+    //                      (it keeps the lowest id of the group)
+    
+    //                  The new entity is appended to the entity list, but
+    //                      the old ones are only retired from the id map;
+    //                      the caller removes them from the list (see
+    //                      processCollisions and compactEntities)
     
     // Parameters:      toBeCombined - The entities to be combined
-    //                  collisionPoints - The points at which the entities collided
+    //                  xC, yC - Center of the resulting entity
     
     // Returns:         The new entity resulting from the collision of all entities
-    //                  in the passed in list
+    //                  in the passed in collection
     
     // Calls:           Entity
+    //                  findEntity, invalidateTree
     
-    // Globals:         entities
-    //                  mass, velocity, PI
+    // Globals:         entities, entitiesById
+    //                  mass, velocity, acceleration, PI
     
-    Entity combineEntities(Set<Entity> toBeCombined, List<Vector> collisionPoints) {
+    Entity combineEntities(Collection<Entity> toBeCombined, double xC, double yC) {
 
-        // Get the TOTAL mass and momentum of the system:
-        double M = 0, pX = 0, pY = 0;
+        // Get the TOTAL mass, momentum and force of the system:
+        double M = 0, pX = 0, pY = 0, fX = 0, fY = 0;
+        long id = Long.MAX_VALUE;
         for (Entity e : toBeCombined) {
             
+            id = Math.min(id, e.id);
+            
             M += e.mass;
             
             pX += e.mass * e.velocity.getX();
             pY += e.mass * e.velocity.getY();
             
+            fX += e.mass * e.acceleration.getX();
+            fY += e.mass * e.acceleration.getY();
+            
         }
 
         // Get the radius of the resulting entity:
-        double R = Math.sqrt(M/PI);
-
-        // Center of resulting entity:
-        double xC = 0;
-        double yC = 0;
-        for (Vector v: collisionPoints) {
-            xC += v.getX();
-            yC += v.getY();
-        }
-        xC /= collisionPoints.size();
-        yC /= collisionPoints.size();
+        double R = Math.sqrt(M/context.PI);
         
         // Velocity of the resulting entity:
         double vX = pX / M;
         double vY = pY / M;
 
-        // Remove the old entities and add the new one to the global list:
+        // Retire the old entities and add the new one to the global list
+        // (the old ones are left in the list for the caller to compact):
         for (Entity e : toBeCombined) {
-            entities.remove(e);
+            if (findEntity(e.id) != e) {
+                throw new IllegalArgumentException("Entity " + e.id + " has already been merged");
+            }
+            entitiesById.remove(e.id);
         }
         
+        // The new entity carries on the lowest id of the group:
         Entity newEntity = new Entity(R, xC, yC, vX, vY, this);
+        newEntity.id = id;
         entities.add(newEntity);
+        entitiesById.put(id, newEntity);
+        
+        // The tree no longer matches the entities:
+        invalidateTree();
+        
+        // Until the forces are next computed, it feels their sum:
+        newEntity.acceleration.updateComponents(fX / M, fY / M);
 
         // Return the new entity:
         return newEntity;
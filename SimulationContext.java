@@ -0,0 +1,79 @@
+
+import java.util.SplittableRandom;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           SimulationContext
+// Description:     Object class, holding the state a simulation would
+//                      otherwise share through statics: its physical
+//                      constants, its random stream and its display
+
+//                  Every Simulation owns one (reached by its entities
+//                      through Entity.simulation), so independent runs in
+//                      the same JVM share nothing
+
+class SimulationContext {
+
+    // Gravitational constant
+    double G = 1.00;
+
+    // Pi, used for mass from radius (mass = PI * r^2)
+    final double PI = Math.PI;
+
+    // Seed of the random stream, and the stream itself
+    final long seed;
+    final SplittableRandom random;
+
+    // Display window (null until the first frame is drawn)
+    ImageConstruction display;
+
+    // Run without a display window (benchmarks and other batch runs)
+    boolean headless = false;
+
+    // *************************************************************************
+
+    // Method:          SimulationContext
+
+    // Description:     Default constructor for the class (a random stream
+    //                      seeded from the clock)
+
+    // Parameters:      None
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         seed, random
+
+    SimulationContext() {
+        this(System.nanoTime());
+    }
+
+    // *************************************************************************
+
+    // Method:          SimulationContext
+
+    // Description:     Constructor for the class with a seeded random stream
+
+    // Parameters:      seed - Seed of the random stream
+
+    // Returns:         A new instance of the class
+
+    // Calls:           Nothing
+
+    // Globals:         seed, random
+
+    SimulationContext (long seed) {
+
+        this.seed = seed;
+        random = new SplittableRandom(seed);
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
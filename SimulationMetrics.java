@@ -0,0 +1,268 @@
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           SimulationMetrics
+// Description:     Always-on timings and counters for Simulation.iterate,
+//                      kept in fixed-size rolling windows so recording a
+//                      sample is a single array store (percentiles are only
+//                      computed when they are read)
+
+public class SimulationMetrics implements SimulationMetricsMBean {
+
+    // Phases and counters that are recorded
+    static final int FORCE = 0, INTEGRATE = 1, BROAD_PHASE = 2, NARROW_PHASE = 3, MERGE = 4, RENDER = 5;
+    static final int CANDIDATE_PAIRS = 6, COLLISIONS = 7, MERGES = 8;
+
+    static final String[] NAMES = {"Force", "Integrate", "Broad phase", "Narrow phase", "Merge", "Render",
+                                   "Candidate pairs", "Collisions", "Merges"};
+
+    // Number of most recent samples kept per metric
+    static final int WINDOW = 1024;
+
+    // Numbers the registered instances
+    static final AtomicInteger instances = new AtomicInteger();
+
+    // Rolling sample windows, and the number of samples recorded, per metric
+    final long[][] samples = new long[NAMES.length][WINDOW];
+    final long[] recorded = new long[NAMES.length];
+
+    // Running totals
+    long steps, totalCollisions, totalMerges;
+
+    // Name the instance is registered under (null if not registered)
+    ObjectName objectName;
+
+    // *************************************************************************
+
+    // Method:          record
+
+    // Description:     Records a sample for a phase or counter
+
+    // Parameters:      metric - The phase or counter
+    //                  value - Elapsed nanoseconds, or the count
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         samples, recorded
+
+    void record (int metric, long value) {
+        samples[metric][(int) (recorded[metric]++ % WINDOW)] = value;
+    }
+
+    // *************************************************************************
+
+    // Method:          endStep
+
+    // Description:     Records the per-step counters and updates the totals
+
+    // Parameters:      candidatePairs - Pairs tested for collisions
+    //                  collisions - Collisions predicted
+    //                  merges - Entities created by merging
+
+    // Returns:         Nothing
+
+    // Calls:           record
+
+    // Globals:         steps, totalCollisions, totalMerges
+
+    void endStep (long candidatePairs, long collisions, long merges) {
+
+        record(CANDIDATE_PAIRS, candidatePairs);
+        record(COLLISIONS, collisions);
+        record(MERGES, merges);
+
+        steps++;
+        totalCollisions += collisions;
+        totalMerges += merges;
+
+    }
+
+    // *************************************************************************
+
+    // Method:          percentile
+
+    // Description:     Computes a percentile over the rolling window
+
+    // Parameters:      metric - The phase or counter
+    //                  p - The percentile (0-100)
+
+    // Returns:         The percentile, or 0 if nothing was recorded
+
+    // Calls:           Nothing
+
+    // Globals:         samples, recorded
+
+    long percentile (int metric, double p) {
+
+        int count = (int) Math.min(recorded[metric], WINDOW);
+        if (count == 0) {
+            return 0;
+        }
+
+        long[] sorted = Arrays.copyOf(samples[metric], count);
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(p / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+
+    }
+
+    // *************************************************************************
+
+    // Method:          print
+
+    // Description:     Prints the rolling p50 and p99 of every metric
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           percentile
+
+    // Globals:         steps, recorded
+
+    void print() {
+
+        System.out.println("\nStep metrics over the last " + Math.min(steps, WINDOW) + " of " + steps + " iterations:");
+        System.out.println("\n                       p50          p99");
+
+        for (int m = 0; m < NAMES.length; m++) {
+            if (recorded[m] == 0) {
+                continue;
+            }
+            if (m <= RENDER) {
+                System.out.printf("%-16s %9.3f ms %9.3f ms\n", NAMES[m], percentile(m, 50) / 1e6, percentile(m, 99) / 1e6);
+            } else {
+                System.out.printf("%-16s %12d %12d\n", NAMES[m], percentile(m, 50), percentile(m, 99));
+            }
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          register
+
+    // Description:     Registers the metrics with the platform MBean server
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         objectName, instances
+
+    void register() {
+
+        try {
+            objectName = new ObjectName("GravitySimulator:type=SimulationMetrics,id=" + instances.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (Exception e) {
+            System.out.println("\nCould not register simulation metrics with JMX: " + e.getMessage());
+            objectName = null;
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          unregister
+
+    // Description:     Removes the metrics from the platform MBean server
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         objectName
+
+    void unregister() {
+
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            // Already gone
+        }
+
+        objectName = null;
+
+    }
+
+    // *************************************************************************
+
+    // MBean attributes:
+
+    @Override public long getSteps() { return steps; }
+
+    @Override public long getForceP50Nanos() { return percentile(FORCE, 50); }
+    @Override public long getForceP99Nanos() { return percentile(FORCE, 99); }
+
+    @Override public long getIntegrateP50Nanos() { return percentile(INTEGRATE, 50); }
+    @Override public long getIntegrateP99Nanos() { return percentile(INTEGRATE, 99); }
+
+    @Override public long getBroadPhaseP50Nanos() { return percentile(BROAD_PHASE, 50); }
+    @Override public long getBroadPhaseP99Nanos() { return percentile(BROAD_PHASE, 99); }
+
+    @Override public long getNarrowPhaseP50Nanos() { return percentile(NARROW_PHASE, 50); }
+    @Override public long getNarrowPhaseP99Nanos() { return percentile(NARROW_PHASE, 99); }
+
+    @Override public long getMergeP50Nanos() { return percentile(MERGE, 50); }
+    @Override public long getMergeP99Nanos() { return percentile(MERGE, 99); }
+
+    @Override public long getRenderP50Nanos() { return percentile(RENDER, 50); }
+    @Override public long getRenderP99Nanos() { return percentile(RENDER, 99); }
+
+    @Override public long getCandidatePairsP50() { return percentile(CANDIDATE_PAIRS, 50); }
+    @Override public long getCandidatePairsP99() { return percentile(CANDIDATE_PAIRS, 99); }
+
+    @Override public long getCollisionsP50() { return percentile(COLLISIONS, 50); }
+    @Override public long getCollisionsP99() { return percentile(COLLISIONS, 99); }
+
+    @Override public long getMergesP50() { return percentile(MERGES, 50); }
+    @Override public long getMergesP99() { return percentile(MERGES, 99); }
+
+    @Override public long getTotalCollisions() { return totalCollisions; }
+    @Override public long getTotalMerges() { return totalMerges; }
+
+    // *************************************************************************
+
+    // Method:          reset
+
+    // Description:     Clears all samples and totals
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         recorded, steps, totalCollisions, totalMerges
+
+    @Override
+    public void reset() {
+
+        Arrays.fill(recorded, 0);
+
+        steps = 0;
+        totalCollisions = 0;
+        totalMerges = 0;
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,49 @@
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Interface:       SimulationMetricsMBean
+// Description:     JMX management interface for SimulationMetrics
+//                      (rolling percentiles over the most recent steps;
+//                      times in nanoseconds)
+
+public interface SimulationMetricsMBean {
+
+    long getSteps();
+
+    long getForceP50Nanos();
+    long getForceP99Nanos();
+
+    long getIntegrateP50Nanos();
+    long getIntegrateP99Nanos();
+
+    long getBroadPhaseP50Nanos();
+    long getBroadPhaseP99Nanos();
+
+    long getNarrowPhaseP50Nanos();
+    long getNarrowPhaseP99Nanos();
+
+    long getMergeP50Nanos();
+    long getMergeP99Nanos();
+
+    long getRenderP50Nanos();
+    long getRenderP99Nanos();
+
+    long getCandidatePairsP50();
+    long getCandidatePairsP99();
+
+    long getCollisionsP50();
+    long getCollisionsP99();
+
+    long getMergesP50();
+    long getMergesP99();
+
+    long getTotalCollisions();
+    long getTotalMerges();
+
+    void reset();
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,56 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           StepEvent
+// Description:     Flight Recorder event spanning one Simulation.iterate call
+
+//                  Enabled by default; can be switched off on its own with
+//                      the recording setting GravitySimulator.Step#enabled
+
+@Name("GravitySimulator.Step")
+@Label("Simulation Step")
+@Category("Gravity Simulator")
+@Description("One iteration of the simulation")
+class StepEvent extends jdk.jfr.Event {
+
+    @Label("Entities")
+    @Description("Number of entities at the start of the step")
+    int entities;
+
+    @Label("Time Step")
+    @Description("Standard time step requested")
+    double timeStep;
+
+    @Label("Working Time Step")
+    @Description("Time step actually taken (shorter when a collision occurred)")
+    double workingTimeStep;
+
+    @Label("Collisions")
+    @Description("Collisions predicted within the step")
+    int collisions;
+
+    @Label("Force Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long forceTime;
+
+    @Label("Broad Phase Time")
+    @Description("Time spent refitting the quadtree's swept boxes for the collision search")
+    @Timespan(Timespan.NANOSECONDS)
+    long broadPhaseTime;
+
+    @Label("Narrow Phase Time")
+    @Description("Time spent testing candidate pairs for collisions")
+    @Timespan(Timespan.NANOSECONDS)
+    long narrowPhaseTime;
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
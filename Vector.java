@@ -8,6 +8,11 @@ import java.math.RoundingMode;
 // Class:           Vector
 // Description:     Object class representing a vector
 
+//                  A vector is written either as components or as a
+//                      magnitude and direction; the other form and the
+//                      slope are only computed when first read, and kept
+//                      until the next write
+
 class Vector {
     
     // r = Magnitude of vector
@@ -15,6 +20,19 @@ class Vector {
     // s = Slope of vector
     private double r, t, x, y, s;
     
+    // Whether the components, the magnitude & direction, and the slope
+    //  are up to date
+    private boolean cartesian, polar, sloped;
+    
+    // Powers of ten that are exact doubles (for roundDouble)
+    static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    // 2^27 + 1, for splitting a double into two 26-bit halves
+    static final double SPLITTER = 134217729.0;
+    
     // *************************************************************************
     
     // Method:          Vector
@@ -27,20 +45,12 @@ class Vector {
     
     // Returns:         A new instance of the class
 
-    // Calls:           computeSlope
+    // Calls:           updatePolar
     
-    // Globals:         r, t, x, y, s
+    // Globals:         None
     
     Vector (double magnitude, double direction, double dummy) {
-       
-        r = magnitude;
-        t = direction;
-        
-        x = magnitude * Math.cos(direction);
-        y = magnitude * Math.sin(direction);
-        
-        s = computeSlope(x, y);
-        
+        updatePolar(magnitude, direction);
     }
     
     // *************************************************************************
@@ -52,22 +62,13 @@ class Vector {
     // Parameters:      x, y - Components of the vector
     
     // Returns:         A new instance of the class
-
-    // Calls:           computeVectorMagnitude
-    //                  computeSlope
     
-    // Globals:         r, t, x, y, s
+    // Calls:           updateComponents
+    
+    // Globals:         None
     
     Vector (double x, double y) {
-        
-        r = computeVectorMagnitude(x, y);
-        t = Math.atan2(y, x);
-        
-        this.x = x;
-        this.y = y;
-        
-        s = computeSlope(x, y);
-        
+        updateComponents(x, y);
     }
     
     // *************************************************************************
@@ -79,48 +80,79 @@ class Vector {
     // Parameters:      v - Vector to copy into the new instance
     
     // Returns:         A new instance of the class
-
+    
     // Calls:           Nothing
     
     // Globals:         r, t, x, y, s
+    //                  cartesian, polar, sloped
     
     Vector (Vector v) {
         
         r = v.r;
         t = v.t;
-        
         x = v.x;
         y = v.y;
-        
         s = v.s;
         
+        cartesian = v.cartesian;
+        polar = v.polar;
+        sloped = v.sloped;
+        
     }
     
     // *************************************************************************
     
     // Method:          updateComponents
     
-    // Description:     Updates the components of the vector and recalculates
-    //                      other parameters
+    // Description:     Updates the components of the vector (the other
+    //                      parameters are recalculated when next read)
     
     // Parameters:      xNew, yNew
     
     // Returns:         Nothing
-
-    // Calls:           computeVectorMagnitude
-    //                  computeSlope
     
-    // Globals:         r, t, x, y, s
+    // Calls:           Nothing
+    
+    // Globals:         x, y
+    //                  cartesian, polar, sloped
     
     void updateComponents (double xNew, double yNew) {
         
         x = xNew;
         y = yNew;
         
-        r = computeVectorMagnitude(x, y);
-        t = Math.atan2(y, x);
+        cartesian = true;
+        polar = false;
+        sloped = false;
+        
+    }
+    
+    // *************************************************************************
+    
+    // Method:          updatePolar
+    
+    // Description:     Updates the magnitude and direction of the vector
+    //                      (the other parameters are recalculated when
+    //                      next read)
+    
+    // Parameters:      magnitude
+    //                  direction - (in radians)
+    
+    // Returns:         Nothing
+    
+    // Calls:           Nothing
+    
+    // Globals:         r, t
+    //                  cartesian, polar, sloped
+    
+    void updatePolar (double magnitude, double direction) {
+        
+        r = magnitude;
+        t = direction;
         
-        s = computeSlope(x, y);
+        cartesian = false;
+        polar = true;
+        sloped = false;
         
     }
     
@@ -133,13 +165,22 @@ class Vector {
     // Parameters:      Nothing
     
     // Returns:         r
-
-    // Calls:           Nothing
     
-    // Globals:         r
+    // Calls:           computeVectorMagnitude
+    
+    // Globals:         r, t, x, y
+    //                  polar
     
     double getMagnitude() {
+        
+        if (!polar) {
+            r = computeVectorMagnitude(x, y);
+            t = Math.atan2(y, x);
+            polar = true;
+        }
+        
         return r;
+        
     }
     
     // *************************************************************************
@@ -151,13 +192,17 @@ class Vector {
     // Parameters:      Nothing
     
     // Returns:         t
-
-    // Calls:           Nothing
+    
+    // Calls:           getMagnitude
     
     // Globals:         t
     
     double getDirection() {
+        
+        getMagnitude();
+        
         return t;
+        
     }
     
     // *************************************************************************
@@ -169,13 +214,22 @@ class Vector {
     // Parameters:      Nothing
     
     // Returns:         x
-
+    
     // Calls:           Nothing
     
-    // Globals:         x
+    // Globals:         r, t, x, y
+    //                  cartesian
     
     double getX() {
+        
+        if (!cartesian) {
+            x = r * Math.cos(t);
+            y = r * Math.sin(t);
+            cartesian = true;
+        }
+        
         return x;
+        
     }
     
     // *************************************************************************
@@ -187,13 +241,17 @@ class Vector {
     // Parameters:      Nothing
     
     // Returns:         y
-
-    // Calls:           Nothing
+    
+    // Calls:           getX
     
     // Globals:         y
     
     double getY() {
+        
+        getX();
+        
         return y;
+        
     }
     
     // *************************************************************************
@@ -205,13 +263,23 @@ class Vector {
     // Parameters:      Nothing
     
     // Returns:         s
-
-    // Calls:           Nothing
     
-    // Globals:         s
+    // Calls:           getX
+    //                  computeSlope
+    
+    // Globals:         x, y, s
+    //                  sloped
     
     double getSlope() {
+        
+        if (!sloped) {
+            getX();
+            s = computeSlope(x, y);
+            sloped = true;
+        }
+        
         return s;
+        
     }
     
     // *************************************************************************
@@ -257,7 +325,7 @@ class Vector {
         }
         
         if (x == 0) {
-            return Math.tan(Simulation.PI/2);
+            return Math.tan(Math.PI/2);
         }
         
         double slope = y/x;
@@ -333,17 +401,51 @@ class Vector {
     // Method:          roundDouble
     
     // Description:     Rounds a double value to the given precision
+    //                      (half up on the exact binary value, as
+    //                      BigDecimal does, without allocating unless the
+    //                      value is too large to scale exactly)
     
     // Parameters:      value
     //                  precision - The number of decimal places to round to
     
     // Returns:         The rounded value
     
-    // Calls:           Nothing
+    // Calls:           productError
     // Globals:         None
     
     static double roundDouble (double value, int precision) {
         
+        if (precision >= 0 && precision < POWERS_OF_TEN.length && Math.abs(value) < 0x1p52) {
+            
+            double power = POWERS_OF_TEN[precision];
+            double magnitude = Math.abs(value);
+            
+            // Values more coarsely spaced than the decimal places can't move:
+            if (Math.ulp(magnitude) > 2 / power) {
+                return value;
+            }
+            
+            // The scaled value is the exact one rounded once, so only an
+            // exact halfway fraction needs the error of the product:
+            double scaled = magnitude * power;
+            
+            if (scaled < 0x1p52) {
+                
+                double whole = Math.floor(scaled);
+                double fraction = scaled - whole;
+                
+                if (fraction > 0.5 || fraction == 0.5 && productError(magnitude, power, scaled) >= 0) {
+                    whole++;
+                }
+                
+                // Dividing two exact values rounds the same way as
+                // BigDecimal.doubleValue (and never gives -0):
+                return whole == 0 ? 0 : Math.copySign(whole / power, value);
+                
+            }
+            
+        }
+        
         BigDecimal b = new BigDecimal(value).setScale(precision, RoundingMode.HALF_UP);
         
         return b.doubleValue();
@@ -352,6 +454,36 @@ class Vector {
     
     // *************************************************************************
     
+    // Method:          productError
+    
+    // Description:     Computes the rounding error of a product exactly
+    //                      (Dekker's algorithm, splitting each factor into
+    //                      halves whose products are exact)
+    
+    // Parameters:      a, b - The factors
+    //                  product - The rounded product a * b
+    
+    // Returns:         The exact value of a * b - product
+    
+    // Calls:           Nothing
+    // Globals:         None
+    
+    static double productError (double a, double b, double product) {
+        
+        double c = SPLITTER * a;
+        double aHigh = c - (c - a);
+        double aLow = a - aHigh;
+        
+        c = SPLITTER * b;
+        double bHigh = c - (c - b);
+        double bLow = b - bHigh;
+        
+        return ((aHigh * bHigh - product) + aHigh * bLow + aLow * bHigh) + aLow * bLow;
+        
+    }
+    
+    // *************************************************************************
+    
 }
 
 // *****************************************************************************
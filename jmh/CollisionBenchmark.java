@@ -0,0 +1,85 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           CollisionBenchmark
+// Description:     JMH timings of collision prediction over all pairs
+//                      (Simulation.computeCollisions), as in Benchmark's
+//                      collision hot path
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class CollisionBenchmark {
+
+    // Workload preset
+    @Param({"random", "sparse"})
+    public String scenario;
+
+    // Number of entities
+    @Param({"100", "400", "1600"})
+    public int n;
+
+    // The operation being timed
+    Runnable operation;
+
+    // *************************************************************************
+
+    // Method:          setup
+
+    // Description:     Builds the state for the trial (see Fixtures)
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Fixtures
+
+    // Globals:         operation
+
+    @Setup
+    public void setup() {
+        operation = Fixtures.operation("collision", scenario, n);
+    }
+
+    // *************************************************************************
+
+    // Method:          computeCollisions
+
+    // Description:     Predicts the collisions of the coming step once
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         operation
+
+    @Benchmark
+    public void computeCollisions() {
+        operation.run();
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,56 @@
+package jmh;
+
+import java.lang.reflect.Method;
+import java.util.function.Supplier;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           Fixtures
+// Description:     Builds the operations the JMH benchmarks time, from the
+//                      setups of the command-line harness (Benchmark.setupFor)
+
+//                  JMH won't generate benchmarks in the default package,
+//                      and code in a named package can't refer to the
+//                      default package, so the setups are looked up by
+//                      reflection, once per trial and outside the timing
+
+class Fixtures {
+
+    // *************************************************************************
+
+    // Method:          operation
+
+    // Description:     Prepares one benchmark's state and returns the
+    //                      operation to time (each run keeps its result
+    //                      alive in Benchmark.sink, or in the bodies)
+
+    // Parameters:      benchmark - Name of the hot-path benchmark
+    //                  scenario - Workload preset
+    //                  n - Number of entities
+
+    // Returns:         The operation
+
+    // Calls:           Benchmark.setupFor
+
+    // Globals:         None
+
+    @SuppressWarnings("unchecked")
+    static Runnable operation (String benchmark, String scenario, int n) {
+
+        try {
+            Method setupFor = Class.forName("Benchmark").getDeclaredMethod("setupFor", String.class, String.class, int.class);
+            setupFor.setAccessible(true);
+            return ((Supplier<Runnable>) setupFor.invoke(null, benchmark, scenario, n)).get();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not set up " + benchmark, e);
+        }
+
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,88 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           KernelBenchmark
+// Description:     JMH timings of the direct-summation kernels (the
+//                      scalar, Vector API and mixed-precision ones) over
+//                      random bodies, as in Benchmark's kernel comparison
+
+//                  The Vector API kernels need the module in the forked
+//                      JVM, hence jvmArgsAppend
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+
+    // Kernel to time
+    @Param({"scalar", "vectorized", "mixed-precision"})
+    public String kernel;
+
+    // Number of bodies
+    @Param({"1000", "4000", "16000"})
+    public int n;
+
+    // The operation being timed
+    Runnable operation;
+
+    // *************************************************************************
+
+    // Method:          setup
+
+    // Description:     Builds the state for the trial (see Fixtures)
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Fixtures
+
+    // Globals:         operation
+
+    @Setup
+    public void setup() {
+        operation = Fixtures.operation(kernel, "random", n);
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the acceleration of every body once
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         operation
+
+    @Benchmark
+    public void computeAccelerations() {
+        operation.run();
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
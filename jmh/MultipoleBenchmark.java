@@ -0,0 +1,86 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           MultipoleBenchmark
+// Description:     JMH timings of the fast multipole backend (order 6,
+//                      16 bodies per leaf) against scalar direct summation
+//                      over random bodies, as in Benchmark's multipole
+//                      crossover
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MultipoleBenchmark {
+
+    // Backend to time
+    @Param({"multipole-solver", "scalar"})
+    public String solver;
+
+    // Number of bodies
+    @Param({"1000", "4000", "16000"})
+    public int n;
+
+    // The operation being timed
+    Runnable operation;
+
+    // *************************************************************************
+
+    // Method:          setup
+
+    // Description:     Builds the state for the trial (see Fixtures)
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Fixtures
+
+    // Globals:         operation
+
+    @Setup
+    public void setup() {
+        operation = Fixtures.operation(solver, "random", n);
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the acceleration of every body once
+
+    // Parameters:      None
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         operation
+
+    @Benchmark
+    public void computeAccelerations() {
+        operation.run();
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
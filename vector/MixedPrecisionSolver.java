@@ -0,0 +1,308 @@
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           MixedPrecisionSolver
+// Description:     Direct-summation force backend for exploratory runs that
+//                      computes the pair terms in float with the Vector API
+//                      (jdk.incubator.vector), twice as many at once as the
+//                      double kernel (16 on AVX-512)
+
+//                  Bodies are sorted into a grid of tiles and stored as
+//                      float offsets from their tile's centre, so the float
+//                      separations stay accurate however far the run is
+//                      from the origin; the distance between two tile
+//                      centres is formed in double once per tile pair
+
+//                  A vector of bodies from one tile is taken against every
+//                      body of the other tile, summing in float, and the
+//                      tile's sums are then added into double totals, so
+//                      float rounding only builds up over one tile
+
+//                  Compiled with the other Vector API kernels in vector/
+//                      and loaded by name (see DirectSumSolver.select);
+//                      falls back to the scalar DirectSumSolver when a
+//                      cutoff is set
+
+class MixedPrecisionSolver implements ForceSolver {
+
+    // Target number of bodies per tile
+    static final int TILE_BODIES = 64;
+
+    // Preferred vector shape of the hardware
+    static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    // Scalar kernel used when a cutoff is set
+    DirectSumSolver fallback = new DirectSumSolver();
+
+    // Tile offsets and masses of the bodies, in tile order
+    float[] xOffset, yOffset, tileMass;
+
+    // Body index of each tile-ordered slot, and the range of each tile
+    int[] sortedBodies, tileStart;
+
+    // Tile of each body, and the next free slot of each tile (kept between
+    // calls)
+    int[] tileOf, nextSlot;
+
+    // Number of tiles per side, and the tile centres
+    int tilesPerSide;
+    double[] tileX, tileY;
+
+    // One tile's float sums for a vector of bodies, and their double totals
+    float[] laneX = new float[SPECIES.length()];
+    float[] laneY = new float[SPECIES.length()];
+    float[] lanePhi = new float[SPECIES.length()];
+    double[] totalX = new double[SPECIES.length()];
+    double[] totalY = new double[SPECIES.length()];
+    double[] totalPhi = new double[SPECIES.length()];
+
+    // *************************************************************************
+
+    // Method:          lanes
+
+    // Description:     Returns the number of floats the kernel works on at
+    //                      once (1 means the hardware has no vectors for it
+    //                      to use)
+
+    // Parameters:      None
+
+    // Returns:         The number of lanes
+
+    // Calls:           Nothing
+
+    // Globals:         SPECIES
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the acceleration of every body by direct
+    //                      summation over all tile pairs, a vector of
+    //                      bodies of the first tile at a time
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         Nothing
+
+    // Calls:           buildTiles
+    //                  DirectSumSolver
+
+    // Globals:         xOffset, yOffset, tileMass
+    //                  sortedBodies, tileStart
+    //                  tilesPerSide, tileX, tileY
+    //                  laneX, laneY, lanePhi
+    //                  totalX, totalY, totalPhi
+    //                  SPECIES
+
+    @Override
+    public void computeAccelerations (BodyStore bodies, Simulation simulation) {
+
+        if (simulation.cutoffRadius > 0) {
+            fallback.computeAccelerations(bodies, simulation);
+            return;
+        }
+
+        if (bodies.count == 0) {
+            return;
+        }
+
+        buildTiles(bodies);
+
+        float e2 = (float) (simulation.softening * simulation.softening);
+        int tiles = tilesPerSide * tilesPerSide;
+        int lanes = SPECIES.length();
+
+        for (int t = 0; t < tiles; t++) {
+
+            int end = tileStart[t + 1];
+
+            for (int i = tileStart[t]; i < end; i += lanes) {
+
+                // The last vector of a tile may run past it:
+                VectorMask<Float> live = SPECIES.indexInRange(i, end);
+                int count = Math.min(lanes, end - i);
+
+                FloatVector xI = FloatVector.fromArray(SPECIES, xOffset, i, live);
+                FloatVector yI = FloatVector.fromArray(SPECIES, yOffset, i, live);
+
+                Arrays.fill(totalX, 0);
+                Arrays.fill(totalY, 0);
+                Arrays.fill(totalPhi, 0);
+
+                for (int s = 0; s < tiles; s++) {
+
+                    // Separation of the tile centres (in double, then float):
+                    float centreX = (float) (tileX[s] - tileX[t]);
+                    float centreY = (float) (tileY[s] - tileY[t]);
+
+                    FloatVector baseX = xI.neg().add(centreX);
+                    FloatVector baseY = yI.neg().add(centreY);
+
+                    FloatVector sumX = FloatVector.zero(SPECIES);
+                    FloatVector sumY = FloatVector.zero(SPECIES);
+                    FloatVector sumPhi = FloatVector.zero(SPECIES);
+
+                    for (int j = tileStart[s]; j < tileStart[s + 1]; j++) {
+
+                        FloatVector dX = baseX.add(xOffset[j]);
+                        FloatVector dY = baseY.add(yOffset[j]);
+                        FloatVector rSquared = dX.mul(dX).add(dY.mul(dY));
+                        FloatVector softened = rSquared.add(e2);
+
+                        // Skips the body itself and coincident bodies:
+                        FloatVector factor = FloatVector.broadcast(SPECIES, tileMass[j])
+                            .div(softened.mul(softened.sqrt()))
+                            .blend(0, rSquared.compare(VectorOperators.EQ, 0));
+
+                        sumX = sumX.add(factor.mul(dX));
+                        sumY = sumY.add(factor.mul(dY));
+                        sumPhi = sumPhi.add(factor.mul(softened));
+
+                    }
+
+                    // Adds the tile's float sums into the double totals:
+                    sumX.intoArray(laneX, 0);
+                    sumY.intoArray(laneY, 0);
+                    sumPhi.intoArray(lanePhi, 0);
+                    for (int k = 0; k < count; k++) {
+                        totalX[k] += laneX[k];
+                        totalY[k] += laneY[k];
+                        totalPhi[k] += lanePhi[k];
+                    }
+
+                }
+
+                for (int k = 0; k < count; k++) {
+                    int b = sortedBodies[i + k];
+                    bodies.aX[b] = simulation.context.G * totalX[k];
+                    bodies.aY[b] = simulation.context.G * totalY[k];
+                    bodies.potential[b] = -simulation.context.G * totalPhi[k];
+                }
+
+            }
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          buildTiles
+
+    // Description:     Sorts the bodies into a square grid of tiles over
+    //                      their bounding box and stores them as float
+    //                      offsets from the tile centres
+
+    // Parameters:      bodies - The bodies to tile
+
+    // Returns:         Nothing
+
+    // Calls:           Nothing
+
+    // Globals:         xOffset, yOffset, tileMass
+    //                  sortedBodies, tileStart
+    //                  tileOf, nextSlot
+    //                  tilesPerSide, tileX, tileY
+
+    void buildTiles (BodyStore bodies) {
+
+        int n = bodies.count;
+
+        double xMin = Double.MAX_VALUE, xMax = -Double.MAX_VALUE;
+        double yMin = Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+        for (int b = 0; b < n; b++) {
+            xMin = Math.min(xMin, bodies.x[b]);
+            xMax = Math.max(xMax, bodies.x[b]);
+            yMin = Math.min(yMin, bodies.y[b]);
+            yMax = Math.max(yMax, bodies.y[b]);
+        }
+
+        tilesPerSide = Math.max(1, (int) Math.sqrt((double) n / TILE_BODIES));
+        int tiles = tilesPerSide * tilesPerSide;
+
+        double tileWidth = Math.max(xMax - xMin, 1E-9) / tilesPerSide;
+        double tileHeight = Math.max(yMax - yMin, 1E-9) / tilesPerSide;
+
+        if (tileStart == null || tileStart.length != tiles + 1) {
+            tileStart = new int[tiles + 1];
+            nextSlot = new int[tiles];
+            tileX = new double[tiles];
+            tileY = new double[tiles];
+        } else {
+            Arrays.fill(tileStart, 0);
+        }
+
+        if (sortedBodies == null || sortedBodies.length < n) {
+            sortedBodies = new int[n];
+            tileOf = new int[n];
+            xOffset = new float[n];
+            yOffset = new float[n];
+            tileMass = new float[n];
+        }
+
+        // Count the bodies in each tile:
+        for (int b = 0; b < n; b++) {
+            int i = Math.min(tilesPerSide - 1, (int) ((bodies.x[b] - xMin) / tileWidth));
+            int j = Math.min(tilesPerSide - 1, (int) ((bodies.y[b] - yMin) / tileHeight));
+            tileOf[b] = j * tilesPerSide + i;
+            tileStart[tileOf[b] + 1]++;
+        }
+
+        for (int t = 0; t < tiles; t++) {
+            tileStart[t + 1] += tileStart[t];
+            tileX[t] = xMin + ((t % tilesPerSide) + 0.5) * tileWidth;
+            tileY[t] = yMin + ((t / tilesPerSide) + 0.5) * tileHeight;
+        }
+
+        System.arraycopy(tileStart, 0, nextSlot, 0, tiles);
+        for (int b = 0; b < n; b++) {
+
+            int t = tileOf[b];
+            int slot = nextSlot[t]++;
+
+            sortedBodies[slot] = b;
+            xOffset[slot] = (float) (bodies.x[b] - tileX[t]);
+            yOffset[slot] = (float) (bodies.y[b] - tileY[t]);
+            tileMass[slot] = (float) bodies.mass[b];
+
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          getName
+
+    // Description:     Returns a short description of the backend for menus
+
+    // Parameters:      None
+
+    // Returns:         The name of the backend
+
+    // Calls:           Nothing
+    // Globals:         None
+
+    @Override
+    public String getName() {
+        return "Direct summation (mixed precision, Vector API)";
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************
@@ -0,0 +1,219 @@
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// *****************************************************************************
+// *****************************************************************************
+
+// Class:           VectorizedDirectSolver
+// Description:     Direct-summation force backend whose inner loop is
+//                      written with the Vector API (jdk.incubator.vector),
+//                      working on as many doubles at once as the hardware's
+//                      preferred vector holds (4 on AVX2, 8 on AVX-512),
+//                      and that visits every pair only once, applying the
+//                      pair term to both bodies
+
+//                  The module is incubating, so this source set (vector/)
+//                      is compiled apart from the rest, with
+//                          --add-modules jdk.incubator.vector
+//                      and the class is only loaded by name (see
+//                      DirectSumSolver.vectorKernel), falling back to the
+//                      scalar kernel when it is missing or the module
+//                      wasn't added at run time
+
+//                  The sums for body i are kept per lane and added up
+//                      after the loop, so they round differently from the
+//                      scalar kernel (by a few ulps)
+
+//                  The inner loop has no masking, so pairs that need it
+//                      (a cutoff, or coincident bodies without softening)
+//                      are handed to the scalar DirectSumSolver (see
+//                      computeAccelerations)
+
+class VectorizedDirectSolver implements ForceSolver {
+
+    // Preferred vector shape of the hardware
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // Scalar kernel used when the vectorized one can't be
+    DirectSumSolver fallback = new DirectSumSolver();
+
+    // *************************************************************************
+
+    // Method:          lanes
+
+    // Description:     Returns the number of doubles the kernel works on at
+    //                      once (1 means the hardware has no vectors for it
+    //                      to use)
+
+    // Parameters:      None
+
+    // Returns:         The number of lanes
+
+    // Calls:           Nothing
+
+    // Globals:         SPECIES
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    // *************************************************************************
+
+    // Method:          computeAccelerations
+
+    // Description:     Computes the acceleration of every body by direct
+    //                      summation over the pairs (i, j > i), a vector of
+    //                      j at a time, with a scalar loop for the tail
+
+    // Parameters:      bodies - The bodies to compute accelerations for
+    //                  simulation - The simulation supplying G and softening
+
+    // Returns:         Nothing
+
+    // Calls:           DirectSumSolver
+
+    // Globals:         fallback
+    //                  SPECIES
+
+    @Override
+    public void computeAccelerations (BodyStore bodies, Simulation simulation) {
+
+        if (simulation.cutoffRadius > 0) {
+            fallback.computeAccelerations(bodies, simulation);
+            return;
+        }
+
+        double g = simulation.context.G;
+        double e2 = simulation.softening * simulation.softening;
+
+        double[] x = bodies.x;
+        double[] y = bodies.y;
+        double[] m = bodies.mass;
+        double[] aX = bodies.aX;
+        double[] aY = bodies.aY;
+        double[] phi = bodies.potential;
+        int n = bodies.count;
+
+        for (int i = 0; i < n; i++) {
+            aX[i] = 0;
+            aY[i] = 0;
+            phi[i] = 0;
+        }
+
+        DoubleVector softening = DoubleVector.broadcast(SPECIES, e2);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+
+        for (int i = 0; i < n; i++) {
+
+            double x1 = x[i];
+            double y1 = y[i];
+            double m1 = m[i];
+
+            DoubleVector x1s = DoubleVector.broadcast(SPECIES, x1);
+            DoubleVector y1s = DoubleVector.broadcast(SPECIES, y1);
+            DoubleVector m1s = DoubleVector.broadcast(SPECIES, m1);
+
+            DoubleVector sumXs = DoubleVector.zero(SPECIES);
+            DoubleVector sumYs = DoubleVector.zero(SPECIES);
+            DoubleVector sumPhis = DoubleVector.zero(SPECIES);
+
+            int j = i + 1;
+            int bound = j + SPECIES.loopBound(n - j);
+
+            for (; j < bound; j += SPECIES.length()) {
+
+                DoubleVector dX = DoubleVector.fromArray(SPECIES, x, j).sub(x1s);
+                DoubleVector dY = DoubleVector.fromArray(SPECIES, y, j).sub(y1s);
+                DoubleVector softened = dX.mul(dX).add(dY.mul(dY)).add(softening);
+                DoubleVector inverseCube = one.div(softened.mul(softened.sqrt()));
+
+                DoubleVector toI = DoubleVector.fromArray(SPECIES, m, j).mul(inverseCube);
+                DoubleVector toJ = m1s.mul(inverseCube);
+
+                sumXs = sumXs.add(toI.mul(dX));
+                sumYs = sumYs.add(toI.mul(dY));
+
+                DoubleVector.fromArray(SPECIES, aX, j).sub(toJ.mul(dX)).intoArray(aX, j);
+                DoubleVector.fromArray(SPECIES, aY, j).sub(toJ.mul(dY)).intoArray(aY, j);
+
+                // The pair potential m / sqrt(softened) reuses the same terms:
+                sumPhis = sumPhis.add(toI.mul(softened));
+                DoubleVector.fromArray(SPECIES, phi, j).add(toJ.mul(softened)).intoArray(phi, j);
+
+            }
+
+            double sumX = sumXs.reduceLanes(VectorOperators.ADD);
+            double sumY = sumYs.reduceLanes(VectorOperators.ADD);
+            double sumPhi = sumPhis.reduceLanes(VectorOperators.ADD);
+
+            // The pairs left over after the last full vector:
+            for (; j < n; j++) {
+
+                double dX = x[j] - x1;
+                double dY = y[j] - y1;
+                double softened = dX * dX + dY * dY + e2;
+                double inverseCube = 1 / (softened * Math.sqrt(softened));
+
+                double toI = m[j] * inverseCube;
+                double toJ = m1 * inverseCube;
+
+                sumX += toI * dX;
+                sumY += toI * dY;
+
+                aX[j] -= toJ * dX;
+                aY[j] -= toJ * dY;
+
+                sumPhi += toI * softened;
+                phi[j] += toJ * softened;
+
+            }
+
+            aX[i] += sumX;
+            aY[i] += sumY;
+            phi[i] += sumPhi;
+
+        }
+
+        boolean coincident = false;
+        for (int i = 0; i < n; i++) {
+            aX[i] *= g;
+            aY[i] *= g;
+            phi[i] *= -g;
+            coincident |= Double.isNaN(aX[i]) | Double.isNaN(aY[i]);
+        }
+
+        // Coincident bodies without softening give 0/0, so let the scalar
+        // kernel skip those pairs:
+        if (coincident) {
+            fallback.computeAccelerations(bodies, simulation);
+        }
+
+    }
+
+    // *************************************************************************
+
+    // Method:          getName
+
+    // Description:     Returns a short description of the backend for menus
+
+    // Parameters:      None
+
+    // Returns:         The name of the backend
+
+    // Calls:           Nothing
+
+    // Globals:         SPECIES
+
+    @Override
+    public String getName() {
+        return "Direct summation (Vector API kernel, " + SPECIES.length() + " lanes)";
+    }
+
+    // *************************************************************************
+
+}
+
+// *****************************************************************************
+// *****************************************************************************